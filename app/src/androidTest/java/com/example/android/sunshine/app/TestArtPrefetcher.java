@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.List;
+
+public class TestArtPrefetcher extends AndroidTestCase {
+
+    private SharedPreferences mPrefs;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPack = mPrefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (null == mArtPack) {
+            mPrefs.edit().remove(mContext.getString(R.string.pref_art_pack_key)).commit();
+        } else {
+            mPrefs.edit().putString(mContext.getString(R.string.pref_art_pack_key), mArtPack).commit();
+        }
+        super.tearDown();
+    }
+
+    private SunshineSettings useArtPack(int artPackId) {
+        final String artPack = mContext.getString(artPackId);
+        mPrefs.edit().putString(mContext.getString(R.string.pref_art_pack_key), artPack).commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SunshineSettings.get(mContext).artUrlFormat.equals(artPack);
+            }
+        }.run();
+        return SunshineSettings.get(mContext);
+    }
+
+    private static ContentValues[] days(int... weatherIds) {
+        ContentValues[] days = new ContentValues[weatherIds.length];
+        for (int i = 0; i < weatherIds.length; i++) {
+            days[i] = new ContentValues();
+            days[i].put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+        }
+        return days;
+    }
+
+    public void testArtUrls() {
+        // Rain twice over, clouds twice over and an id with no art
+        ContentValues[] week = days(500, 501, 803, 804, 800, 905, 500);
+
+        SunshineSettings dogs = useArtPack(R.string.pref_art_pack_cute_dogs);
+        List<String> urls = ArtPrefetcher.getArtUrls(dogs, week);
+        assertEquals(3, urls.size());
+        assertEquals(dogs.getArtUrl(500), urls.get(0));
+        assertEquals(dogs.getArtUrl(803), urls.get(1));
+        assertEquals(dogs.getArtUrl(800), urls.get(2));
+
+        SunshineSettings bundled = useArtPack(R.string.pref_art_pack_sunshine);
+        assertTrue(ArtPrefetcher.getArtUrls(bundled, week).isEmpty());
+        assertEquals(0, ArtPrefetcher.prefetch(mContext, week));
+    }
+
+    public void testHitRatio() {
+        for (int i = 0; i < 100; i++) {
+            ArtPrefetcher.record(true);
+        }
+        // Other renders may have been counted before, but these push the ratio up
+        assertTrue(ArtPrefetcher.getMemoryHitRatio() > 0);
+        assertTrue(ArtPrefetcher.getMemoryHitRatio() <= 1);
+    }
+}
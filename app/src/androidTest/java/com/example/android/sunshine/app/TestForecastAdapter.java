@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestForecastAdapter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    // Enough binds to scroll the two weeks back and forth a good many times.
+    private static final int BINDS = 20000;
+
+    // Fixed so forecasts built at different moments line up day for day.
+    private static final long TODAY = System.currentTimeMillis();
+
+    private static final int[] CONDITIONS = {200, 300, 500, 511, 600, 701, 761, 800, 801, 803};
+
+    private Context mThemed;
+    private RecyclerView mParent;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Bundled graphics, so binding never reaches Glide
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPack = prefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+        prefs.edit().putString(mContext.getString(R.string.pref_art_pack_key),
+                mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+        // The rows are formatted with the settings snapshot, which catches up on the main thread
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SunshineSettings.get(mContext).localGraphics;
+            }
+        }.run();
+
+        mThemed = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        mParent = new RecyclerView(mThemed);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        if (null == mArtPack) {
+            editor.remove(mContext.getString(R.string.pref_art_pack_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_art_pack_key), mArtPack);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    private static Cursor forecast() {
+        return forecast(0, -1);
+    }
+
+    // Two weeks from the given day; the high of one day, if any, a degree warmer.
+    private static Cursor forecast(int firstDay, int warmerDay) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int i = firstDay; i < firstDay + DAYS; i++) {
+            int condition = CONDITIONS[i % CONDITIONS.length];
+            double high = 20.5 + i + (i == warmerDay ? 1 : 0);
+            cursor.addRow(new Object[]{i + 1, TODAY + i * DateUtils.DAY_IN_MILLIS, "Clear",
+                    high, 10.25 - i, "94043", condition, 37.4, -122.1, 1.3, 1001.5, 5.5, 90.0});
+        }
+        return cursor;
+    }
+
+    // What ForecastLoader would deliver after having delivered previous.
+    private ForecastLoader.ModelCursor load(Cursor cursor, ForecastDayModel[] previous) {
+        return new ForecastLoader.ModelCursor(cursor,
+                ForecastDayModel.fromCursor(mContext, cursor), previous);
+    }
+
+    private ForecastAdapter adapter() {
+        ForecastAdapter adapter = new ForecastAdapter(mThemed,
+                new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                    @Override
+                    public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                    }
+                }, new View(mThemed), AbsListView.CHOICE_MODE_NONE);
+        adapter.swapCursor(forecast());
+        return adapter;
+    }
+
+    public void testBindShowsFormattedDay() {
+        ForecastAdapter adapter = adapter();
+        Cursor cursor = adapter.getCursor();
+        assertEquals(DAYS, adapter.getItemCount());
+
+        for (int position = 0; position < DAYS; position++) {
+            ForecastAdapter.ForecastAdapterViewHolder holder =
+                    adapter.onCreateViewHolder(mParent, adapter.getItemViewType(position));
+            adapter.onBindViewHolder(holder, position);
+
+            cursor.moveToPosition(position);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+            String high = Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            String low = Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+
+            assertEquals(Utility.getFriendlyDayString(mContext,
+                    cursor.getLong(ForecastFragment.COL_WEATHER_DATE), position == 0),
+                    holder.mDateView.getText().toString());
+            assertEquals(description, holder.mDescriptionView.getText().toString());
+            assertEquals(mContext.getString(R.string.a11y_forecast, description),
+                    holder.mDescriptionView.getContentDescription().toString());
+            assertEquals(high, holder.mHighTempView.getText().toString());
+            assertEquals(mContext.getString(R.string.a11y_high_temp, high),
+                    holder.mHighTempView.getContentDescription().toString());
+            assertEquals(low, holder.mLowTempView.getText().toString());
+            assertEquals(mContext.getString(R.string.a11y_low_temp, low),
+                    holder.mLowTempView.getContentDescription().toString());
+        }
+    }
+
+    public void testSwapCursorKeepsCursorUnmoved() {
+        ForecastAdapter adapter = adapter();
+        assertEquals(-1, adapter.getCursor().getPosition());
+        adapter.swapCursor(null);
+        assertEquals(0, adapter.getItemCount());
+    }
+
+    public void testDiff() {
+        ForecastDayModel[] twoWeeks = ForecastDayModel.fromCursor(mContext, forecast(0, -1));
+
+        assertTrue(ForecastDiff.between(twoWeeks,
+                ForecastDayModel.fromCursor(mContext, forecast(0, -1))).isEmpty());
+        assertEquals("C5+1", ForecastDiff.between(twoWeeks,
+                ForecastDayModel.fromCursor(mContext, forecast(0, 5))).toString());
+        // The next day's sync: today drops off, a new day arrives at the end and the new
+        // first row switches to the today layout.
+        assertEquals("R0+1 I13+1 C0+1", ForecastDiff.between(twoWeeks,
+                ForecastDayModel.fromCursor(mContext, forecast(1, -1))).toString());
+        assertEquals("I0+14", ForecastDiff.between(new ForecastDayModel[0], twoWeeks).toString());
+        assertEquals("R0+14", ForecastDiff.between(twoWeeks, new ForecastDayModel[0]).toString());
+    }
+
+    private static class CountingAdapter extends ForecastAdapter {
+        int binds;
+        int creates;
+
+        CountingAdapter(Context context) {
+            this(context, AbsListView.CHOICE_MODE_NONE);
+        }
+
+        CountingAdapter(Context context, int choiceMode) {
+            super(context, new ForecastAdapterOnClickHandler() {
+                @Override
+                public void onClick(Long date, ForecastAdapterViewHolder vh) {
+                }
+            }, new View(context), choiceMode);
+        }
+
+        @Override
+        public ForecastAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
+            creates++;
+            return super.onCreateViewHolder(viewGroup, viewType);
+        }
+
+        @Override
+        public void onBindViewHolder(ForecastAdapterViewHolder holder, int position) {
+            binds++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+
+    // Tall enough that every day is on screen.
+    private static void layout(RecyclerView recyclerView) {
+        recyclerView.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(20000, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 20000);
+    }
+
+    public void testSyncRebindsOnlyChangedDay() {
+        CountingAdapter adapter = new CountingAdapter(mThemed);
+        RecyclerView recyclerView = new RecyclerView(mThemed);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mThemed));
+        recyclerView.setItemAnimator(null);
+        recyclerView.setAdapter(adapter);
+
+        ForecastLoader.ModelCursor first = load(forecast(0, -1), null);
+        adapter.swapCursor(first);
+        layout(recyclerView);
+        assertEquals(DAYS, adapter.binds);
+
+        adapter.binds = 0;
+        adapter.swapCursor(load(forecast(0, 5), first.getModels()));
+        layout(recyclerView);
+        assertEquals("Error: a sync changing one day rebound other days", 1, adapter.binds);
+
+        // A cursor diffed against some other list redraws everything
+        adapter.binds = 0;
+        adapter.swapCursor(load(forecast(0, 6), first.getModels()));
+        layout(recyclerView);
+        assertEquals(DAYS, adapter.binds);
+    }
+
+    public void testStableIds() {
+        ForecastAdapter adapter = adapter();
+        assertTrue(adapter.hasStableIds());
+        ForecastDayModel[] twoWeeks = ForecastDayModel.fromCursor(mContext, forecast(0, -1));
+        ForecastDayModel[] nextDay = ForecastDayModel.fromCursor(mContext, forecast(1, -1));
+        // Same day, same id, whatever the row id and position
+        assertEquals(twoWeeks[1].stableId, nextDay[0].stableId);
+        assertEquals(twoWeeks[1].stableId, adapter.getItemId(1));
+        assertFalse(twoWeeks[0].stableId == twoWeeks[1].stableId);
+        // The same day somewhere else is another item
+        assertFalse(twoWeeks[0].stableId ==
+                ForecastDayModel.stableId("elsewhere", twoWeeks[0].date));
+    }
+
+    public void testResyncKeepsSelection() {
+        CountingAdapter adapter = new CountingAdapter(mThemed, AbsListView.CHOICE_MODE_SINGLE);
+        RecyclerView recyclerView = new RecyclerView(mThemed);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mThemed));
+        recyclerView.setItemAnimator(null);
+        recyclerView.setAdapter(adapter);
+
+        ForecastLoader.ModelCursor first = load(forecast(0, -1), null);
+        adapter.swapCursor(first);
+        layout(recyclerView);
+        adapter.selectView(recyclerView.findViewHolderForAdapterPosition(3));
+        assertEquals(3, adapter.getSelectedItemPosition());
+        long selectedDate = first.getModels()[3].date;
+
+        // The next day's sync: today drops off the top, so the selected day moves up a row
+        adapter.binds = 0;
+        ForecastLoader.ModelCursor second = load(forecast(1, -1), first.getModels());
+        adapter.swapCursor(second);
+        layout(recyclerView);
+        assertEquals(2, adapter.getSelectedItemPosition());
+        assertEquals(adapter.getPositionForDate(selectedDate), adapter.getSelectedItemPosition());
+        assertEquals("Error: only the new first row and the new last day should bind",
+                2, adapter.binds);
+
+        // Even a result that has to redraw everything keeps the selection, and every row
+        // binds into the holder its day already had
+        adapter.creates = 0;
+        adapter.swapCursor(load(forecast(1, 4), null));
+        layout(recyclerView);
+        assertEquals(2, adapter.getSelectedItemPosition());
+        assertEquals("Error: a full redraw created new holders", 0, adapter.creates);
+
+        // A shorter list that no longer has the day drops the selection
+        MatrixCursor shorter = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        adapter.swapCursor(load(shorter, null));
+        assertEquals(RecyclerView.NO_POSITION, adapter.getSelectedItemPosition());
+    }
+
+    /*
+        Binds the same rows over and over, once from the models and once formatting from the
+        cursor the way every bind used to.  Logs time and allocations per bind.
+     */
+    public void testBindCost() {
+        ForecastAdapter adapter = adapter();
+        Cursor cursor = adapter.getCursor();
+        ForecastAdapter.ForecastAdapterViewHolder[] holders =
+                new ForecastAdapter.ForecastAdapterViewHolder[DAYS];
+        for (int position = 0; position < DAYS; position++) {
+            holders[position] = adapter.onCreateViewHolder(mParent, adapter.getItemViewType(position));
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            adapter.onBindViewHolder(holders[i % DAYS], i % DAYS);
+        }
+        long modelNanos = System.nanoTime() - start;
+        int modelAllocs = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        start = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            bindFromCursor(cursor, holders[i % DAYS], i % DAYS);
+        }
+        long cursorNanos = System.nanoTime() - start;
+        int cursorAllocs = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.d(LOG_TAG, "Per bind, models: " + modelNanos / BINDS + "ns, " +
+                (float) modelAllocs / BINDS + " allocations; formatting from the cursor: " +
+                cursorNanos / BINDS + "ns, " + (float) cursorAllocs / BINDS + " allocations");
+        assertTrue("Error: binding from models allocated more than formatting every bind",
+                modelAllocs < cursorAllocs);
+    }
+
+    // What onBindViewHolder did before the rows were formatted on the loader thread.
+    private void bindFromCursor(Cursor cursor, ForecastAdapter.ForecastAdapterViewHolder holder,
+                                int position) {
+        cursor.moveToPosition(position);
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        holder.mIconView.setImageResource(position == 0
+                ? Utility.getArtResourceForWeatherCondition(weatherId)
+                : Utility.getIconResourceForWeatherCondition(weatherId));
+        Utility.usingLocalGraphics(mContext);
+        holder.mDateView.setText(Utility.getFriendlyDayString(mContext,
+                cursor.getLong(ForecastFragment.COL_WEATHER_DATE), position == 0));
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        holder.mDescriptionView.setText(description);
+        holder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        String high = Utility.formatTemperature(mContext, cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        holder.mHighTempView.setText(high);
+        holder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, high));
+        String low = Utility.formatTemperature(mContext, cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        holder.mLowTempView.setText(low);
+        holder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, low));
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.DayKey;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.File;
+import java.util.TimeZone;
+
+public class TestForecastStore extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastStore.class.getSimpleName();
+
+    private static final String LOCATION = "94043";
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_RUNS = 200;
+
+    private SharedPreferences mPrefs;
+    private String mLocation;
+    private File mSnapshot;
+    private File mSnapshotBackup;
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocation = mPrefs.getString(mContext.getString(R.string.pref_location_key), null);
+        useLocation(LOCATION);
+
+        // Keep whatever the last sync wrote out of the way
+        mSnapshot = ForecastSnapshot.getFile(mContext);
+        mSnapshotBackup = new File(mContext.getCacheDir(), "backup_" + ForecastSnapshot.FILE_NAME);
+        mSnapshotBackup.delete();
+        if (mSnapshot.exists()) {
+            assertTrue(mSnapshot.renameTo(mSnapshotBackup));
+        }
+
+        ForecastStore.getInstance().clear();
+        mToday = WeatherContract.getDayKey(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ForecastStore.getInstance().clear();
+        mSnapshot.delete();
+        if (mSnapshotBackup.exists()) {
+            mSnapshotBackup.renameTo(mSnapshot);
+        }
+        if (null == mLocation) {
+            mPrefs.edit().remove(mContext.getString(R.string.pref_location_key)).commit();
+        } else {
+            mPrefs.edit().putString(mContext.getString(R.string.pref_location_key), mLocation).commit();
+        }
+        super.tearDown();
+    }
+
+    private void useLocation(final String location) {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_location_key), location).commit();
+        // The store checks against the settings snapshot, which catches up on the main thread
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SunshineSettings.get(mContext).locationSetting.equals(location);
+            }
+        }.run();
+    }
+
+    private static double high(int day) {
+        return 20.5 + day;
+    }
+
+    private static double low(int day) {
+        return 10.25 - day;
+    }
+
+    private static int condition(int day) {
+        return 500 + day;
+    }
+
+    private static float humidity(int day) {
+        return 40 + day;
+    }
+
+    // Days from the given offset from today, as the sync hands them to the snapshot.
+    private ContentValues[] syncedDays(int firstDay) {
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            int day = firstDay + i;
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_DAY_KEY, mToday + day);
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, condition(day));
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, high(day));
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, low(day));
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+            days[i] = values;
+        }
+        return days;
+    }
+
+    // The same days as ForecastLoader would load them, from today on.
+    private ForecastDayModel[] loadedDays() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int day = 0; day < DAYS; day++) {
+            cursor.addRow(new Object[]{day + 1, DayKey.toMillis(mToday + day, TimeZone.getDefault()),
+                    "Rain", high(day), low(day), LOCATION, condition(day), 37.4, -122.1,
+                    humidity(day), 1001.5, 5.5, 90.0});
+        }
+        return ForecastDayModel.fromCursor(mContext, cursor);
+    }
+
+    // What the first frame gets once the application's prefetch has run.
+    private ForecastDayModel[] startupList() throws Exception {
+        ForecastStore.getInstance().prefetchStartupList(mContext).get();
+        return ForecastStore.getInstance().getStartupList(mContext);
+    }
+
+    public void testNothingToShow() throws Exception {
+        assertNull(startupList());
+    }
+
+    public void testSnapshotStandsInAfterColdStart() throws Exception {
+        ForecastSnapshot.write(mContext, LOCATION, syncedDays(0));
+        ForecastDayModel[] models = startupList();
+        assertNotNull(models);
+        assertEquals(ForecastSnapshot.MAX_DAYS, models.length);
+
+        SunshineSettings settings = SunshineSettings.get(mContext);
+        for (int day = 0; day < models.length; day++) {
+            assertEquals(DayKey.toMillis(mToday + day, TimeZone.getDefault()), models[day].date);
+            assertEquals(condition(day), models[day].weatherId);
+            assertEquals(Utility.formatTemperature(mContext, settings, high(day)), models[day].high);
+            assertEquals(Utility.formatTemperature(mContext, settings, low(day)), models[day].low);
+            assertEquals(Utility.getFriendlyDayString(mContext, models[day].date, true),
+                    models[day].longDateText);
+        }
+    }
+
+    public void testSnapshotSkipsPastDays() throws Exception {
+        // Synced two days ago, so its first two days are gone
+        ForecastSnapshot.write(mContext, LOCATION, syncedDays(-2));
+        ForecastDayModel[] models = startupList();
+        assertNotNull(models);
+        assertEquals(ForecastSnapshot.MAX_DAYS - 2, models.length);
+        assertEquals(DayKey.toMillis(mToday, TimeZone.getDefault()), models[0].date);
+        assertEquals(condition(0), models[0].weatherId);
+    }
+
+    public void testOtherLocationsAreNotShown() throws Exception {
+        ForecastSnapshot.write(mContext, "elsewhere", syncedDays(0));
+        assertNull(startupList());
+
+        ForecastStore.getInstance().putList(mContext, "elsewhere", loadedDays());
+        assertNull(ForecastStore.getInstance().getList(mContext));
+        assertNull(startupList());
+    }
+
+    public void testLoadedListWins() throws Exception {
+        ForecastSnapshot.write(mContext, LOCATION, syncedDays(0));
+        ForecastDayModel[] loaded = loadedDays();
+        ForecastStore.getInstance().putList(mContext, LOCATION, loaded);
+        assertSame(loaded, startupList());
+
+        // Changing location leaves it behind
+        useLocation("elsewhere");
+        assertNull(ForecastStore.getInstance().getList(mContext));
+    }
+
+    public void testLoaderOnlyAddsToStartupList() throws Exception {
+        ForecastSnapshot.write(mContext, LOCATION, syncedDays(0));
+        ForecastDayModel[] startup = startupList();
+
+        // Same days, so the loader's first result only adds the week the snapshot leaves out
+        ForecastDayModel[] loaded = loadedDays();
+        ForecastLoader.ModelCursor result =
+                new ForecastLoader.ModelCursor(new MatrixCursor(new String[0]), loaded, startup);
+        assertEquals("I7+7", result.getDiffFrom(startup).toString());
+        // and the days keep their ids, so holders and the selection carry over
+        for (int i = 0; i < startup.length; i++) {
+            assertEquals(startup[i].stableId, loaded[i].stableId);
+        }
+    }
+
+    public void testDetailReadsTheLoadedList() throws Exception {
+        ForecastDayModel[] loaded = loadedDays();
+        ForecastStore store = ForecastStore.getInstance();
+        long date = loaded[3].date;
+        assertNull(store.getDay(mContext, LOCATION, date));
+
+        store.putList(mContext, LOCATION, loaded);
+        ForecastDayModel day = store.getDay(mContext, LOCATION, date);
+        assertSame(loaded[3], day);
+        assertTrue(day.hasDetails());
+        assertEquals(mContext.getString(R.string.format_humidity, humidity(3)), day.humidity);
+        assertEquals(Utility.getFormattedWind(mContext, 5.5f, 90f), day.wind);
+        assertEquals(mContext.getString(R.string.format_pressure, 1001.5f), day.pressure);
+        assertEquals(Utility.getFullFriendlyDayString(mContext, date), day.fullDateText);
+
+        // Days the list doesn't have, and other locations, are left to the detail query
+        assertNull(store.getDay(mContext, LOCATION, date + 1));
+        assertNull(store.getDay(mContext, "elsewhere", date));
+    }
+
+    public void testSnapshotDaysHaveNoDetails() throws Exception {
+        ForecastSnapshot.write(mContext, LOCATION, syncedDays(0));
+        ForecastDayModel[] startup = startupList();
+        assertFalse(startup[0].hasDetails());
+
+        // Kept as the list, it still can't stand in for the detail query
+        ForecastStore.getInstance().putList(mContext, LOCATION, startup);
+        assertNull(ForecastStore.getInstance().getDay(mContext, LOCATION, startup[0].date));
+    }
+
+    public void testListenersHearNewLists() {
+        final int[] heard = new int[1];
+        ForecastStore.OnListChangedListener listener = new ForecastStore.OnListChangedListener() {
+            @Override
+            public void onListChanged() {
+                heard[0]++;
+            }
+        };
+        ForecastStore store = ForecastStore.getInstance();
+        store.addOnListChangedListener(listener);
+        store.putList(mContext, LOCATION, loadedDays());
+        store.removeOnListChangedListener(listener);
+        store.putList(mContext, LOCATION, loadedDays());
+        assertEquals(1, heard[0]);
+    }
+
+    // What the detail view pays to show a day: a lookup in the store against the query and
+    // formatting it replaces.
+    public void testDetailLookupCost() {
+        ForecastStore store = ForecastStore.getInstance();
+        ForecastDayModel[] loaded = loadedDays();
+        store.putList(mContext, LOCATION, loaded);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            assertNotNull(store.getDay(mContext, LOCATION, loaded[i % DAYS].date));
+        }
+        long storeNanos = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(LOCATION, loaded[0].date);
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            Cursor cursor = mContext.getContentResolver().query(uri,
+                    ForecastFragment.FORECAST_COLUMNS, null, null, null);
+            if (null != cursor) {
+                if (cursor.moveToFirst()) ForecastDayModel.fromCursor(mContext, cursor);
+                cursor.close();
+            }
+        }
+        long queryNanos = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        Log.d(LOG_TAG, "Detail day from the store " + storeNanos / 1000 + "us, from a query " +
+                queryNanos / 1000 + "us");
+    }
+
+    // How long the list takes to have something to draw from each source, and how much of
+    // that is left on the main thread.
+    public void testStartupListCost() throws Exception {
+        ForecastSnapshot.write(mContext, LOCATION, syncedDays(0));
+        ForecastStore store = ForecastStore.getInstance();
+
+        long prefetchNanos = 0;
+        long mainThreadNanos = 0;
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            store.clear();
+            long start = System.nanoTime();
+            store.prefetchStartupList(mContext).get();
+            long prefetched = System.nanoTime();
+            assertNotNull(store.getStartupList(mContext));
+            prefetchNanos += prefetched - start;
+            mainThreadNanos += System.nanoTime() - prefetched;
+        }
+
+        store.putList(mContext, LOCATION, loadedDays());
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RUNS; i++) {
+            assertNotNull(store.getStartupList(mContext));
+        }
+        long memoryNanos = (System.nanoTime() - start) / BENCHMARK_RUNS;
+
+        Log.d(LOG_TAG, "Startup list prefetched from the snapshot in " +
+                prefetchNanos / BENCHMARK_RUNS / 1000 + "us, then " +
+                mainThreadNanos / BENCHMARK_RUNS / 1000 + "us on the caller; from memory " +
+                memoryNanos / 1000 + "us");
+    }
+}
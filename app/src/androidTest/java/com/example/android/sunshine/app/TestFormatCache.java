@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TestFormatCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestFormatCache.class.getSimpleName();
+
+    // What a scroll through two weeks asks for, over and over.
+    private static final int ROUNDS = 2000;
+    private static final int DAYS = 14;
+
+    private static final double[] TEMPERATURES = {-40, -12.5, -0.4, -0.0, 0, 0.49, 0.5, 2.5,
+            17.36, 21.5, 33.333, 45.9};
+
+    private Locale mLocale;
+    private TimeZone mZone;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocale = Locale.getDefault();
+        mZone = TimeZone.getDefault();
+        mUnits = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mLocale);
+        TimeZone.setDefault(mZone);
+        setUnits(mUnits);
+        super.tearDown();
+    }
+
+    private void setUnits(String units) {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        if (null == units) {
+            editor.remove(mContext.getString(R.string.pref_units_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_units_key), units);
+        }
+        editor.commit();
+    }
+
+    // Asked twice, so the second answer comes from the cache.
+    private void checkDays(long start, int days) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = -1; i < days; i++) {
+                long date = start + i * DateUtils.DAY_IN_MILLIS;
+                assertEquals(Utility.formatFriendlyDay(mContext, date, false),
+                        Utility.getFriendlyDayString(mContext, date, false));
+                assertEquals(Utility.formatFriendlyDay(mContext, date, true),
+                        Utility.getFriendlyDayString(mContext, date, true));
+                assertEquals(Utility.formatFullFriendlyDay(mContext, date),
+                        Utility.getFullFriendlyDayString(mContext, date));
+                assertEquals(Utility.formatDayName(mContext, date),
+                        Utility.getDayName(mContext, date));
+                assertEquals(Utility.formatMonthDay(mContext, date),
+                        Utility.getFormattedMonthDay(mContext, date));
+            }
+        }
+    }
+
+    private void checkTemperatures() {
+        boolean metric = Utility.isMetric(mContext);
+        for (int pass = 0; pass < 2; pass++) {
+            for (double temperature : TEMPERATURES) {
+                assertEquals(Utility.formatTemperature(mContext, temperature, metric),
+                        Utility.formatTemperature(mContext, temperature));
+            }
+        }
+    }
+
+    public void testMatchesUncachedFormatting() {
+        checkDays(System.currentTimeMillis(), 30);
+        // Local midnights, as stored, either side of a DST change
+        TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+        checkDays(1446361200000L, 10);
+        checkDays(1457856000000L, 10);
+        checkTemperatures();
+        assertTrue(FormatCache.getInstance().dayEntries() <= FormatCache.MAX_ENTRIES);
+    }
+
+    public void testFollowsUnitsAndLocale() {
+        setUnits(mContext.getString(R.string.pref_units_metric));
+        assertEquals(Utility.formatTemperature(mContext, 21.5, true),
+                Utility.formatTemperature(mContext, 21.5));
+        setUnits(mContext.getString(R.string.pref_units_imperial));
+        assertEquals(Utility.formatTemperature(mContext, 21.5, false),
+                Utility.formatTemperature(mContext, 21.5));
+        checkTemperatures();
+
+        long date = System.currentTimeMillis() + 3 * DateUtils.DAY_IN_MILLIS;
+        Locale.setDefault(Locale.US);
+        String english = Utility.getDayName(mContext, date);
+        Locale.setDefault(Locale.GERMANY);
+        assertFalse(english.equals(Utility.getDayName(mContext, date)));
+        assertEquals(Utility.formatDayName(mContext, date), Utility.getDayName(mContext, date));
+    }
+
+    public void testDayRolloverDropsDates() {
+        long now = System.currentTimeMillis();
+        FormatCache cache = FormatCache.getInstance();
+        Utility.getFriendlyDayString(mContext, now, true);
+        Utility.formatTemperature(mContext, 21.5);
+        assertTrue(cache.dayEntries() > 0);
+
+        cache.validate(now + DateUtils.DAY_IN_MILLIS);
+        assertEquals(0, cache.dayEntries());
+        // Temperatures don't care what day it is
+        assertTrue(cache.temperatureEntries() > 0);
+    }
+
+    public void testCachedFormattingCost() {
+        long today = System.currentTimeMillis();
+        boolean metric = Utility.isMetric(mContext);
+
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < DAYS; i++) {
+                long date = today + i * DateUtils.DAY_IN_MILLIS;
+                Utility.formatFriendlyDay(mContext, date, i == 0);
+                Utility.formatTemperature(mContext, 20.5 + i, metric);
+            }
+        }
+        long uncached = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            for (int i = 0; i < DAYS; i++) {
+                long date = today + i * DateUtils.DAY_IN_MILLIS;
+                Utility.getFriendlyDayString(mContext, date, i == 0);
+                Utility.formatTemperature(mContext, 20.5 + i);
+            }
+        }
+        long cached = System.nanoTime() - start;
+
+        int calls = ROUNDS * DAYS;
+        Log.d(LOG_TAG, "Day and temperature for a row: " + uncached / calls + "ns formatting, " +
+                cached / calls + "ns cached");
+    }
+}
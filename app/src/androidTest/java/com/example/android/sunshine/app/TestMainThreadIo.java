@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Runs our I/O paths on the main thread and fails on any blocking I/O that isn't in
+    MainThreadIo's baseline.  The paths that are expected to stay within the baseline also run
+    under a StrictMode policy that kills the process on framework I/O.
+ */
+public class TestMainThreadIo extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMainThreadIo.class.getSimpleName();
+
+    private static final String WRITE_SITE =
+            IoViolationLog.DISK_WRITE + " TestMainThreadIo.writeOnPurpose";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Have the prefs loaded off the main thread, so the paths below only touch the disk
+        // where they mean to.
+        SunshineSettings.get(mContext);
+        Utility.getPreferredLocation(mContext);
+        MainThreadIo.getInstance().reset();
+        ForecastStore.getInstance().clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Log.d(LOG_TAG, MainThreadIo.getInstance().export());
+        MainThreadIo.getInstance().reset();
+        ForecastStore.getInstance().clear();
+        super.tearDown();
+    }
+
+    private static void runOnMainThread(final Runnable runnable, final boolean fatalStrictMode)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy previous = fatalStrictMode
+                        ? MainThreadIo.installFatalStrictMode() : null;
+                try {
+                    runnable.run();
+                } finally {
+                    if (null != previous) StrictMode.setThreadPolicy(previous);
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue("Main thread didn't run the task", done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void writeOnPurpose() {
+        MainThreadIo.getInstance().onDiskWrite();
+    }
+
+    private static void queryOnPurpose(Context context) {
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        if (null != cursor) cursor.close();
+    }
+
+    private static void deleteOnPurpose(Context context) {
+        context.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"nowhere"});
+    }
+
+    private static void readPrefsOnPurpose(Context context) {
+        Utility.isMetric(context);
+    }
+
+    private static void assertNoNewViolations() {
+        assertTrue("New I/O on the main thread: " + MainThreadIo.getInstance().getNewViolations()
+                        + "\n" + MainThreadIo.getInstance().export(),
+                MainThreadIo.getInstance().getNewViolations().isEmpty());
+    }
+
+    private static void assertCaughtAsNew(String key) {
+        assertEquals(key, 1, MainThreadIo.getInstance().getCount(key));
+        assertTrue(key, MainThreadIo.getInstance().getNewViolations().contains(key));
+    }
+
+    public void testIgnoresOtherThreads() {
+        // Tests run on the instrumentation thread, not the main one
+        writeOnPurpose();
+        queryOnPurpose(mContext);
+        readPrefsOnPurpose(mContext);
+        assertEquals(0, MainThreadIo.getInstance().getTotal());
+    }
+
+    public void testRecordsCallSiteOnMainThread() throws InterruptedException {
+        if (!MainThreadIo.ENABLED) return;
+
+        Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                writeOnPurpose();
+            }
+        };
+        runOnMainThread(write, false);
+        runOnMainThread(write, false);
+
+        assertEquals(2, MainThreadIo.getInstance().getCount(WRITE_SITE));
+        assertEquals(2, MainThreadIo.getInstance().getTotal());
+        // This one is nowhere near the baseline, so it has to be reported as new
+        assertTrue(MainThreadIo.getInstance().getNewViolations().contains(WRITE_SITE));
+        assertTrue(MainThreadIo.getInstance().export().contains(
+                "disk_write,TestMainThreadIo.writeOnPurpose,2,new"));
+    }
+
+    /*
+        Nothing at these sites calls the guard itself; the provider, the write queue and the
+        prefs accessors do, and the site is charged to their caller.
+     */
+    public void testChokePointsChargeTheirCaller() throws InterruptedException {
+        if (!MainThreadIo.ENABLED) return;
+
+        final Context context = getContext();
+        Utility.forgetPrefsLoaded();
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                queryOnPurpose(context);
+                deleteOnPurpose(context);
+                readPrefsOnPurpose(context);
+            }
+        }, false);
+
+        assertCaughtAsNew(IoViolationLog.DISK_READ + " TestMainThreadIo.queryOnPurpose");
+        assertCaughtAsNew(IoViolationLog.DISK_WRITE + " TestMainThreadIo.deleteOnPurpose");
+        assertCaughtAsNew(IoViolationLog.DISK_READ + " TestMainThreadIo.readPrefsOnPurpose");
+        assertEquals(3, MainThreadIo.getInstance().getTotal());
+    }
+
+    public void testOnlyTheFirstPrefsReadIsCounted() throws InterruptedException {
+        if (!MainThreadIo.ENABLED) return;
+
+        final Context context = getContext();
+        Utility.forgetPrefsLoaded();
+        Runnable read = new Runnable() {
+            @Override
+            public void run() {
+                readPrefsOnPurpose(context);
+            }
+        };
+        runOnMainThread(read, false);
+        runOnMainThread(read, false);
+        // Once loaded, reads come from memory, so even StrictMode's fatal policy has nothing
+        runOnMainThread(read, true);
+
+        assertEquals(1, MainThreadIo.getInstance().getCount(
+                IoViolationLog.DISK_READ + " TestMainThreadIo.readPrefsOnPurpose"));
+        assertEquals(1, MainThreadIo.getInstance().getTotal());
+    }
+
+    public void testStartupListDoesNoMainThreadIo() throws Exception {
+        if (!MainThreadIo.ENABLED) return;
+
+        // As the application does it when the process starts
+        final Context context = getContext();
+        ForecastStore.getInstance().prefetchStartupList(context).get();
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                ForecastStore.getInstance().getStartupList(context);
+            }
+        }, true);
+
+        assertEquals(0, MainThreadIo.getInstance().getTotal());
+    }
+
+    public void testBaselineIsWellFormed() {
+        for (String key : MainThreadIo.BASELINE) {
+            String kind = key.substring(0, key.indexOf(' '));
+            assertTrue(key, kind.equals(IoViolationLog.DISK_READ)
+                    || kind.equals(IoViolationLog.DISK_WRITE)
+                    || kind.equals(IoViolationLog.NETWORK));
+            assertTrue(key, key.indexOf('.') > key.indexOf(' '));
+            assertFalse(key, key.contains("$"));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestSunshineSettings extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSunshineSettings.class.getSimpleName();
+
+    private static final int WRITES = 200;
+    // A row's worth of preference lookups, for a few thousand rows
+    private static final int ROWS = 5000;
+
+    private SharedPreferences mPrefs;
+    private String mUnits;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+        mArtPack = mPrefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        restore(editor, R.string.pref_units_key, mUnits);
+        restore(editor, R.string.pref_art_pack_key, mArtPack);
+        editor.commit();
+        super.tearDown();
+    }
+
+    private void restore(SharedPreferences.Editor editor, int keyId, String value) {
+        if (null == value) {
+            editor.remove(mContext.getString(keyId));
+        } else {
+            editor.putString(mContext.getString(keyId), value);
+        }
+    }
+
+    // Metric with the bundled art, or imperial with the dogs; never anything in between.
+    private void write(boolean metric) {
+        mPrefs.edit()
+                .putString(mContext.getString(R.string.pref_units_key), mContext.getString(
+                        metric ? R.string.pref_units_metric : R.string.pref_units_imperial))
+                .putString(mContext.getString(R.string.pref_art_pack_key), mContext.getString(
+                        metric ? R.string.pref_art_pack_sunshine : R.string.pref_art_pack_cute_dogs))
+                .commit();
+    }
+
+    private void waitForMetric(final boolean metric) {
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SunshineSettings.get(mContext).metric == metric;
+            }
+        }.run();
+    }
+
+    public void testFollowsPreferences() {
+        write(true);
+        waitForMetric(true);
+        SunshineSettings before = SunshineSettings.get(mContext);
+        assertTrue(before.localGraphics);
+        assertEquals(Utility.getPreferredLocation(mContext), before.locationSetting);
+        assertEquals(Utility.isLocationLatLonAvailable(mContext), before.latLonAvailable);
+        assertEquals(Utility.getArtUrlForWeatherCondition(mContext, 800), before.getArtUrl(800));
+
+        write(false);
+        waitForMetric(false);
+        SunshineSettings after = SunshineSettings.get(mContext);
+        assertFalse(after.localGraphics);
+        assertEquals(Utility.getArtUrlForWeatherCondition(mContext, 800), after.getArtUrl(800));
+        assertEquals(Utility.formatTemperature(mContext, 21.5),
+                Utility.formatTemperature(mContext, after, 21.5));
+
+        // A snapshot already handed out never changes under its holder
+        assertTrue(before.metric);
+        assertTrue(before.localGraphics);
+    }
+
+    /*
+        One thread flips units and art pack together while this one keeps taking snapshots.
+        Every snapshot has to come from a single write.
+     */
+    public void testSnapshotsNeverMixWrites() throws Exception {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < WRITES; i++) {
+                    write(i % 2 == 0);
+                }
+            }
+        };
+        writer.start();
+
+        int snapshots = 0;
+        while (writer.isAlive()) {
+            SunshineSettings settings = SunshineSettings.get(mContext);
+            assertEquals("Error: snapshot mixes two writes", settings.metric, settings.localGraphics);
+            snapshots++;
+        }
+        writer.join();
+        // The last write was imperial; the listener catches up on the main thread.
+        waitForMetric(false);
+        assertFalse(SunshineSettings.get(mContext).localGraphics);
+        Log.d(LOG_TAG, snapshots + " snapshots over " + WRITES + " writes");
+    }
+
+    public void testBindPathCost() {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            Utility.usingLocalGraphics(mContext);
+            Utility.getArtUrlForWeatherCondition(mContext, 800);
+            Utility.isMetric(mContext);
+            Utility.isMetric(mContext);
+        }
+        long perCall = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROWS; i++) {
+            SunshineSettings settings = SunshineSettings.get(mContext);
+            settings.getArtUrl(800);
+        }
+        long snapshot = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "Preferences for a row: " + perCall / ROWS + "ns reading each, " +
+                snapshot / ROWS + "ns from the snapshot");
+    }
+}
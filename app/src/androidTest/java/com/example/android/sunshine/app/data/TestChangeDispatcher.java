@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestChangeDispatcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestChangeDispatcher.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    // Long enough for a flush and the binder round trip to the observer
+    private static final long SETTLE_MILLIS = ChangeDispatcher.DEFAULT_MAX_DELAY_MILLIS + 500;
+
+    // Counts onChange calls; each one is a query a CursorLoader would have run again.
+    static class CountingObserver extends ContentObserver {
+        final AtomicInteger mChanges = new AtomicInteger();
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChanges.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Thread.sleep(SETTLE_MILLIS);
+    }
+
+    public void testCovers() {
+        Uri weather = WeatherEntry.CONTENT_URI;
+        Uri forLocation = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri withStartDate = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        assertTrue(ChangeDispatcher.covers(weather, weather));
+        assertTrue(ChangeDispatcher.covers(weather, forLocation));
+        assertTrue(ChangeDispatcher.covers(weather, withStartDate));
+        // the framework ignores the query, so these are the same Uri to it
+        assertTrue(ChangeDispatcher.covers(withStartDate, forLocation));
+        assertFalse(ChangeDispatcher.covers(forLocation, weather));
+        assertFalse(ChangeDispatcher.covers(LocationEntry.CONTENT_URI, weather));
+        assertFalse(ChangeDispatcher.covers(weather, Uri.parse("content://elsewhere/weather")));
+    }
+
+    public void testMergesWithinWindow() throws InterruptedException {
+        HandlerThread thread = new HandlerThread("TestChangeDispatcher");
+        thread.start();
+        ChangeDispatcher dispatcher = new ChangeDispatcher(mContext.getContentResolver(),
+                thread.getLooper(), 200, 2000);
+        CountingObserver observer = new CountingObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, observer);
+        try {
+            dispatcher.notifyChange(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+            dispatcher.notifyChange(WeatherEntry.CONTENT_URI);
+            dispatcher.notifyChange(WeatherEntry.buildWeatherLocation("elsewhere"));
+            assertEquals(0, dispatcher.getDispatchedCount());
+            Thread.sleep(1000);
+
+            assertEquals(3, dispatcher.getRequestedCount());
+            assertEquals(1, dispatcher.getDispatchedCount());
+            assertEquals(1, observer.mChanges.get());
+
+            // Nothing holds a lone change beyond the window
+            dispatcher.notifyChange(WeatherEntry.CONTENT_URI);
+            Thread.sleep(1000);
+            assertEquals(2, observer.mChanges.get());
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            thread.quit();
+        }
+    }
+
+    public void testMaxDelay() throws InterruptedException {
+        HandlerThread thread = new HandlerThread("TestChangeDispatcher");
+        thread.start();
+        ChangeDispatcher dispatcher = new ChangeDispatcher(mContext.getContentResolver(),
+                thread.getLooper(), 200, 500);
+        try {
+            // A change every 50ms never leaves the window quiet, so only the cap flushes.
+            for (int i = 0; i < 20; i++) {
+                dispatcher.notifyChange(WeatherEntry.CONTENT_URI);
+                Thread.sleep(50);
+            }
+            assertTrue("Error: a steady stream of changes was never flushed",
+                    dispatcher.getDispatchedCount() >= 1);
+        } finally {
+            thread.quit();
+        }
+    }
+
+    /*
+        The loaders in ForecastFragment and DetailFragment watch a weather/<location> Uri.  A sync
+        inserts the location, bulk inserts the forecast and deletes old days; changing units and
+        the art pack each signal a change too.  Before, each of those writes to weather made the
+        loaders query again.
+     */
+    public void testRequeriesDuringSyncAndSettingsChange() throws InterruptedException {
+        ChangeDispatcher dispatcher = ChangeDispatcher.getInstance(mContext);
+        long requestedBefore = dispatcher.getRequestedCount();
+        CountingObserver loader = new CountingObserver();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION, today),
+                true, loader);
+        try {
+            // sync
+            long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+            ContentValues[] days = new ContentValues[14];
+            for (int i = 0; i < days.length; i++) {
+                long date = today + i * DAY_IN_MILLIS;
+                days[i] = TestUtilities.createWeatherValues(locationRowId);
+                days[i].put(WeatherEntry.COLUMN_DATE, date);
+                days[i].put(WeatherEntry.COLUMN_DAY_KEY, WeatherContract.getDayKey(date));
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                    WeatherEntry.COLUMN_DAY_KEY + " < ?",
+                    new String[]{Integer.toString(WeatherContract.getDayKey(today + DAY_IN_MILLIS))});
+            Thread.sleep(SETTLE_MILLIS);
+            int afterSync = loader.mChanges.get();
+
+            // units, then art pack
+            dispatcher.notifyChange(WeatherEntry.CONTENT_URI);
+            dispatcher.notifyChange(WeatherEntry.CONTENT_URI);
+            Thread.sleep(SETTLE_MILLIS);
+            int afterSettings = loader.mChanges.get() - afterSync;
+
+            long requested = dispatcher.getRequestedCount() - requestedBefore;
+            Log.d(LOG_TAG, requested + " change notifications requested, loader re-queried " +
+                    afterSync + " times for the sync and " + afterSettings +
+                    " times for the settings change");
+            assertEquals(1, afterSync);
+            assertEquals(1, afterSettings);
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(loader);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import java.util.TimeZone;
+
+/*
+    DayKey against the android.text.format.Time code it replaced, in the device's zone.
+    The zone and DST coverage lives in the JVM tests.
+ */
+public class TestDayKeyAgainstTime extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayKeyAgainstTime.class.getSimpleName();
+
+    private static final long HOUR_IN_MILLIS = 3600000L;
+    private static final int BENCHMARK_DATES = 100000;
+
+    // The old WeatherContract.normalizeDate
+    private static long normalizeWithTime(long startDate) {
+        Time time = new Time();
+        time.set(startDate);
+        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+
+    public void testMatchesTime() {
+        TimeZone zone = TimeZone.getDefault();
+        Time time = new Time();
+        long now = System.currentTimeMillis();
+        // two years either side of today, at every hour of the day over time
+        for (long millis = now - 730 * 24 * HOUR_IN_MILLIS; millis < now + 730 * 24 * HOUR_IN_MILLIS;
+             millis += 25 * HOUR_IN_MILLIS) {
+            time.set(millis);
+            int julianDay = Time.getJulianDay(millis, time.gmtoff);
+            assertEquals("day key at " + millis, julianDay, DayKey.fromMillis(millis, zone));
+            assertEquals("normalized date at " + millis,
+                    normalizeWithTime(millis), DayKey.normalize(millis, zone));
+        }
+    }
+
+    public void testSyncDatesMatchTime() {
+        // The sync adapter used to walk the forecast days with Time.setJulianDay.
+        TimeZone zone = TimeZone.getDefault();
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        dayTime = new Time();
+        for (int i = 0; i < 14; i++) {
+            assertEquals(dayTime.setJulianDay(julianStartDay + i),
+                    DayKey.toMillis(julianStartDay + i, zone));
+        }
+    }
+
+    public void testNormalizeBenchmark() {
+        long[] dates = new long[BENCHMARK_DATES];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BENCHMARK_DATES; i++) {
+            dates[i] = now + i * 7 * HOUR_IN_MILLIS;
+        }
+
+        // warm up both paths
+        long sink = 0;
+        for (int i = 0; i < BENCHMARK_DATES / 10; i++) {
+            sink += normalizeWithTime(dates[i]) + WeatherContract.normalizeDate(dates[i]);
+        }
+
+        long start = System.nanoTime();
+        for (long date : dates) {
+            sink += normalizeWithTime(date);
+        }
+        long timeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        TimeZone zone = TimeZone.getDefault();
+        for (long date : dates) {
+            sink += DayKey.normalize(date, zone);
+        }
+        long dayKeyNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "normalize " + BENCHMARK_DATES + " dates: Time " +
+                timeNanos / BENCHMARK_DATES + "ns/op, DayKey " +
+                dayKeyNanos / BENCHMARK_DATES + "ns/op (" + sink + ")");
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Random;
+
+public class TestForecastColumnCursor extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastColumnCursor.class.getSimpleName();
+
+    private static final int BENCHMARK_ROWS = 2000;
+    private static final int BENCHMARK_PASSES = 20;
+
+    // Same shape as ForecastFragment.FORECAST_COLUMNS
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String JOIN = WeatherEntry.TABLE_NAME + " INNER JOIN " +
+            LocationEntry.TABLE_NAME + " ON " + WeatherEntry.TABLE_NAME + "." +
+            WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        long locationRowId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_ROWS; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+                long date = TestUtilities.TEST_DATE + i * 86400000L;
+                values.put(WeatherEntry.COLUMN_DATE, date);
+                values.put(WeatherEntry.COLUMN_DAY_KEY, WeatherContract.getDayKey(date));
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, 200 + (i % 600));
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.5 + (i % 10));
+                mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private Cursor querySqlite() {
+        return mDb.query(JOIN, FORECAST_COLUMNS, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testMatchesSqliteCursor() {
+        Cursor sqlite = querySqlite();
+        Cursor columns = ForecastColumnCursor.fromCursor(querySqlite());
+
+        assertEquals(sqlite.getCount(), columns.getCount());
+        assertEquals(sqlite.getColumnCount(), columns.getColumnCount());
+        for (int i = 0; i < sqlite.getColumnCount(); i++) {
+            assertEquals(sqlite.getColumnName(i), columns.getColumnName(i));
+        }
+
+        while (sqlite.moveToNext()) {
+            assertTrue(columns.moveToNext());
+            assertEquals(sqlite.getLong(0), columns.getLong(0));
+            assertEquals(sqlite.getLong(1), columns.getLong(1));
+            assertEquals(sqlite.getString(2), columns.getString(2));
+            assertEquals(sqlite.getDouble(3), columns.getDouble(3));
+            assertEquals(sqlite.getDouble(4), columns.getDouble(4));
+            assertEquals(sqlite.getString(5), columns.getString(5));
+            assertEquals(sqlite.getInt(6), columns.getInt(6));
+            assertEquals(sqlite.getDouble(7), columns.getDouble(7));
+            assertEquals(sqlite.getDouble(8), columns.getDouble(8));
+        }
+        assertFalse(columns.moveToNext());
+
+        sqlite.close();
+        columns.close();
+    }
+
+    public void testColumnTypes() {
+        assertEquals(ForecastColumnCursor.TYPE_INT,
+                ForecastColumnCursor.getColumnType(WeatherEntry.COLUMN_DAY_KEY));
+        assertEquals(ForecastColumnCursor.TYPE_INT, ForecastColumnCursor.getColumnType(
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DAY_KEY));
+        assertEquals(ForecastColumnCursor.TYPE_LONG,
+                ForecastColumnCursor.getColumnType(WeatherEntry.COLUMN_DATE));
+        assertEquals(ForecastColumnCursor.TYPE_STRING,
+                ForecastColumnCursor.getColumnType(WeatherEntry.COLUMN_SHORT_DESC));
+    }
+
+    public void testProviderReturnsColumnCursorForProjection() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BENCHMARK_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_DATE, cursor.getLong(1));
+        cursor.close();
+    }
+
+    public void testScanBenchmark() {
+        Cursor sqlite = querySqlite();
+        Cursor columns = ForecastColumnCursor.fromCursor(querySqlite());
+
+        // warm up both paths once so the first window fill isn't counted
+        scan(sqlite);
+        scan(columns);
+
+        long start = System.nanoTime();
+        double sqliteSum = 0;
+        for (int i = 0; i < BENCHMARK_PASSES; i++) sqliteSum += scan(sqlite);
+        long sqliteNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        double columnSum = 0;
+        for (int i = 0; i < BENCHMARK_PASSES; i++) columnSum += scan(columns);
+        long columnNanos = System.nanoTime() - start;
+
+        assertEquals(sqliteSum, columnSum);
+        Log.d(LOG_TAG, "Full scan of " + BENCHMARK_ROWS + " rows x " + BENCHMARK_PASSES +
+                ": sqlite " + sqliteNanos / 1000 + "us, columnar " + columnNanos / 1000 + "us");
+
+        sqlite.close();
+        columns.close();
+    }
+
+    public void testRandomAccessBenchmark() {
+        Cursor sqlite = querySqlite();
+        Cursor columns = ForecastColumnCursor.fromCursor(querySqlite());
+        int reads = BENCHMARK_ROWS * BENCHMARK_PASSES;
+
+        long start = System.nanoTime();
+        long sqliteSum = randomReads(sqlite, reads);
+        long sqliteNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long columnSum = randomReads(columns, reads);
+        long columnNanos = System.nanoTime() - start;
+
+        assertEquals(sqliteSum, columnSum);
+        Log.d(LOG_TAG, "Random access, " + reads + " reads: sqlite " + sqliteNanos / 1000 +
+                "us, columnar " + columnNanos / 1000 + "us");
+
+        sqlite.close();
+        columns.close();
+    }
+
+    private static double scan(Cursor cursor) {
+        double sum = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            sum += cursor.getLong(1) % 1000 + cursor.getInt(6)
+                    + cursor.getDouble(3) + cursor.getDouble(4);
+        }
+        return sum;
+    }
+
+    private static long randomReads(Cursor cursor, int reads) {
+        // fixed seed so both cursors see the same positions
+        Random random = new Random(42);
+        int count = cursor.getCount();
+        long sum = 0;
+        for (int i = 0; i < reads; i++) {
+            cursor.moveToPosition(random.nextInt(count));
+            sum += cursor.getLong(1) % 1000 + cursor.getInt(6);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+    private static final int DAYS = 14;
+    private static final int BENCHMARK_READS = 200;
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private File mFile;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test_" + ForecastSnapshot.FILE_NAME);
+        mFile.delete();
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private ContentValues[] createDays(String description) {
+        ContentValues[] days = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            long date = mToday + i * DAY_IN_MILLIS;
+            ContentValues values = TestUtilities.createWeatherValues(0);
+            values.put(WeatherEntry.COLUMN_DATE, date);
+            values.put(WeatherEntry.COLUMN_DAY_KEY, WeatherContract.getDayKey(date));
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 500 + i);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.5 + i);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.25 - i);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, description + " " + i);
+            days[i] = values;
+        }
+        return days;
+    }
+
+    public void testRoundTrip() {
+        ContentValues[] days = createDays("Rain été");
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, days, 1234L);
+
+        ForecastSnapshot snapshot = ForecastSnapshot.open(mFile);
+        assertNotNull(snapshot);
+        assertEquals(TestUtilities.TEST_LOCATION, snapshot.getLocationSetting());
+        assertEquals(1234L, snapshot.getWrittenAt());
+        assertEquals(ForecastSnapshot.MAX_DAYS, snapshot.getDayCount());
+        for (int i = 0; i < snapshot.getDayCount(); i++) {
+            assertEquals(days[i].getAsInteger(WeatherEntry.COLUMN_DAY_KEY).intValue(),
+                    snapshot.getDayKey(i));
+            assertEquals(500 + i, snapshot.getWeatherId(i));
+            assertEquals(20.5 + i, snapshot.getMaxTemp(i));
+            assertEquals(10.25 - i, snapshot.getMinTemp(i));
+            assertEquals("Rain été " + i, snapshot.getShortDesc(i));
+            // Decoded once, then kept
+            assertSame(snapshot.getShortDesc(i), snapshot.getShortDesc(i));
+        }
+    }
+
+    public void testFindDay() {
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, createDays("Clear"), 0);
+        ForecastSnapshot snapshot = ForecastSnapshot.open(mFile);
+        int today = WeatherContract.getDayKey(mToday);
+
+        assertEquals(0, snapshot.findDay(TestUtilities.TEST_LOCATION, today));
+        assertEquals(0, snapshot.findDay(TestUtilities.TEST_LOCATION, today - 3));
+        assertEquals(-1, snapshot.findExactDay(TestUtilities.TEST_LOCATION, today - 3));
+        assertEquals(2, snapshot.findExactDay(TestUtilities.TEST_LOCATION, today + 2));
+        assertEquals(-1, snapshot.findDay(TestUtilities.TEST_LOCATION,
+                today + ForecastSnapshot.MAX_DAYS));
+        // a snapshot for some other location can't answer anything
+        assertEquals(-1, snapshot.findDay("elsewhere", today));
+    }
+
+    public void testCorruptSnapshotsAreIgnored() throws IOException {
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, createDays("Clear"), 0);
+        long length = mFile.length();
+
+        // flipped payload byte
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(length - 1);
+        int last = file.read();
+        file.seek(length - 1);
+        file.write(last ^ 0x40);
+        file.close();
+        assertNull(ForecastSnapshot.open(mFile));
+
+        // torn write: only part of the file made it
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, createDays("Clear"), 0);
+        file = new RandomAccessFile(mFile, "rw");
+        file.setLength(length / 2);
+        file.close();
+        assertNull(ForecastSnapshot.open(mFile));
+
+        // a format we don't know
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, createDays("Clear"), 0);
+        file = new RandomAccessFile(mFile, "rw");
+        file.seek(4);
+        file.writeInt(ForecastSnapshot.VERSION + 1);
+        file.close();
+        assertNull(ForecastSnapshot.open(mFile));
+
+        // empty file
+        new FileOutputStream(mFile).close();
+        assertNull(ForecastSnapshot.open(mFile));
+
+        // no file at all
+        assertTrue(mFile.delete());
+        assertNull(ForecastSnapshot.open(mFile));
+    }
+
+    public void testReplaceDoesNotDisturbOpenReaders() {
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, createDays("Old"), 1);
+        ForecastSnapshot old = ForecastSnapshot.open(mFile);
+
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, createDays("New"), 2);
+
+        // The rename leaves the old file's mapping intact
+        assertEquals(1, old.getWrittenAt());
+        assertEquals("Old 0", old.getShortDesc(0));
+
+        ForecastSnapshot current = ForecastSnapshot.open(mFile);
+        assertEquals(2, current.getWrittenAt());
+        assertEquals("New 0", current.getShortDesc(0));
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    public void testReadBenchmark() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] days = createDays("Clouds");
+        for (ContentValues day : days) {
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        ForecastSnapshot.write(mFile, TestUtilities.TEST_LOCATION, days, 0);
+
+        int today = WeatherContract.getDayKey(mToday);
+        Uri todayUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, mToday);
+
+        double providerSum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_READS; i++) {
+            Cursor cursor = mContext.getContentResolver().query(todayUri, TODAY_COLUMNS,
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue(cursor.moveToFirst());
+            providerSum += cursor.getInt(0) + cursor.getString(1).length()
+                    + cursor.getDouble(2) + cursor.getDouble(3);
+            cursor.close();
+        }
+        long providerNanos = System.nanoTime() - start;
+
+        double snapshotSum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_READS; i++) {
+            ForecastSnapshot snapshot = ForecastSnapshot.open(mFile);
+            int day = snapshot.findDay(TestUtilities.TEST_LOCATION, today);
+            assertEquals(0, day);
+            snapshotSum += snapshot.getWeatherId(day) + snapshot.getShortDesc(day).length()
+                    + snapshot.getMaxTemp(day) + snapshot.getMinTemp(day);
+        }
+        long snapshotNanos = System.nanoTime() - start;
+
+        assertEquals(providerSum, snapshotSum);
+        Log.d(LOG_TAG, "Today's forecast x " + BENCHMARK_READS + ": provider " +
+                providerNanos / BENCHMARK_READS / 1000 + "us/read, snapshot " +
+                snapshotNanos / BENCHMARK_READS / 1000 + "us/read");
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+public class TestLocationAliases extends AndroidTestCase {
+
+    private static final long LONDON_ID = 2643743;
+    private static final long LONDON_ONTARIO_ID = 6058560;
+    private static final int FIRST_DAY = WeatherContract.getDayKey(TestUtilities.TEST_DATE);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ContentValues location(String setting, long cityId, String city,
+                                          double lat, double lon) {
+        ContentValues values = TestUtilities.createLocationValues(setting, city, lat, lon);
+        if (cityId > 0) values.put(LocationEntry.COLUMN_CITY_ID, cityId);
+        return values;
+    }
+
+    private static ContentValues day(long locationId, int day, double max) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        // The provider derives the day key from the date, so both have to agree.
+        values.put(WeatherEntry.COLUMN_DATE, DayKey.toMillis(FIRST_DAY + day, TimeZone.getDefault()));
+        values.put(WeatherEntry.COLUMN_DAY_KEY, FIRST_DAY + day);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, max);
+        return values;
+    }
+
+    private long resolve(ContentValues location) {
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.buildCanonicalLocationUri(), location));
+    }
+
+    private long canonicalOf(SQLiteDatabase db, String setting) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + LocationEntry.COLUMN_CANONICAL_ID +
+                " FROM " + LocationEntry.TABLE_NAME + " WHERE " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{setting});
+    }
+
+    private long countDays(SQLiteDatabase db, long locationId) {
+        return DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationId)});
+    }
+
+    private static long maxTemp(SQLiteDatabase db, long locationId, int day) {
+        return DatabaseUtils.longForQuery(db, "SELECT " + WeatherEntry.COLUMN_MAX_TEMP +
+                " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY +
+                " = ? AND " + WeatherEntry.COLUMN_DAY_KEY + " = ?",
+                new String[]{Long.toString(locationId), Integer.toString(FIRST_DAY + day)});
+    }
+
+    // The forecast a setting shows, as max temperatures by day.
+    private String forecastFor(String setting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(setting),
+                new String[]{WeatherEntry.COLUMN_DAY_KEY, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DAY_KEY + " ASC");
+        StringBuilder forecast = new StringBuilder();
+        while (cursor.moveToNext()) {
+            forecast.append(cursor.getInt(0) - FIRST_DAY).append('=')
+                    .append(cursor.getInt(1)).append(' ');
+        }
+        cursor.close();
+        return forecast.toString().trim();
+    }
+
+    public void testAliasesShareOneForecast() {
+        long london = resolve(location("London", LONDON_ID, "London", 51.5085, -0.1257));
+        long londonUk = resolve(location("london,uk", LONDON_ID, "London", 51.5085, -0.1257));
+        // A picked place; the server rounds the coordinates differently this time.
+        long picked = resolve(location("51.5072,-0.1275", LONDON_ID, "London", 51.51, -0.13));
+        assertEquals(london, londonUk);
+        assertEquals(london, picked);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{day(london, 0, 10), day(london, 1, 11)});
+        assertEquals("0=10 1=11", forecastFor("London"));
+        assertEquals("0=10 1=11", forecastFor("london,uk"));
+        assertEquals("0=10 1=11", forecastFor("51.5072,-0.1275"));
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(3, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals(2, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        helper.close();
+    }
+
+    public void testMatchByPlaceWithoutId() {
+        long london = resolve(location("London", 0, "London", 51.5085, -0.1257));
+        assertEquals(london, resolve(location("london,uk", 0, "London", 51.5086, -0.1258)));
+        // Same spot, different name: not the same answer from the server.
+        assertTrue(london != resolve(location("City of London", 0, "City of London",
+                51.5085, -0.1257)));
+        // Same name, far away.
+        assertTrue(london != resolve(location("London,ca", 0, "London", 42.9834, -81.233)));
+    }
+
+    public void testDifferentIdsStaySeparate() {
+        long first = resolve(location("London", LONDON_ID, "London", 51.5085, -0.1257));
+        long second = resolve(location("somewhere", LONDON_ONTARIO_ID, "London",
+                51.5085, -0.1257));
+        assertTrue("Error: different city ids must not share a location", first != second);
+    }
+
+    /*
+        Two settings synced before anything knew they were the same city, then one of them is
+        synced again.  Its days fill in the gaps of the surviving row and its old row goes.
+     */
+    public void testExistingDuplicateIsMerged() {
+        long london = resolve(location("London", LONDON_ID, "London", 51.5085, -0.1257));
+        long other = resolve(location("london,uk", 0, "Londres", 51.5085, -0.1257));
+        assertTrue(london != other);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                day(london, 1, 11), day(london, 2, 12),
+                day(other, 0, 20), day(other, 1, 21), day(other, 3, 23)});
+
+        assertEquals(london, resolve(location("london,uk", LONDON_ID, "London",
+                51.5085, -0.1257)));
+        assertEquals("0=20 1=11 2=12 3=23", forecastFor("London"));
+        assertEquals("0=20 1=11 2=12 3=23", forecastFor("london,uk"));
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        assertEquals(0, countDays(db, other));
+        assertEquals(london, canonicalOf(db, "london,uk"));
+        helper.close();
+    }
+
+    public void testNewCityMovesAliasOff() {
+        long london = resolve(location("London", LONDON_ID, "London", 51.5085, -0.1257));
+        // Pointed at London provisionally, as the nearby seed does.
+        ContentValues provisional = location("51.52,-0.10", 0, "London", 51.52, -0.10);
+        provisional.put(LocationEntry.COLUMN_CANONICAL_ID, london);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, provisional);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, day(london, 0, 10));
+        assertEquals("0=10", forecastFor("51.52,-0.10"));
+
+        long islington = resolve(location("51.52,-0.10", 2646003, "Islington", 51.5333, -0.1));
+        assertTrue(islington != london);
+        assertEquals("", forecastFor("51.52,-0.10"));
+        assertEquals("0=10", forecastFor("London"));
+    }
+
+    /*
+        A version 5 database, where every setting has its own rows, upgraded in place.
+     */
+    public void testUpgradeMergesDuplicates() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_GEO_CELL + " INTEGER);");
+        db.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DAY_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DAY_KEY + ", " +
+                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);");
+
+        long london = db.insert(LocationEntry.TABLE_NAME, null,
+                location("London", 0, "London", 51.5085, -0.1257));
+        long londonUk = db.insert(LocationEntry.TABLE_NAME, null,
+                location("london,uk", 0, "London", 51.5085, -0.1257));
+        long picked = db.insert(LocationEntry.TABLE_NAME, null,
+                location("51.5072,-0.1275", 0, "London", 51.51, -0.13));
+        long ontario = db.insert(LocationEntry.TABLE_NAME, null,
+                location("London,ca", 0, "London", 42.9834, -81.233));
+        long paris = db.insert(LocationEntry.TABLE_NAME, null,
+                location("Paris", 0, "Paris", 48.8534, 2.3488));
+        db.insert(WeatherEntry.TABLE_NAME, null, day(london, 0, 10));
+        db.insert(WeatherEntry.TABLE_NAME, null, day(london, 1, 11));
+        // london,uk was synced most recently, so it is the one that stays.
+        db.insert(WeatherEntry.TABLE_NAME, null, day(londonUk, 1, 21));
+        db.insert(WeatherEntry.TABLE_NAME, null, day(londonUk, 2, 22));
+        db.insert(WeatherEntry.TABLE_NAME, null, day(ontario, 0, 30));
+        db.insert(WeatherEntry.TABLE_NAME, null, day(paris, 0, 40));
+
+        WeatherDbHelper.upgradeToCanonicalLocations(db);
+
+        assertEquals(londonUk, canonicalOf(db, "London"));
+        assertEquals(londonUk, canonicalOf(db, "london,uk"));
+        assertEquals(londonUk, canonicalOf(db, "51.5072,-0.1275"));
+        assertEquals(ontario, canonicalOf(db, "London,ca"));
+        assertEquals(paris, canonicalOf(db, "Paris"));
+
+        assertEquals(0, countDays(db, london));
+        assertEquals(0, countDays(db, picked));
+        assertEquals(3, countDays(db, londonUk));
+        assertEquals(1, countDays(db, ontario));
+        assertEquals(1, countDays(db, paris));
+        // The day only the old row had moved over, the day both had kept the newer value.
+        assertEquals(10, maxTemp(db, londonUk, 0));
+        assertEquals(21, maxTemp(db, londonUk, 1));
+
+        // Rows inserted after the upgrade get a canonical id of their own.
+        long berlin = db.insert(LocationEntry.TABLE_NAME, null,
+                location("Berlin", 0, "Berlin", 52.5244, 13.4105));
+        assertEquals(berlin, canonicalOf(db, "Berlin"));
+        db.close();
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class TestLocationSearch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationSearch.class.getSimpleName();
+
+    private static final int LOCATIONS = 50000;
+    // Each name is typed one character at a time, a query per keystroke.
+    private static final int TYPED_NAMES = 30;
+    private static final int LIMIT = LocationEntry.DEFAULT_SEARCH_LIMIT;
+
+    private static final String[] SYLLABLES = {"ba", "ber", "ca", "del", "fen", "gor", "ham",
+            "ka", "lon", "mar", "new", "ort", "pol", "ros", "san", "ton", "vil", "york", "zu"};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ContentValues location(String setting, String city) {
+        // Where it is doesn't matter to the search
+        return TestUtilities.createLocationValues(setting, city, 0.0, 0.0);
+    }
+
+    private void insert(String setting, String city) {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location(setting, city));
+    }
+
+    // The settings suggested for what was typed, in the order suggested.
+    private List<String> search(String typed) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildSearchUri(typed, LIMIT),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        List<String> settings = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            settings.add(cursor.getString(0));
+        }
+        cursor.close();
+        return settings;
+    }
+
+    public void testMatchQuery() {
+        assertEquals("san* fr*", WeatherProvider.toMatchQuery("San Fr"));
+        assertEquals("london* uk*", WeatherProvider.toMatchQuery("london,uk"));
+        // Query syntax is just punctuation to us
+        assertEquals("or* x*", WeatherProvider.toMatchQuery("\"OR\" -x"));
+        assertNull(WeatherProvider.toMatchQuery("  ,"));
+    }
+
+    public void testSearch() {
+        insert("94043", "Mountain View");
+        insert("london,uk", "London");
+        insert("10001", "New York");
+        insert("07102", "Newark");
+        insert("Paris", "Paris");
+
+        assertEquals(list("10001", "07102"), search("ne"));
+        assertEquals(list("10001"), search("new yo"));
+        assertEquals(list("10001"), search("YORK"));
+        assertEquals(list("london,uk"), search("lon"));
+        assertEquals(list("london,uk"), search("london, u"));
+        assertEquals(list("94043"), search("9404"));
+        assertEquals(list("94043"), search("view mount"));
+        assertEquals(list(), search("new pa"));
+        assertEquals(list(), search(""));
+        assertEquals(list(), search("-"));
+    }
+
+    public void testIndexFollowsUpdatesAndDeletes() {
+        insert("london,uk", "London");
+        insert("Paris", "Paris");
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "City of London");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"london,uk"});
+        assertEquals(list("london,uk"), search("city of"));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"london,uk"});
+        assertEquals(list(), search("lon"));
+        assertEquals(list("Paris"), search("par"));
+    }
+
+    public void testUpgradeIndexesExistingLocations() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL);");
+        long london = db.insert(LocationEntry.TABLE_NAME, null, location("london,uk", "London"));
+
+        WeatherDbHelper.upgradeToLocationSearch(db);
+        long paris = db.insert(LocationEntry.TABLE_NAME, null, location("Paris", "Paris"));
+
+        Cursor cursor = db.rawQuery("SELECT docid FROM " + LocationEntry.TABLE_SEARCH + " WHERE " +
+                LocationEntry.TABLE_SEARCH + " MATCH ? ORDER BY docid",
+                new String[]{"london* OR paris*"});
+        assertTrue(cursor.moveToNext());
+        assertEquals(london, cursor.getLong(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals(paris, cursor.getLong(0));
+        cursor.close();
+        db.close();
+    }
+
+    /*
+        50k made up places, then a few of their names typed one keystroke at a time.  Every
+        answer is checked against a scan of all the names.
+     */
+    public void testKeystrokeLatencyAt50k() {
+        Random random = new Random(38);
+        String[] settings = new String[LOCATIONS];
+        String[] cities = new String[LOCATIONS];
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                settings[i] = Integer.toString(10000 + i);
+                cities[i] = word(random) + " " + word(random);
+                db.insert(LocationEntry.TABLE_NAME, null, location(settings[i], cities[i]));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.close();
+
+        long total = 0;
+        long worst = 0;
+        int queries = 0;
+        for (int n = 0; n < TYPED_NAMES; n++) {
+            String name = cities[random.nextInt(LOCATIONS)];
+            for (int typed = 1; typed <= name.length(); typed++) {
+                String prefix = name.substring(0, typed);
+                long start = System.nanoTime();
+                List<String> found = search(prefix);
+                long elapsed = System.nanoTime() - start;
+                total += elapsed;
+                worst = Math.max(worst, elapsed);
+                queries++;
+
+                assertEquals("Error: wrong suggestions for \"" + prefix + "\"",
+                        bruteForce(settings, cities, prefix), found);
+            }
+        }
+        Log.d(LOG_TAG, queries + " keystrokes over " + LOCATIONS + " locations: " +
+                total / queries / 1000 + "us average, " + worst / 1000 + "us worst");
+    }
+
+    private static String word(Random random) {
+        String word = "";
+        int syllables = 1 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word += SYLLABLES[random.nextInt(SYLLABLES.length)];
+        }
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    // Every typed word is the start of some word of the setting or city, ordered as the
+    // provider orders them.
+    private static List<String> bruteForce(String[] settings, String[] cities, String typed) {
+        String[] words = typed.toLowerCase().trim().split(" +");
+        List<String[]> matches = new ArrayList<>();
+        for (int i = 0; i < settings.length; i++) {
+            String[] tokens = (settings[i] + " " + cities[i]).toLowerCase().split(" ");
+            boolean all = true;
+            for (String word : words) {
+                boolean any = false;
+                for (String token : tokens) {
+                    if (token.startsWith(word)) {
+                        any = true;
+                        break;
+                    }
+                }
+                all &= any;
+            }
+            if (all) matches.add(new String[]{cities[i], settings[i]});
+        }
+        Collections.sort(matches, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                int byCity = a[0].compareTo(b[0]);
+                return byCity != 0 ? byCity : a[1].compareTo(b[1]);
+            }
+        });
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(LIMIT, matches.size()); i++) {
+            result.add(matches.get(i)[1]);
+        }
+        return result;
+    }
+
+    private static List<String> list(String... settings) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, settings);
+        return list;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class TestMultiLocationToday extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMultiLocationToday.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 50;
+    private static final int DAYS_PER_LOCATION = 14;
+    private static final int BENCHMARK_PASSES = 10;
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private static final String[] TODAY_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private static String locationSetting(int i) {
+        return "city-" + i;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATION_COUNT; i++) {
+                ContentValues location = TestUtilities.createNorthPoleLocationValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+                long locationRowId = db.insert(LocationEntry.TABLE_NAME, null, location);
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    ContentValues weather = TestUtilities.createWeatherValues(locationRowId);
+                    // the provider normalizes the dates it is asked for, so store them that way
+                    long date = TestUtilities.TEST_DATE + day * DAY_IN_MILLIS;
+                    weather.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(date));
+                    weather.put(WeatherEntry.COLUMN_DAY_KEY, WeatherContract.getDayKey(date));
+                    weather.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + (i % 5));
+                    db.insert(WeatherEntry.TABLE_NAME, null, weather);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    public void testTodayForAllLocations() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherTodayForLocations(TestUtilities.TEST_DATE),
+                TODAY_COLUMNS, null, null, null);
+        assertEquals("Error: expected one row per location", LOCATION_COUNT, cursor.getCount());
+
+        Set<String> seen = new HashSet<String>();
+        while (cursor.moveToNext()) {
+            assertTrue("Error: location returned twice", seen.add(cursor.getString(0)));
+        }
+        cursor.close();
+    }
+
+    public void testTodayForSomeLocations() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherTodayForLocations(TestUtilities.TEST_DATE,
+                        locationSetting(3), locationSetting(7), "not-stored"),
+                TODAY_COLUMNS, null, null, LocationEntry.COLUMN_LOCATION_SETTING + " ASC");
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(locationSetting(3), cursor.getString(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals(locationSetting(7), cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testSingleQueryBenchmark() {
+        String[] locations = new String[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) locations[i] = locationSetting(i);
+
+        long start = System.nanoTime();
+        int separateRows = 0;
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            for (String location : locations) {
+                Cursor cursor = mContext.getContentResolver().query(
+                        WeatherEntry.buildWeatherLocationWithDate(location, TestUtilities.TEST_DATE),
+                        TODAY_COLUMNS, null, null, null);
+                separateRows += cursor.getCount();
+                cursor.close();
+            }
+        }
+        long separateNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int singleRows = 0;
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherTodayForLocations(TestUtilities.TEST_DATE, locations),
+                    TODAY_COLUMNS, null, null, null);
+            singleRows += cursor.getCount();
+            cursor.close();
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        assertEquals(separateRows, singleRows);
+        Log.d(LOG_TAG, LOCATION_COUNT + " locations x " + BENCHMARK_PASSES + " passes: " +
+                "separate queries " + separateNanos / 1000 + "us, single query " +
+                singleNanos / 1000 + "us");
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Random;
+
+public class TestNearestLocation extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestNearestLocation.class.getSimpleName();
+
+    private static final int LOCATIONS = 10000;
+    // Only every few locations has a forecast, the rest are just names we've seen.
+    private static final int FORECAST_EVERY = 4;
+    private static final int LOOKUPS = 200;
+    private static final double RADIUS_KM = 25;
+
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry._ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private long insertWithForecast(ContentValues location) {
+        long id = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(id));
+        return id;
+    }
+
+    private long queryNearest(double lat, double lon, double radiusKm) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(lat, lon, radiusKm),
+                LOCATION_COLUMNS, null, null, null);
+        try {
+            assertTrue("Error: nearest lookup returned more than one row", cursor.getCount() <= 1);
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testInsertAndUpdateFillGeoCell() {
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long id = ContentUris.parseId(uri);
+
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, 51.5074);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, -0.1278);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)});
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_GEO_CELL}, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(GeoCell.cellFor(51.5074, -0.1278), cursor.getInt(0));
+        cursor.close();
+    }
+
+    public void testNearest() {
+        long mountainView = insertWithForecast(TestUtilities.createLocationValues(
+                "94043", "94043", 37.4056, -122.0775));
+        long sunnyvale = insertWithForecast(TestUtilities.createLocationValues(
+                "94086", "94086", 37.3688, -122.0363));
+        // Closer than either, but we have no forecast for it
+        ContentValues noForecast = TestUtilities.createLocationValues(
+                "94041", "94041", 37.3894, -122.0819);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, noForecast);
+
+        // A spot in Mountain View, a few hundred metres from the stored point
+        assertEquals(mountainView, queryNearest(37.4, -122.08, 10));
+        // Halfway to Sunnyvale, but a bit nearer to it
+        assertEquals(sunnyvale, queryNearest(37.38, -122.05, 10));
+        // Nothing within a kilometre of here
+        assertEquals(-1, queryNearest(37.39, -122.0819, 1));
+        // Nothing at all over in Europe
+        assertEquals(-1, queryNearest(51.5, -0.12, 25));
+        // A zero radius only matches the exact point
+        assertEquals(mountainView, queryNearest(37.4056, -122.0775, 0));
+    }
+
+    public void testNearestAcrossAntimeridian() {
+        long fiji = insertWithForecast(TestUtilities.createLocationValues(
+                "Suva", "Suva", -18.1416, 179.99));
+        assertEquals(fiji, queryNearest(-18.1416, -179.99, 10));
+    }
+
+    public void testNearestUsesGeoCellIndex() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + LocationEntry._ID + " FROM " +
+                LocationEntry.TABLE_NAME + " WHERE (" + LocationEntry.COLUMN_GEO_CELL +
+                " BETWEEN ? AND ? OR " + LocationEntry.COLUMN_GEO_CELL + " BETWEEN ? AND ?) AND " +
+                WeatherProvider.sHasForecastSelection,
+                new String[]{"1", "2", "5", "6"});
+
+        StringBuilder details = new StringBuilder();
+        int detailColumn = plan.getColumnIndex("detail");
+        while (plan.moveToNext()) {
+            details.append(plan.getString(detailColumn)).append('\n');
+        }
+        plan.close();
+        db.close();
+
+        assertTrue("Error: nearest lookup doesn't use the geo cell index:\n" + details,
+                details.toString().contains(LocationEntry.INDEX_GEO_CELL));
+    }
+
+    /*
+        10k locations spread over the US, a quarter of them with a forecast, and lookups from
+        random points.  Every answer is checked against a brute force search.
+     */
+    public void testLookupLatencyAt10k() {
+        Random random = new Random(36);
+        double[] lats = new double[LOCATIONS];
+        double[] lons = new double[LOCATIONS];
+        long[] ids = new long[LOCATIONS];
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATIONS; i++) {
+                lats[i] = 25 + random.nextDouble() * 24;
+                lons[i] = -124 + random.nextDouble() * 57;
+                ContentValues values = TestUtilities.createLocationValues(
+                        "loc" + i, "loc" + i, lats[i], lons[i]);
+                values.put(LocationEntry.COLUMN_GEO_CELL, GeoCell.cellFor(lats[i], lons[i]));
+                ids[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+                if (i % FORECAST_EVERY == 0) {
+                    db.insert(WeatherEntry.TABLE_NAME, null,
+                            TestUtilities.createWeatherValues(ids[i]));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.close();
+
+        long total = 0;
+        long worst = 0;
+        int found = 0;
+        for (int q = 0; q < LOOKUPS; q++) {
+            double lat = 25 + random.nextDouble() * 24;
+            double lon = -124 + random.nextDouble() * 57;
+
+            long start = System.nanoTime();
+            long nearest = queryNearest(lat, lon, RADIUS_KM);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            worst = Math.max(worst, elapsed);
+
+            long expected = -1;
+            double expectedKm = RADIUS_KM;
+            for (int i = 0; i < LOCATIONS; i += FORECAST_EVERY) {
+                double km = GeoCell.distanceKm(lat, lon, lats[i], lons[i]);
+                if (km <= expectedKm) {
+                    expectedKm = km;
+                    expected = ids[i];
+                }
+            }
+            assertEquals("Error: wrong nearest location for " + lat + "," + lon,
+                    expected, nearest);
+            if (nearest >= 0) found++;
+        }
+        Log.d(LOG_TAG, "Nearest within " + RADIUS_KM + "km among " + LOCATIONS +
+                " locations: " + total / LOOKUPS / 1000 + "us average, " + worst / 1000 +
+                "us worst, " + found + "/" + LOOKUPS + " found one");
+    }
+}
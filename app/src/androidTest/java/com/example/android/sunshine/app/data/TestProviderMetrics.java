@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestProviderMetrics extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderMetrics.class.getSimpleName();
+
+    private static final int CODE = WeatherProvider.WEATHER;
+    private static final int THREADS = 4;
+    private static final int RECORDS_PER_THREAD = 100000;
+    private static final int BENCHMARK_RECORDS = 1000000;
+
+    private ProviderMetrics createMetrics() {
+        return new ProviderMetrics(new int[]{CODE}, new String[]{"weather"});
+    }
+
+    public void testPercentiles() {
+        ProviderMetrics metrics = createMetrics();
+        assertEquals(0, metrics.getPercentileMicros(CODE, ProviderMetrics.OP_QUERY, 50));
+
+        // 90 fast queries (~10us) and 10 slow ones (~5ms)
+        for (int i = 0; i < 90; i++) {
+            metrics.record(CODE, ProviderMetrics.OP_QUERY, 10000);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record(CODE, ProviderMetrics.OP_QUERY, 5000000);
+        }
+
+        assertEquals(100, metrics.getCount(CODE, ProviderMetrics.OP_QUERY));
+        assertEquals(5000000, metrics.getMaxNanos(CODE, ProviderMetrics.OP_QUERY));
+        assertEquals(16, metrics.getPercentileMicros(CODE, ProviderMetrics.OP_QUERY, 50));
+        assertEquals(16, metrics.getPercentileMicros(CODE, ProviderMetrics.OP_QUERY, 90));
+        assertEquals(8192, metrics.getPercentileMicros(CODE, ProviderMetrics.OP_QUERY, 99));
+
+        // other operations and unknown codes are untouched
+        assertEquals(0, metrics.getCount(CODE, ProviderMetrics.OP_INSERT));
+        assertEquals(0, metrics.getCount(WeatherProvider.LOCATION, ProviderMetrics.OP_QUERY));
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(CODE, ProviderMetrics.OP_QUERY));
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final ProviderMetrics metrics = createMetrics();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long nanos = (t + 1) * 1000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        metrics.record(CODE, ProviderMetrics.OP_UPDATE, nanos);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long expectedTotal = 0;
+        for (int t = 0; t < THREADS; t++) {
+            expectedTotal += (t + 1) * 1000L * RECORDS_PER_THREAD;
+        }
+        long bucketTotal = 0;
+        for (int b = 0; b < LatencyHistogram.BUCKET_COUNT; b++) {
+            bucketTotal += metrics.getBucketCount(CODE, ProviderMetrics.OP_UPDATE, b);
+        }
+        assertEquals(THREADS * RECORDS_PER_THREAD, metrics.getCount(CODE, ProviderMetrics.OP_UPDATE));
+        assertEquals(THREADS * RECORDS_PER_THREAD, bucketTotal);
+        assertEquals(expectedTotal, metrics.getTotalNanos(CODE, ProviderMetrics.OP_UPDATE));
+        assertEquals(THREADS * 1000L, metrics.getMaxNanos(CODE, ProviderMetrics.OP_UPDATE));
+    }
+
+    public void testMetricsUri() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        Cursor weather = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        weather.close();
+
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(MetricsEntry.COLUMNS.length, cursor.getColumnCount());
+
+        boolean sawQuery = false;
+        boolean sawInsert = false;
+        while (cursor.moveToNext()) {
+            int code = cursor.getInt(cursor.getColumnIndex(MetricsEntry.COLUMN_URI_CODE));
+            String op = cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_OPERATION));
+            assertTrue(cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_COUNT)) > 0);
+            assertTrue(cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P50_MICROS)) <=
+                    cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_P99_MICROS)));
+            if (code == WeatherProvider.WEATHER_WITH_LOCATION && "query".equals(op)) sawQuery = true;
+            if (code == WeatherProvider.LOCATION && "insert".equals(op)) sawInsert = true;
+        }
+        cursor.close();
+        assertTrue("Error: weather/* query not reported in metrics", sawQuery);
+        assertTrue("Error: location insert not reported in metrics", sawInsert);
+
+        cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                new String[]{MetricsEntry.COLUMN_OPERATION, MetricsEntry.COLUMN_MAX_MICROS},
+                null, null, null);
+        assertEquals(2, cursor.getColumnCount());
+        cursor.close();
+    }
+
+    public void testRecordOverheadBenchmark() {
+        ProviderMetrics metrics = createMetrics();
+
+        // warm up
+        for (int i = 0; i < BENCHMARK_RECORDS / 10; i++) {
+            metrics.record(CODE, ProviderMetrics.OP_QUERY, i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_RECORDS; i++) {
+            metrics.record(CODE, ProviderMetrics.OP_QUERY, i);
+        }
+        long recordNanos = System.nanoTime() - start;
+
+        // the two nanoTime calls each provider method makes around the work
+        start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < BENCHMARK_RECORDS; i++) {
+            sink += System.nanoTime() - System.nanoTime();
+        }
+        long clockNanos = System.nanoTime() - start;
+
+        Log.d(LOG_TAG, "record(): " + (double) recordNanos / BENCHMARK_RECORDS + " ns/op, " +
+                "nanoTime pair: " + (double) clockNanos / BENCHMARK_RECORDS + " ns/op (" +
+                sink + ")");
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SlowQueryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestSlowQueryLog extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(SlowQueryEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setThreshold(SlowQueryLog.DEFAULT_THRESHOLD_MILLIS);
+        mContext.getContentResolver().delete(SlowQueryEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private void setThreshold(long millis) {
+        ContentValues values = new ContentValues();
+        values.put(SlowQueryEntry.COLUMN_THRESHOLD_MILLIS, millis);
+        assertEquals(1, mContext.getContentResolver().update(SlowQueryEntry.CONTENT_URI,
+                values, null, null));
+    }
+
+    public void testDescribeArgs() {
+        assertEquals("()", SlowQueryLog.describeArgs(null));
+        assertEquals("(num, str[1], null)",
+                SlowQueryLog.describeArgs(new String[]{"99705", "x", null}));
+        assertEquals("(num, str[9])",
+                SlowQueryLog.describeArgs(new String[]{"1419033600", "Anchorage"}));
+    }
+
+    public void testCapacity() {
+        SlowQueryLog log = new SlowQueryLog(0, 3);
+        Uri uri = WeatherEntry.CONTENT_URI;
+        for (int i = 0; i < 5; i++) {
+            // nothing noted, so the database is never touched
+            assertTrue(log.maybeRecord(null, uri, "query", i, 1000));
+        }
+        assertEquals(3, log.getEntries().size());
+        assertEquals(2, log.getEntries().get(0).rowCount);
+        assertEquals(4, log.getEntries().get(2).rowCount);
+
+        log.setThresholdMillis(10);
+        assertFalse(log.maybeRecord(null, uri, "query", 0, 9999999));
+        assertEquals(3, log.getEntries().size());
+
+        assertEquals(3, log.clear());
+        assertEquals(0, log.getEntries().size());
+        assertEquals(0, log.clear());
+    }
+
+    public void testSlowQueryIsLoggedWithPlan() {
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        // Everything counts as slow with a zero threshold
+        setThreshold(0);
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        mContext.getContentResolver().query(uri, null, null, null, null).close();
+        setThreshold(SlowQueryLog.DEFAULT_THRESHOLD_MILLIS);
+
+        Cursor cursor = mContext.getContentResolver().query(SlowQueryEntry.CONTENT_URI,
+                null, null, null, null);
+        boolean found = false;
+        while (cursor.moveToNext()) {
+            if (!uri.toString().equals(
+                    cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_URI)))) {
+                continue;
+            }
+            found = true;
+            assertEquals("query",
+                    cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_OPERATION)));
+            // TEST_LOCATION is a zip code, so both arguments look numeric
+            assertEquals("(num, num)",
+                    cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_ARGS_SHAPE)));
+            assertEquals(0, cursor.getInt(cursor.getColumnIndex(SlowQueryEntry.COLUMN_ROW_COUNT)));
+            String sql = cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_SQL));
+            assertTrue(sql, sql.contains(LocationEntry.COLUMN_LOCATION_SETTING));
+            String plan = cursor.getString(cursor.getColumnIndex(SlowQueryEntry.COLUMN_PLAN));
+            assertTrue("Error: expected a query plan, got " + plan,
+                    plan.length() > 0 && !plan.startsWith("EXPLAIN failed"));
+        }
+        cursor.close();
+        assertTrue("Error: slow query wasn't logged", found);
+
+        assertTrue(mContext.getContentResolver().delete(SlowQueryEntry.CONTENT_URI, null, null) > 0);
+        cursor = mContext.getContentResolver().query(SlowQueryEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFastQueryIsNotLogged() {
+        setThreshold(60000);
+        mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null, null, null)
+                .close();
+        Cursor cursor = mContext.getContentResolver().query(SlowQueryEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+}
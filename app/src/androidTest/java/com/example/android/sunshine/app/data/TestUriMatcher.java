@@ -34,8 +34,17 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_PAGE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationPage(LOCATION_QUERY, TEST_DATE, 20);
+    private static final Uri TEST_WEATHER_TODAY_DIR = WeatherContract.WeatherEntry.buildWeatherTodayForLocations(TEST_DATE, LOCATION_QUERY);
+    private static final Uri TEST_WEATHER_STATS_DIR = WeatherContract.WeatherStatsEntry.buildStatsUri(LOCATION_QUERY, TEST_DATE, -1);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAREST_DIR = WeatherContract.LocationEntry.buildNearestLocationUri(51.5, -0.12, 10);
+    private static final Uri TEST_LOCATION_CANONICAL_DIR = WeatherContract.LocationEntry.buildCanonicalLocationUri();
+    private static final Uri TEST_LOCATION_SEARCH_DIR = WeatherContract.LocationEntry.buildSearchUri("lon", 10);
+    // content://com.example.android.sunshine.app/metrics"
+    private static final Uri TEST_METRICS_DIR = WeatherContract.MetricsEntry.CONTENT_URI;
+    private static final Uri TEST_SLOW_QUERIES_DIR = WeatherContract.SlowQueryEntry.CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +60,23 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATION PAGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_PAGE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_PAGE);
+        assertEquals("Error: The WEATHER TODAY URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_TODAY_DIR), WeatherProvider.WEATHER_TODAY);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_DIR), WeatherProvider.WEATHER_STATS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST_DIR), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The LOCATION CANONICAL URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_CANONICAL_DIR), WeatherProvider.LOCATION_CANONICAL);
+        assertEquals("Error: The LOCATION SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SEARCH_DIR), WeatherProvider.LOCATION_SEARCH);
+        assertEquals("Error: The METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_METRICS_DIR), WeatherProvider.METRICS);
+        assertEquals("Error: The SLOW QUERIES URI was matched incorrectly.",
+                testMatcher.match(TEST_SLOW_QUERIES_DIR), WeatherProvider.SLOW_QUERIES);
     }
 }
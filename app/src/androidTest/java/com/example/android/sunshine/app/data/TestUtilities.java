@@ -65,6 +65,8 @@ public class TestUtilities extends AndroidTestCase {
         ContentValues weatherValues = new ContentValues();
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, TEST_DATE);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DAY_KEY,
+                WeatherContract.getDayKey(TEST_DATE));
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
         weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
@@ -82,12 +84,16 @@ public class TestUtilities extends AndroidTestCase {
         LocationEntry part of the WeatherContract.
      */
     static ContentValues createNorthPoleLocationValues() {
+        return createLocationValues(TEST_LOCATION, "North Pole", 64.7488, -147.353);
+    }
+
+    static ContentValues createLocationValues(String setting, String city, double lat, double lon) {
         // Create a new map of values, where column names are the keys
         ContentValues testValues = new ContentValues();
-        testValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
-        testValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
-        testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
-        testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        testValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        testValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, city);
+        testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        testValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
         return testValues;
     }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherPagination extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherPagination.class.getSimpleName();
+
+    private static final int LARGE_ROW_COUNT = 20000;
+    private static final int PAGE_SIZE = 100;
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private static final String[] PAGE_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+
+        // A second location, so the pages have to skip rows that aren't theirs.
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        long otherRowId = db.insert(LocationEntry.TABLE_NAME, null, otherLocation);
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LARGE_ROW_COUNT; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(
+                        i % 2 == 0 ? locationRowId : otherRowId);
+                long date = TestUtilities.TEST_DATE + i * DAY_IN_MILLIS;
+                values.put(WeatherEntry.COLUMN_DATE, date);
+                values.put(WeatherEntry.COLUMN_DAY_KEY, WeatherContract.getDayKey(date));
+                db.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
+    public void testPagesCoverEveryRowInOrder() {
+        long afterDate = -1;
+        int total = 0;
+        int pages = 0;
+        long slowestPage = 0;
+        long firstPage = -1;
+
+        while (true) {
+            Uri pageUri = WeatherEntry.buildWeatherLocationPage(
+                    TestUtilities.TEST_LOCATION, afterDate, PAGE_SIZE);
+            long start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(pageUri, PAGE_COLUMNS,
+                    null, null, null);
+            int count = cursor.getCount();
+            long elapsed = System.nanoTime() - start;
+
+            if (count == 0) {
+                cursor.close();
+                break;
+            }
+            if (firstPage < 0) firstPage = elapsed;
+            slowestPage = Math.max(slowestPage, elapsed);
+
+            assertTrue("Error: page larger than requested", count <= PAGE_SIZE);
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(1);
+                assertTrue("Error: pages are not strictly ordered by date", date > afterDate);
+                afterDate = date;
+            }
+            cursor.close();
+            total += count;
+            pages++;
+        }
+
+        assertEquals("Error: pages did not return every row for the location",
+                LARGE_ROW_COUNT / 2, total);
+        Log.d(LOG_TAG, pages + " pages of " + PAGE_SIZE + " over " + LARGE_ROW_COUNT +
+                " rows: first page " + firstPage / 1000 + "us, slowest page " +
+                slowestPage / 1000 + "us");
+    }
+
+    public void testLimitIsCapped() {
+        Uri pageUri = WeatherEntry.buildWeatherLocationPage(TestUtilities.TEST_LOCATION, -1,
+                WeatherEntry.MAX_PAGE_LIMIT * 10);
+        Cursor cursor = mContext.getContentResolver().query(pageUri, PAGE_COLUMNS,
+                null, null, null);
+        assertEquals(WeatherEntry.MAX_PAGE_LIMIT, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testPageQueryUsesLocationDayIndex() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + WeatherEntry.TABLE_NAME + "." +
+                WeatherEntry.COLUMN_DATE + " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                LocationEntry.TABLE_NAME + " ON " + WeatherEntry.TABLE_NAME + "." +
+                WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "." +
+                LocationEntry._ID + " WHERE " + LocationEntry.TABLE_NAME + "." +
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                WeatherEntry.COLUMN_DAY_KEY + " > ? ORDER BY " + WeatherEntry.COLUMN_DAY_KEY +
+                " ASC LIMIT " + PAGE_SIZE,
+                new String[]{TestUtilities.TEST_LOCATION, "0"});
+
+        StringBuilder details = new StringBuilder();
+        int detailColumn = plan.getColumnIndex("detail");
+        while (plan.moveToNext()) {
+            details.append(plan.getString(detailColumn)).append('\n');
+        }
+        plan.close();
+        db.close();
+
+        assertTrue("Error: paging query doesn't use the location/day index:\n" + details,
+                details.toString().contains(WeatherEntry.INDEX_LOCATION_DAY));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherStatsEntry;
+
+public class TestWeatherStats extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherStats.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+    private static final int DAYS = 7;
+    private static final int BENCHMARK_PASSES = 50;
+
+    // one week: storm, drizzle, rain, rain, snow, clear, clouds
+    private static final int[] WEATHER_IDS = {211, 301, 500, 521, 601, 800, 803};
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] week = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            week[i] = createDay(i, WEATHER_IDS[i]);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, week);
+    }
+
+    private ContentValues createDay(int day, int weatherId) {
+        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 10 - day);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + day);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 50 + day);
+        return values;
+    }
+
+    private Uri weekStatsUri() {
+        return WeatherStatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE, TestUtilities.TEST_DATE + (DAYS - 1) * DAY_IN_MILLIS);
+    }
+
+    public void testWeeklyStats() {
+        Cursor cursor = mContext.getContentResolver().query(weekStatsUri(), null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(DAYS, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_DAY_COUNT)));
+        assertEquals(10.0 - (DAYS - 1),
+                cursor.getDouble(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_LOWEST_TEMP)));
+        assertEquals(20.0 + (DAYS - 1),
+                cursor.getDouble(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_HIGHEST_TEMP)));
+        assertEquals(53.0,
+                cursor.getDouble(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_AVG_HUMIDITY)), 1e-9);
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_STORM_DAYS)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_DRIZZLE_DAYS)));
+        assertEquals(2, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_RAIN_DAYS)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_SNOW_DAYS)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_CLEAR_DAYS)));
+        assertEquals(1, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_CLOUDY_DAYS)));
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_EXTREME_DAYS)));
+        cursor.close();
+    }
+
+    public void testProjectionAndEmptyRange() {
+        Uri uri = WeatherStatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE + 100 * DAY_IN_MILLIS, -1);
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherStatsEntry.COLUMN_DAY_COUNT, WeatherStatsEntry.COLUMN_LOWEST_TEMP},
+                null, null, null);
+        assertEquals(2, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(0));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+    }
+
+    public void testCacheIsInvalidatedByWrites() {
+        Cursor cursor = mContext.getContentResolver().query(weekStatsUri(),
+                new String[]{WeatherStatsEntry.COLUMN_HIGHEST_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        double before = cursor.getDouble(0);
+        cursor.close();
+
+        ContentValues hotDay = createDay(2, 800);
+        hotDay.put(WeatherEntry.COLUMN_MAX_TEMP, 45);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, hotDay);
+
+        cursor = mContext.getContentResolver().query(weekStatsUri(),
+                new String[]{WeatherStatsEntry.COLUMN_HIGHEST_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue("Error: stats were served from a stale cache", cursor.getDouble(0) != before);
+        assertEquals(45.0, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    public void testStatsBenchmark() {
+        String[] rowColumns = {WeatherEntry.COLUMN_MIN_TEMP, WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_HUMIDITY, WeatherEntry.COLUMN_WEATHER_ID};
+        Uri rowsUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        long start = System.nanoTime();
+        int rainyClient = 0;
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            Cursor cursor = mContext.getContentResolver().query(rowsUri, rowColumns,
+                    null, null, null);
+            double low = Double.MAX_VALUE, high = -Double.MAX_VALUE, humidity = 0;
+            int rainy = 0;
+            while (cursor.moveToNext()) {
+                low = Math.min(low, cursor.getDouble(0));
+                high = Math.max(high, cursor.getDouble(1));
+                humidity += cursor.getDouble(2);
+                int weatherId = cursor.getInt(3);
+                if (weatherId >= 300 && weatherId < 600 && weatherId / 100 != 4) rainy++;
+            }
+            rainyClient = rainy;
+            cursor.close();
+        }
+        long clientNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int rainyProvider = 0;
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            Cursor cursor = mContext.getContentResolver().query(weekStatsUri(), null,
+                    null, null, null);
+            cursor.moveToFirst();
+            rainyProvider = cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_DRIZZLE_DAYS))
+                    + cursor.getInt(cursor.getColumnIndex(WeatherStatsEntry.COLUMN_RAIN_DAYS));
+            cursor.close();
+        }
+        long providerNanos = System.nanoTime() - start;
+
+        assertEquals(rainyClient, rainyProvider);
+        Log.d(LOG_TAG, BENCHMARK_PASSES + " passes: client-side aggregation " +
+                clientNanos / 1000 + "us, provider stats " + providerNanos / 1000 + "us");
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestWriteQueue extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWriteQueue.class.getSimpleName();
+
+    private static final int PRODUCERS = 4;
+    private static final int WRITES_PER_PRODUCER = 250;
+
+    private WeatherDbHelper mHelper;
+    private WriteQueue mQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHelper = new WeatherDbHelper(mContext);
+        mHelper.getWritableDatabase().delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        mHelper.getWritableDatabase().delete(LocationEntry.TABLE_NAME, null, null);
+        mQueue = new WriteQueue(mHelper, WriteQueue.DEFAULT_MAX_BATCH);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mQueue.quit();
+        mHelper.getWritableDatabase().delete(LocationEntry.TABLE_NAME, null, null);
+        mHelper.close();
+        super.tearDown();
+    }
+
+    private static ContentValues location(String setting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, setting);
+        return values;
+    }
+
+    private static WriteQueue.Write<Long> insertLocation(final String setting) {
+        return new WriteQueue.Write<Long>() {
+            @Override
+            public Long apply(SQLiteDatabase db) {
+                return db.insert(LocationEntry.TABLE_NAME, null, location(setting));
+            }
+        };
+    }
+
+    private long countLocations() {
+        return DatabaseUtils.queryNumEntries(mHelper.getReadableDatabase(),
+                LocationEntry.TABLE_NAME);
+    }
+
+    // Holds the writer thread until the latch opens, so everything queued meanwhile shares a batch.
+    private void blockWriter(final CountDownLatch release) {
+        mQueue.submit(new WriteQueue.Write<Void>() {
+            @Override
+            public Void apply(SQLiteDatabase db) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+    }
+
+    public void testFuturesReturnIds() throws Exception {
+        long id = mQueue.execute(insertLocation("a"));
+        assertTrue(id > 0);
+        Future<Long> future = mQueue.submit(insertLocation("b"));
+        assertTrue(future.get() > id);
+        assertEquals(2, countLocations());
+    }
+
+    public void testGroupCommit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        blockWriter(release);
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(mQueue.submit(insertLocation("loc" + i)));
+        }
+        release.countDown();
+        for (Future<Long> future : futures) {
+            assertTrue(future.get() > 0);
+        }
+        assertEquals(11, mQueue.getWriteCount());
+        // One commit for the blocking write, one for everything queued behind it.  Writes that
+        // beat the writer to the queue may have joined the first one instead.
+        assertTrue("Error: the queued writes should share a commit, got " +
+                mQueue.getCommitCount(), mQueue.getCommitCount() <= 2);
+        assertEquals(10, countLocations());
+    }
+
+    public void testFailedWriteDoesNotSinkBatch() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        blockWriter(release);
+        Future<Long> first = mQueue.submit(insertLocation("first"));
+        Future<Long> failing = mQueue.submit(new WriteQueue.Write<Long>() {
+            @Override
+            public Long apply(SQLiteDatabase db) {
+                // the location setting is UNIQUE
+                return db.insertOrThrow(LocationEntry.TABLE_NAME, null, location("first"));
+            }
+        });
+        Future<Long> last = mQueue.submit(insertLocation("last"));
+        release.countDown();
+
+        assertTrue(first.get() > 0);
+        assertTrue(last.get() > 0);
+        try {
+            failing.get();
+            fail("Error: a write that threw should fail its future");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof android.database.SQLException);
+        }
+        assertEquals(2, countLocations());
+    }
+
+    public void testExecuteRethrows() {
+        try {
+            mQueue.execute(new WriteQueue.Write<Void>() {
+                @Override
+                public Void apply(SQLiteDatabase db) {
+                    throw new IllegalArgumentException("nope");
+                }
+            });
+            fail("Error: execute should rethrow what the write threw");
+        } catch (IllegalArgumentException e) {
+            assertEquals("nope", e.getMessage());
+        }
+    }
+
+    public void testErrorDoesNotStopWriter() throws Exception {
+        try {
+            mQueue.execute(new WriteQueue.Write<Void>() {
+                @Override
+                public Void apply(SQLiteDatabase db) {
+                    throw new NoClassDefFoundError("boom");
+                }
+            });
+            fail("Error: execute should rethrow the Error the write threw");
+        } catch (NoClassDefFoundError e) {
+            assertEquals("boom", e.getMessage());
+        }
+
+        // The writer has to have survived to run this one
+        Future<Long> next = mQueue.submit(insertLocation("after"));
+        assertTrue(next.get(5, TimeUnit.SECONDS) > 0);
+        assertEquals(1, countLocations());
+    }
+
+    /*
+        Several threads inserting one row at a time, the way a sync adapter and a service writing
+        through the provider at once would.  Directly, each insert is its own transaction and the
+        threads take turns on the database lock; through the queue they share commits.
+     */
+    public void testThroughputBenchmark() throws Exception {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        long directNanos = runProducers(new Producer() {
+            @Override
+            public void write(String setting) {
+                db.insert(LocationEntry.TABLE_NAME, null, location(setting));
+            }
+        });
+        assertEquals(PRODUCERS * WRITES_PER_PRODUCER, countLocations());
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+
+        long commitsBefore = mQueue.getCommitCount();
+        long queuedNanos = runProducers(new Producer() {
+            @Override
+            public void write(String setting) {
+                mQueue.execute(insertLocation(setting));
+            }
+        });
+        assertEquals(PRODUCERS * WRITES_PER_PRODUCER, countLocations());
+
+        Log.d(LOG_TAG, PRODUCERS + " threads x " + WRITES_PER_PRODUCER + " inserts: direct " +
+                directNanos / 1000000 + "ms, queued " + queuedNanos / 1000000 + "ms in " +
+                (mQueue.getCommitCount() - commitsBefore) + " commits");
+    }
+
+    private interface Producer {
+        void write(String setting);
+    }
+
+    private long runProducers(final Producer producer) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<>();
+        Thread[] threads = new Thread[PRODUCERS];
+        for (int t = 0; t < PRODUCERS; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < WRITES_PER_PRODUCER; i++) {
+                            producer.write("t" + thread + "-" + i);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        assertTrue("Error: producers failed: " + failures, failures.isEmpty());
+        return elapsed;
+    }
+}
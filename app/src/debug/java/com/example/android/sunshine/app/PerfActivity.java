@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Intent;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/**
+ * Debug builds only.  Shows what {@link PerfMonitor} and {@link MainThreadIo} have recorded in
+ * this process and shares it as text, to attach to a bug or paste into a spreadsheet.
+ */
+public class PerfActivity extends AppCompatActivity {
+
+    private TextView mReportView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        int padding = getResources().getDimensionPixelSize(R.dimen.activity_horizontal_margin);
+        mReportView = new TextView(this);
+        mReportView.setTypeface(Typeface.MONOSPACE);
+        mReportView.setPadding(padding, padding, padding, padding);
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mReportView);
+        setContentView(scrollView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mReportView.setText(export());
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.perf, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+        if (id == R.id.action_export_perf) {
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.setType("text/plain");
+            shareIntent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.perf_export_subject));
+            shareIntent.putExtra(Intent.EXTRA_TEXT, export());
+            startActivity(Intent.createChooser(shareIntent, getString(R.string.action_export_perf)));
+            return true;
+        }
+        if (id == R.id.action_reset_perf) {
+            PerfMonitor.getInstance().reset();
+            MainThreadIo.getInstance().reset();
+            mReportView.setText(export());
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private static String export() {
+        return PerfMonitor.getInstance().export() + MainThreadIo.getInstance().export();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms Glide's caches with the art for a freshly synced forecast, so the list, the detail
+ * view, the widgets and the notification don't each wait on the network the first time they
+ * draw it.  Only runs for remote art packs, and only on unmetered networks.
+ *
+ * Each image is loaded the way the screens that show it load it, at the sizes they ask for,
+ * so the cached results are the ones they will look up.  The listeners below count how many
+ * of the later renders come straight from the memory cache.
+ */
+public final class ArtPrefetcher {
+
+    public static final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    // Renders between hit ratio log lines
+    private static final int REPORT_EVERY = 50;
+
+    private static final AtomicInteger sRenders = new AtomicInteger();
+    private static final AtomicInteger sMemoryHits = new AtomicInteger();
+
+    /**
+     * Counts memory cache hits for art loaded into views.
+     */
+    public static final RequestListener<String, GlideDrawable> VIEW_STATS = new Stats<>();
+
+    /**
+     * Counts memory cache hits for art loaded as bitmaps for widgets and notifications.
+     */
+    public static final RequestListener<String, Bitmap> BITMAP_STATS = new Stats<>();
+
+    private static class Stats<R> implements RequestListener<String, R> {
+        @Override
+        public boolean onException(Exception e, String model, Target<R> target, boolean isFirstResource) {
+            record(false);
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(R resource, String model, Target<R> target,
+                                       boolean isFromMemoryCache, boolean isFirstResource) {
+            record(isFromMemoryCache);
+            return false;
+        }
+    }
+
+    private ArtPrefetcher() {
+    }
+
+    static void record(boolean fromMemoryCache) {
+        int renders = sRenders.incrementAndGet();
+        int hits = fromMemoryCache ? sMemoryHits.incrementAndGet() : sMemoryHits.get();
+        if (renders % REPORT_EVERY == 0) {
+            Log.d(LOG_TAG, "Art memory cache hits: " + hits + " of " + renders + " renders");
+        }
+    }
+
+    /**
+     * Fraction of art renders so far served from Glide's memory cache, 0 before any render.
+     */
+    public static float getMemoryHitRatio() {
+        int renders = sRenders.get();
+        return renders == 0 ? 0 : (float) sMemoryHits.get() / renders;
+    }
+
+    /**
+     * The distinct art urls for the days, in forecast order.  Empty for the bundled art.
+     */
+    static List<String> getArtUrls(SunshineSettings settings, ContentValues[] days) {
+        Set<String> urls = new LinkedHashSet<>();
+        if (!settings.localGraphics) {
+            for (ContentValues day : days) {
+                Integer weatherId = day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+                if (null == weatherId) continue;
+                String url = settings.getArtUrl(weatherId);
+                if (null != url) urls.add(url);
+            }
+        }
+        return new ArrayList<>(urls);
+    }
+
+    static boolean isUnmetered(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return null != activeNetwork && activeNetwork.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+    /**
+     * Fetches the art for the days at every size it is shown at.  Blocks until done, so call
+     * it from the sync thread.
+     *
+     * @return the number of distinct images fetched
+     */
+    public static int prefetch(Context context, ContentValues[] days) {
+        List<String> urls = getArtUrls(SunshineSettings.get(context), days);
+        if (urls.isEmpty()) return 0;
+        if (!isUnmetered(context)) {
+            Log.d(LOG_TAG, "Not prefetching " + urls.size() + " images on a metered network");
+            return 0;
+        }
+
+        Resources resources = context.getResources();
+        // The list rows and the today row / detail view
+        int listIcon = resources.getDimensionPixelSize(R.dimen.list_icon);
+        int todayIcon = resources.getDimensionPixelSize(R.dimen.today_icon);
+        // The same sizes notifyWeather asks for
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        long start = System.currentTimeMillis();
+        for (String url : urls) {
+            // Keep the source too, so the later sizes decode it instead of downloading again
+            warm(url, Glide.with(context).load(url).diskCacheStrategy(DiskCacheStrategy.ALL)
+                    .fitCenter().into(listIcon, listIcon));
+            warm(url, Glide.with(context).load(url).diskCacheStrategy(DiskCacheStrategy.ALL)
+                    .fitCenter().into(todayIcon, todayIcon));
+            warm(url, Glide.with(context).load(url).asBitmap().diskCacheStrategy(DiskCacheStrategy.ALL)
+                    .fitCenter().into(largeIconWidth, largeIconHeight));
+            // The detail widget takes the image as it comes
+            warm(url, Glide.with(context).load(url).asBitmap().diskCacheStrategy(DiskCacheStrategy.ALL)
+                    .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL));
+        }
+        Log.d(LOG_TAG, "Prefetched " + urls.size() + " images in " +
+                (System.currentTimeMillis() - start) + "ms");
+        return urls.size();
+    }
+
+    private static void warm(String url, FutureTarget<?> future) {
+        MainThreadIo.getInstance().onNetwork();
+        try {
+            future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.w(LOG_TAG, "Error prefetching " + url, e);
+        } finally {
+            // Releasing the result is what moves it into the memory cache
+            future.clear();
+        }
+    }
+}
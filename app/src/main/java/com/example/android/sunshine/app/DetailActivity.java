@@ -33,6 +33,8 @@ public class DetailActivity extends AppCompatActivity {
             Bundle arguments = new Bundle();
             arguments.putParcelable(DetailFragment.DETAIL_URI, getIntent().getData());
             arguments.putBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, true);
+            arguments.putLong(DetailFragment.DETAIL_SELECTED_AT,
+                    getIntent().getLongExtra(DetailFragment.DETAIL_SELECTED_AT, -1));
 
             DetailFragment fragment = new DetailFragment();
             fragment.setArguments(arguments);
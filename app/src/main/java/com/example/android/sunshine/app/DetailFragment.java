@@ -19,13 +19,14 @@ import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.Toolbar;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -33,6 +34,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 import android.widget.TextView;
 
@@ -48,43 +50,34 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private static final String LOG_TAG = DetailFragment.class.getSimpleName();
     static final String DETAIL_URI = "URI";
     static final String DETAIL_TRANSITION_ANIMATION = "DTA";
+    // SystemClock.uptimeMillis() when the day was picked, to log how long it takes to show
+    static final String DETAIL_SELECTED_AT = "DSA";
 
     private static final String FORECAST_SHARE_HASHTAG = " #SunshineApp";
 
     private String mForecast;
     private Uri mUri;
     private boolean mTransitionAnimation;
+    private long mSelectedAt = -1;
+    // Whether the day comes from the loader rather than the ForecastStore
+    private boolean mQuerying;
+    private ForecastDayModel mShownDay;
+
+    private final ForecastStore.OnListChangedListener mListListener =
+            new ForecastStore.OnListChangedListener() {
+                @Override
+                public void onListChanged() {
+                    // Follow the list's new rows, or query if the day dropped out of it
+                    if (!mQuerying && !showFromStore()) {
+                        query();
+                    }
+                }
+            };
 
     private static final int DETAIL_LOADER = 0;
 
-    private static final String[] DETAIL_COLUMNS = {
-            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
-            WeatherEntry.COLUMN_DATE,
-            WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherEntry.COLUMN_HUMIDITY,
-            WeatherEntry.COLUMN_PRESSURE,
-            WeatherEntry.COLUMN_WIND_SPEED,
-            WeatherEntry.COLUMN_DEGREES,
-            WeatherEntry.COLUMN_WEATHER_ID,
-            // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
-            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
-    };
-
-    // These indices are tied to DETAIL_COLUMNS.  If DETAIL_COLUMNS changes, these
-    // must change.
-    public static final int COL_WEATHER_ID = 0;
-    public static final int COL_WEATHER_DATE = 1;
-    public static final int COL_WEATHER_DESC = 2;
-    public static final int COL_WEATHER_MAX_TEMP = 3;
-    public static final int COL_WEATHER_MIN_TEMP = 4;
-    public static final int COL_WEATHER_HUMIDITY = 5;
-    public static final int COL_WEATHER_PRESSURE = 6;
-    public static final int COL_WEATHER_WIND_SPEED = 7;
-    public static final int COL_WEATHER_DEGREES = 8;
-    public static final int COL_WEATHER_CONDITION_ID = 9;
+    // A day the list hasn't loaded is queried for with the list's own columns.
+    private static final String[] DETAIL_COLUMNS = ForecastFragment.FORECAST_COLUMNS;
 
     private ImageView mIconView;
     private TextView mDateView;
@@ -110,6 +103,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         if (arguments != null) {
             mUri = arguments.getParcelable(DetailFragment.DETAIL_URI);
             mTransitionAnimation = arguments.getBoolean(DetailFragment.DETAIL_TRANSITION_ANIMATION, false);
+            mSelectedAt = arguments.getLong(DetailFragment.DETAIL_SELECTED_AT, -1);
         }
 
         View rootView = inflater.inflate(R.layout.fragment_detail_start, container, false);
@@ -152,10 +146,52 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        // The list has most likely loaded this day already; only query when it hasn't
+        if (showFromStore()) {
+            // A loader kept from before a configuration change would report to the old fragment
+            if (null != getLoaderManager().getLoader(DETAIL_LOADER)) {
+                getLoaderManager().destroyLoader(DETAIL_LOADER);
+            }
+        } else {
+            query();
+        }
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        ForecastStore.getInstance().addOnListChangedListener(mListListener);
+        // Catch up with anything the list loaded, or any setting changed, while stopped
+        mListListener.onListChanged();
+    }
+
+    @Override
+    public void onStop() {
+        ForecastStore.getInstance().removeOnListChangedListener(mListListener);
+        super.onStop();
+    }
+
+    /**
+     * Shows the day from the list's models, if the store has it.
+     */
+    private boolean showFromStore() {
+        if (null == mUri) return false;
+        ForecastDayModel day = ForecastStore.getInstance().getDay(getActivity(),
+                WeatherEntry.getLocationSettingFromUri(mUri), WeatherEntry.getDateFromUri(mUri));
+        if (null == day) return false;
+        if (day != mShownDay) {
+            showDay(day, false);
+            onDayShown();
+        }
+        return true;
+    }
+
+    private void query() {
+        mQuerying = true;
+        getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -163,16 +199,20 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
             Uri updatedUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(newLocation, date);
             mUri = updatedUri;
-            getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            if (mQuerying) {
+                getLoaderManager().restartLoader(DETAIL_LOADER, null, this);
+            } else if (!showFromStore()) {
+                query();
+            }
         }
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if ( null != mUri ) {
-            // Now create and return a CursorLoader that will take care of
-            // creating a Cursor for the data being displayed.
-            return new CursorLoader(
+            // A ForecastLoader, so the day is formatted on the loader thread the way the list's
+            // rows are.  It is a single day, so it mustn't replace the stored list.
+            ForecastLoader loader = new ForecastLoader(
                     getActivity(),
                     mUri,
                     DETAIL_COLUMNS,
@@ -180,6 +220,8 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                     null,
                     null
             );
+            loader.setStoresResults(false);
+            return loader;
         }
         ViewParent vp = getView().getParent();
         if ( vp instanceof CardView ) {
@@ -190,79 +232,85 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        if (data != null && data.moveToFirst()) {
-            ViewParent vp = getView().getParent();
-            if ( vp instanceof CardView ) {
-                ((View)vp).setVisibility(View.VISIBLE);
-            }
+        if (data instanceof ForecastLoader.ModelCursor && data.moveToFirst()) {
+            showDay(((ForecastLoader.ModelCursor) data).getModels()[0], true);
+        }
+        onDayShown();
+    }
 
-            // Read weather condition ID from cursor
-            int weatherId = data.getInt(COL_WEATHER_CONDITION_ID);
-
-            if ( Utility.usingLocalGraphics(getActivity()) ) {
-                mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
-            } else {
-                // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
-                        .error(Utility.getArtResourceForWeatherCondition(weatherId))
-                        .crossFade()
-                        .into(mIconView);
-            }
+    private void showDay(ForecastDayModel day, boolean queried) {
+        mShownDay = day;
+        ViewParent vp = getView().getParent();
+        if ( vp instanceof CardView ) {
+            ((View)vp).setVisibility(View.VISIBLE);
+        }
+
+        if ( null == day.artUrl ) {
+            mIconView.setImageResource(day.artResource);
+        } else {
+            // Use weather art image
+            Glide.with(this)
+                    .load(day.artUrl)
+                    .listener(ArtPrefetcher.VIEW_STATS)
+                    .error(day.artResource)
+                    .crossFade()
+                    .into(mIconView);
+        }
+
+        mDateView.setText(day.fullDateText);
+
+        mDescriptionView.setText(day.description);
+        mDescriptionView.setContentDescription(day.descriptionA11y);
+
+        // For accessibility, add a content description to the icon field. Because the ImageView
+        // is independently focusable, it's better to have a description of the image. Using
+        // null is appropriate when the image is purely decorative or when the image already
+        // has text describing it in the same UI component.
+        mIconView.setContentDescription(day.iconA11y);
 
-            // Read date from cursor and update views for day of week and date
-            long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(),date);
-            mDateView.setText(dateText);
-
-            // Get description from weather condition ID
-            String description = Utility.getStringForWeatherCondition(getActivity(), weatherId);
-            mDescriptionView.setText(description);
-            mDescriptionView.setContentDescription(getString(R.string.a11y_forecast, description));
-
-            // For accessibility, add a content description to the icon field. Because the ImageView
-            // is independently focusable, it's better to have a description of the image. Using
-            // null is appropriate when the image is purely decorative or when the image already
-            // has text describing it in the same UI component.
-            mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
-
-            // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
-            double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
-
-            // Read low temperature from cursor and update view
-            double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
-
-            // Read humidity from cursor and update view
-            float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
-            mHumidityView.setText(getActivity().getString(R.string.format_humidity, humidity));
-            mHumidityView.setContentDescription(getString(R.string.a11y_humidity, mHumidityView.getText()));
-            mHumidityLabelView.setContentDescription(mHumidityView.getContentDescription());
-
-            // Read wind speed and direction from cursor and update view
-            float windSpeedStr = data.getFloat(COL_WEATHER_WIND_SPEED);
-            float windDirStr = data.getFloat(COL_WEATHER_DEGREES);
-            mWindView.setText(Utility.getFormattedWind(getActivity(), windSpeedStr, windDirStr));
-            mWindView.setContentDescription(getString(R.string.a11y_wind, mWindView.getText()));
-            mWindLabelView.setContentDescription(mWindView.getContentDescription());
-
-            // Read pressure from cursor and update view
-            float pressure = data.getFloat(COL_WEATHER_PRESSURE);
-            mPressureView.setText(getString(R.string.format_pressure, pressure));
-            mPressureView.setContentDescription(getString(R.string.a11y_pressure, mPressureView.getText()));
-            mPressureLabelView.setContentDescription(mPressureView.getContentDescription());
-
-            // We still need this for the share intent
-            mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
+        mHighTempView.setText(day.high);
+        mHighTempView.setContentDescription(day.highA11y);
 
+        mLowTempView.setText(day.low);
+        mLowTempView.setContentDescription(day.lowA11y);
+
+        mHumidityView.setText(day.humidity);
+        mHumidityView.setContentDescription(day.humidityA11y);
+        mHumidityLabelView.setContentDescription(day.humidityA11y);
+
+        mWindView.setText(day.wind);
+        mWindView.setContentDescription(day.windA11y);
+        mWindLabelView.setContentDescription(day.windA11y);
+
+        mPressureView.setText(day.pressure);
+        mPressureView.setContentDescription(day.pressureA11y);
+        mPressureLabelView.setContentDescription(day.pressureA11y);
+
+        // We still need this for the share intent
+        mForecast = String.format("%s - %s - %s/%s", day.fullDateText, day.description,
+                day.maxTemp, day.minTemp);
+
+        if ( mSelectedAt >= 0 ) {
+            logSelectionLatency(mSelectedAt, queried);
+            mSelectedAt = -1;
         }
+    }
+
+    // Logs once the detail has been drawn with the selected day.
+    private void logSelectionLatency(final long selectedAt, final boolean queried) {
+        final View view = getView();
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                Log.d(LOG_TAG, "Detail drawn " + (SystemClock.uptimeMillis() - selectedAt) +
+                        "ms after selection, from the " + (queried ? "query" : "list"));
+                return true;
+            }
+        });
+    }
+
+    private void onDayShown() {
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -288,4 +336,4 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) { }
-}
\ No newline at end of file
+}
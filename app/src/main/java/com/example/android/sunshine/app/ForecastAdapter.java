@@ -27,13 +27,13 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
  */
-public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder>
+        implements ItemChoiceManager.IdPositions {
 
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
@@ -42,6 +42,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    private ForecastDayModel[] mModels = new ForecastDayModel[0];
+    private PositionIndex mDateIndex = PositionIndex.of(new long[0]);
+    private PositionIndex mStableIdIndex = PositionIndex.of(new long[0]);
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -70,9 +73,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mModels[adapterPosition].date, this);
             mICM.onClick(this);
         }
     }
@@ -85,6 +86,10 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Ids follow the day rather than the row, so holders and the selection stay with
+        // their day when a sync replaces every row or shifts them by a day.  Has to be set
+        // before the ItemChoiceManager starts observing.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -121,65 +126,54 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        long start = PerfMonitor.ENABLED ? System.nanoTime() : 0;
+        // Everything shown was formatted when the cursor loaded; see ForecastDayModel.
+        ForecastDayModel day = mModels[position];
         int defaultImage;
-        boolean useLongToday;
+        String dateText;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = day.artResource;
+                dateText = day.longDateText;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = day.iconResource;
+                dateText = day.dateText;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == day.artUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(day.artUrl)
+                    .listener(PerfMonitor.getInstance().artListener())
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
-        // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, day.transitionName);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        forecastAdapterViewHolder.mDateView.setText(dateText);
 
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
-
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(day.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(day.descriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(day.high);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(day.highA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(day.low);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(day.lowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
+        if (PerfMonitor.ENABLED) {
+            PerfMonitor.getInstance().recordBind(System.nanoTime() - start);
+        }
     }
 
     public void onRestoreInstanceState(Bundle savedInstanceState) {
@@ -205,16 +199,64 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mModels.length;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mModels[position].stableId;
     }
 
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
+        ForecastDiff diff = null;
+        if ( newCursor instanceof ForecastLoader.ModelCursor ) {
+            ForecastLoader.ModelCursor modelCursor = (ForecastLoader.ModelCursor) newCursor;
+            diff = modelCursor.getDiffFrom(mModels);
+            mModels = modelCursor.getModels();
+            mDateIndex = modelCursor.getDateIndex();
+            mStableIdIndex = modelCursor.getStableIdIndex();
+        } else {
+            // Not from ForecastLoader, which only happens for a null cursor or in tests, so format
+            // here rather than row by row while binding
+            mModels = ForecastDayModel.fromCursor(mContext, newCursor);
+            mDateIndex = ForecastDayModel.indexByDate(mModels);
+            mStableIdIndex = ForecastDayModel.indexByStableId(mModels);
+        }
+        // The loader worked out what changed since the rows on screen; only those rebind
+        if ( null == diff ) {
+            notifyDataSetChanged();
+        } else {
+            diff.dispatchTo(this);
+        }
+        mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Shows already formatted days with no cursor behind them, such as the
+     * {@link ForecastStore}'s startup list while the loader is still running.
+     */
+    public void showModels(ForecastDayModel[] models) {
+        mCursor = null;
+        mModels = models;
+        mDateIndex = ForecastDayModel.indexByDate(models);
+        mStableIdIndex = ForecastDayModel.indexByStableId(models);
         notifyDataSetChanged();
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * @return the position of the day, RecyclerView.NO_POSITION if it isn't in the list
+     */
+    public int getPositionForDate(long date) {
+        return mDateIndex.get(date);
+    }
+
+    @Override
+    public int getPositionForId(long id) {
+        return mStableIdIndex.get(id);
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * One row of the forecast list with everything it shows already formatted, so binding it to
+ * a view only assigns strings and resources.  Built off the main thread by
+ * {@link ForecastLoader}; immutable afterwards.
+ */
+public final class ForecastDayModel {
+
+    public final long id;
+    // The same day for the same location keeps this id across syncs, unlike the row id.
+    public final long stableId;
+    public final long date;
+    public final int weatherId;
+
+    // Small icon for the list, large art for the today row, and the art pack url for both.
+    // The url is null when the bundled graphics are in use.
+    public final int iconResource;
+    public final int artResource;
+    public final String artUrl;
+    public final String transitionName;
+
+    // The today row spells out the date, "Today, June 8"; other rows just say "Today".
+    // Both are kept since any day can end up first after a sync.
+    public final String dateText;
+    public final String longDateText;
+
+    public final String description;
+    public final String descriptionA11y;
+    public final String high;
+    public final String highA11y;
+    public final String low;
+    public final String lowA11y;
+
+    // What the detail view adds to the row.  The ForecastStore's startup list is built from
+    // the snapshot, which doesn't keep these, so they can be null; see hasDetails().
+    public final String fullDateText;
+    public final String iconA11y;
+    public final String humidity;
+    public final String humidityA11y;
+    public final String wind;
+    public final String windA11y;
+    public final String pressure;
+    public final String pressureA11y;
+    // Unformatted, for the share text
+    public final double maxTemp;
+    public final double minTemp;
+
+    private ForecastDayModel(Context context, Cursor cursor, SunshineSettings settings) {
+        id = cursor.getLong(ForecastFragment.COL_WEATHER_ID);
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        stableId = stableId(cursor.getString(ForecastFragment.COL_LOCATION_SETTING), date);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = settings.localGraphics ? null : settings.getArtUrl(weatherId);
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  Keyed on the day rather
+        // than the position so rows that shift after a sync keep their name without a rebind.
+        transitionName = "iconView" + date;
+
+        dateText = Utility.getFriendlyDayString(context, date, false);
+        longDateText = Utility.getFriendlyDayString(context, date, true);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        maxTemp = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        high = Utility.formatTemperature(context, settings, maxTemp);
+        highA11y = context.getString(R.string.a11y_high_temp, high);
+        minTemp = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        low = Utility.formatTemperature(context, settings, minTemp);
+        lowA11y = context.getString(R.string.a11y_low_temp, low);
+
+        fullDateText = Utility.getFullFriendlyDayString(context, date);
+        iconA11y = context.getString(R.string.a11y_forecast_icon, description);
+        if (cursor.isNull(ForecastFragment.COL_WEATHER_HUMIDITY)) {
+            humidity = humidityA11y = wind = windA11y = pressure = pressureA11y = null;
+        } else {
+            humidity = context.getString(R.string.format_humidity,
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_HUMIDITY));
+            humidityA11y = context.getString(R.string.a11y_humidity, humidity);
+            wind = Utility.getFormattedWind(context, settings,
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_WIND_SPEED),
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_DEGREES));
+            windA11y = context.getString(R.string.a11y_wind, wind);
+            pressure = context.getString(R.string.format_pressure,
+                    cursor.getFloat(ForecastFragment.COL_WEATHER_PRESSURE));
+            pressureA11y = context.getString(R.string.a11y_pressure, pressure);
+        }
+    }
+
+    /**
+     * True when the model has everything the detail view shows.
+     */
+    public boolean hasDetails() {
+        return null != humidity;
+    }
+
+    /**
+     * True when binding either model would show exactly the same thing.
+     */
+    public boolean sameContentAs(ForecastDayModel other) {
+        return date == other.date
+                && weatherId == other.weatherId
+                && equal(artUrl, other.artUrl)
+                && dateText.equals(other.dateText)
+                && longDateText.equals(other.longDateText)
+                && description.equals(other.description)
+                && high.equals(other.high)
+                && low.equals(other.low);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public static PositionIndex indexByDate(ForecastDayModel[] models) {
+        long[] dates = new long[models.length];
+        for (int i = 0; i < models.length; i++) {
+            dates[i] = models[i].date;
+        }
+        return PositionIndex.of(dates);
+    }
+
+    public static PositionIndex indexByStableId(ForecastDayModel[] models) {
+        long[] ids = new long[models.length];
+        for (int i = 0; i < models.length; i++) {
+            ids[i] = models[i].stableId;
+        }
+        return PositionIndex.of(ids);
+    }
+
+    /**
+     * The location's hash in the high half and the day's Julian day number in the low half,
+     * so days are unique within a location and a new location's days get new ids.
+     */
+    public static long stableId(String locationSetting, long date) {
+        long location = null == locationSetting ? 0 : locationSetting.hashCode();
+        return (location << 32) | (WeatherContract.getDayKey(date) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Formats every row of a cursor over ForecastFragment.FORECAST_COLUMNS, all with the same
+     * settings.  Does string formatting, so it belongs on a background thread; the list and
+     * the detail view get their models from {@link ForecastLoader}, which calls this on the
+     * loader thread.
+     */
+    public static ForecastDayModel[] fromCursor(Context context, Cursor cursor) {
+        if (null == cursor) return new ForecastDayModel[0];
+        SunshineSettings settings = SunshineSettings.get(context);
+        ForecastDayModel[] models = new ForecastDayModel[cursor.getCount()];
+        for (int i = 0; i < models.length; i++) {
+            cursor.moveToPosition(i);
+            models[i] = new ForecastDayModel(context, cursor, settings);
+        }
+        // Hand the cursor on positioned as a fresh query would be
+        cursor.moveToPosition(-1);
+        return models;
+    }
+}
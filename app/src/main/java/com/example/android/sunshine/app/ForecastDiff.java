@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The inserts, removes and changes that turn one forecast list into the next, so a reload
+ * only rebinds the days that differ.  Both lists are sorted by date with one row per day,
+ * which lets a single merge walk line them up.
+ */
+public final class ForecastDiff {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    // Each op is {type, position, count}, positions as the list stands when the op is applied.
+    private final List<int[]> mOps = new ArrayList<>();
+
+    private ForecastDiff() {
+    }
+
+    public static ForecastDiff between(ForecastDayModel[] before, ForecastDayModel[] after) {
+        ForecastDiff diff = new ForecastDiff();
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < before.length && j < after.length) {
+            if (before[i].date == after[j].date) {
+                if (!before[i].sameContentAs(after[j])) diff.add(CHANGE, position);
+                position++;
+                i++;
+                j++;
+            } else if (before[i].date < after[j].date) {
+                diff.add(REMOVE, position);
+                i++;
+            } else {
+                diff.add(INSERT, position);
+                position++;
+                j++;
+            }
+        }
+        for (; i < before.length; i++) diff.add(REMOVE, position);
+        for (; j < after.length; j++) diff.add(INSERT, position++);
+
+        // A day that slid up into first place needs the today layout
+        if (before.length > 0 && after.length > 0 && before[0].date != after[0].date) {
+            diff.add(CHANGE, 0);
+        }
+        return diff;
+    }
+
+    // Extends the last op when it is the same kind over the next position along.
+    private void add(int type, int position) {
+        if (!mOps.isEmpty()) {
+            int[] last = mOps.get(mOps.size() - 1);
+            if (last[0] == type) {
+                int next = type == REMOVE ? last[1] : last[1] + last[2];
+                if (position == next) {
+                    last[2]++;
+                    return;
+                }
+            }
+        }
+        mOps.add(new int[]{type, position, 1});
+    }
+
+    public boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    public void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int[] op : mOps) {
+            switch (op[0]) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(op[1], op[2]);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(op[1], op[2]);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(op[1], op[2]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int[] op : mOps) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append("IRC".charAt(op[0])).append(op[1]).append('+').append(op[2]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * A {@link CursorLoader} that also formats the forecast rows while it is still on the loader
+ * thread.  The cursor it delivers is a {@link ModelCursor} carrying the finished
+ * {@link ForecastDayModel}s, so the list never formats anything while binding, along with
+ * the {@link ForecastDiff} from the rows this loader delivered last and indexes from date and
+ * stable id to position.  Each result is also kept in the {@link ForecastStore} for the next
+ * time the list starts, unless the loader is only after a single day.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, with a model for each of its rows.
+     */
+    public static class ModelCursor extends CursorWrapper {
+        private final ForecastDayModel[] mModels;
+        private final ForecastDayModel[] mPrevious;
+        private final ForecastDiff mDiff;
+        private final PositionIndex mDateIndex;
+        private final PositionIndex mStableIdIndex;
+
+        ModelCursor(Cursor cursor, ForecastDayModel[] models, ForecastDayModel[] previous) {
+            super(cursor);
+            mModels = models;
+            mPrevious = previous;
+            mDiff = null == previous ? null : ForecastDiff.between(previous, models);
+            mDateIndex = ForecastDayModel.indexByDate(models);
+            mStableIdIndex = ForecastDayModel.indexByStableId(models);
+        }
+
+        public ForecastDayModel[] getModels() {
+            return mModels;
+        }
+
+        public PositionIndex getDateIndex() {
+            return mDateIndex;
+        }
+
+        public PositionIndex getStableIdIndex() {
+            return mStableIdIndex;
+        }
+
+        /**
+         * The changes since {@code shown}, or null if the diff was worked out against some
+         * other list and everything has to be redrawn.
+         */
+        public ForecastDiff getDiffFrom(ForecastDayModel[] shown) {
+            return shown == mPrevious ? mDiff : null;
+        }
+    }
+
+    // Set on the main thread as results go out, read on the loader thread.
+    private volatile ForecastDayModel[] mDelivered;
+    private boolean mStoresResults = true;
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Tells a loader that hasn't delivered yet what the list is already showing, such as the
+     * {@link ForecastStore}'s startup list, so its first result comes with a diff too.
+     */
+    public void setShowing(ForecastDayModel[] models) {
+        mDelivered = models;
+    }
+
+    /**
+     * Whether results replace the {@link ForecastStore}'s list.  Turned off for loaders whose
+     * rows aren't the whole forecast, such as the detail view's single day.
+     */
+    public void setStoresResults(boolean storesResults) {
+        mStoresResults = storesResults;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (null == cursor) return null;
+        // Change notifications keep working: the content observer is registered on the
+        // wrapped cursor, which is the one the wrapper closes.
+        return new ModelCursor(cursor, ForecastDayModel.fromCursor(getContext(), cursor),
+                mDelivered);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset()) {
+            mDelivered = cursor instanceof ModelCursor ? ((ModelCursor) cursor).getModels() : null;
+            if (mStoresResults && null != mDelivered) {
+                ForecastStore.getInstance().putList(getContext(),
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(getUri()), mDelivered);
+            }
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mDelivered = null;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.DayKey;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The forecast list as it was last loaded, kept in memory so the list can draw it in its
+ * first frame instead of waiting on {@link ForecastLoader}.  After a cold start, when there
+ * is nothing in memory yet, the sync's {@link ForecastSnapshot} stands in for it, formatted on
+ * a background thread by {@link #prefetchStartupList} while the activity is still inflating.
+ *
+ * Models are only handed out for the location, units and art pack they were formatted with,
+ * and only on the day they were formatted, since "Today" and "Tomorrow" move at midnight.
+ *
+ * The detail view reads its day from here too, so showing a day the list has loaded costs no
+ * query.  It only queries for days the list doesn't have.
+ */
+public final class ForecastStore {
+
+    private static final String LOG_TAG = ForecastStore.class.getSimpleName();
+
+    private static final ForecastStore sInstance = new ForecastStore();
+
+    // How long the first frame waits on a prefetch that is still running.  Past that the
+    // loader is about as quick, and the list is better empty than late.
+    private static final long PREFETCH_WAIT_MILLIS = 50;
+
+    private String mLocationSetting;
+    private SunshineSettings mSettings;
+    private int mDayKey;
+    private ForecastDayModel[] mList;
+    private PositionIndex mDateIndex;
+    private FutureTask<Void> mPrefetch;
+
+    private final List<OnListChangedListener> mListeners = new ArrayList<>();
+
+    /**
+     * Told on the thread that put the list, which for ForecastLoader is the main thread.
+     */
+    public interface OnListChangedListener {
+        void onListChanged();
+    }
+
+    private ForecastStore() {
+    }
+
+    public static ForecastStore getInstance() {
+        return sInstance;
+    }
+
+    private static int today() {
+        return WeatherContract.getDayKey(System.currentTimeMillis());
+    }
+
+    /**
+     * Keeps the list models for a location, as formatted with the current settings.
+     */
+    public void putList(Context context, String locationSetting, ForecastDayModel[] models) {
+        OnListChangedListener[] listeners;
+        synchronized (this) {
+            keep(context, locationSetting, models);
+            listeners = mListeners.toArray(new OnListChangedListener[mListeners.size()]);
+        }
+        for (OnListChangedListener listener : listeners) {
+            listener.onListChanged();
+        }
+    }
+
+    // Callers hold the lock.
+    private void keep(Context context, String locationSetting, ForecastDayModel[] models) {
+        mLocationSetting = locationSetting;
+        mSettings = SunshineSettings.get(context);
+        mDayKey = today();
+        mList = models;
+        mDateIndex = ForecastDayModel.indexByDate(models);
+    }
+
+    public synchronized void addOnListChangedListener(OnListChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public synchronized void removeOnListChangedListener(OnListChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return the list models last kept for the preferred location, or null if there are
+     * none or they are out of date
+     */
+    public synchronized ForecastDayModel[] getList(Context context) {
+        SunshineSettings settings = SunshineSettings.get(context);
+        if (null == mList || mDayKey != today()
+                || !settings.locationSetting.equals(mLocationSetting)
+                || !formattedAlike(settings, mSettings)) {
+            return null;
+        }
+        return mList;
+    }
+
+    /**
+     * @return the kept model for the day, if the list has it for that location and with
+     * everything the detail view shows, otherwise null
+     */
+    public synchronized ForecastDayModel getDay(Context context, String locationSetting,
+                                                long date) {
+        ForecastDayModel[] list = getList(context);
+        if (null == list || !locationSetting.equals(mLocationSetting)) return null;
+        int position = mDateIndex.get(date);
+        if (position == PositionIndex.NOT_FOUND || !list[position].hasDetails()) return null;
+        return list[position];
+    }
+
+    // Sync status and the like replace the settings snapshot too; only these show in the list.
+    private static boolean formattedAlike(SunshineSettings a, SunshineSettings b) {
+        return a.metric == b.metric && a.artUrlFormat.equals(b.artUrlFormat);
+    }
+
+    /**
+     * Reads the settings and, unless the list in memory is still good, keeps the snapshot's
+     * days from today on as the list, all on a background thread.  Does nothing new while an
+     * earlier prefetch is still running.  Listeners aren't told, since days without details
+     * give them nothing to show.
+     *
+     * @return the prefetch, done once the list is in place or there turned out to be none
+     */
+    public synchronized Future<Void> prefetchStartupList(Context context) {
+        if (null != mPrefetch && !mPrefetch.isDone()) return mPrefetch;
+        final Context appContext = context.getApplicationContext();
+        mPrefetch = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(appContext);
+            }
+        }, null);
+        Thread thread = new Thread(mPrefetch, LOG_TAG);
+        thread.setDaemon(true);
+        thread.start();
+        return mPrefetch;
+    }
+
+    private void prefetch(Context context) {
+        long start = SystemClock.uptimeMillis();
+        // Also the process's first read of the settings, which is what makes it worth doing
+        // off the main thread even when the list is still good.
+        if (null != getList(context)) return;
+        ForecastSnapshot snapshot = ForecastSnapshot.open(context);
+        if (null == snapshot) return;
+        String locationSetting = SunshineSettings.get(context).locationSetting;
+        ForecastDayModel[] models = fromSnapshot(context, snapshot, locationSetting);
+        if (null == models) return;
+        synchronized (this) {
+            // A loader result that came in meanwhile is newer
+            if (null != getList(context)) return;
+            keep(context, locationSetting, models);
+        }
+        Log.d(LOG_TAG, "Prefetched " + models.length + " days from the snapshot in " +
+                (SystemClock.uptimeMillis() - start) + "ms");
+    }
+
+    /**
+     * The list to draw before the loader has delivered: the models in memory if they are
+     * still good, which after a cold start are the snapshot's days as
+     * {@link #prefetchStartupList} formatted them.  Waits a little for a prefetch that is
+     * still running, but never reads the disk itself, so it is meant for the main thread.
+     *
+     * @return the models, or null if there is nothing to show for the preferred location yet
+     */
+    public ForecastDayModel[] getStartupList(Context context) {
+        Future<Void> prefetch;
+        synchronized (this) {
+            prefetch = mPrefetch;
+        }
+        if (null != prefetch) {
+            long start = SystemClock.uptimeMillis();
+            try {
+                prefetch.get(PREFETCH_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // The settings may still be loading on the prefetch thread, so don't look.
+                Log.d(LOG_TAG, "Prefetch still running, leaving the list to the loader");
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                Log.w(LOG_TAG, "Couldn't prefetch the startup list", e.getCause());
+            }
+            StartupTiming.onStartupList(SystemClock.uptimeMillis() - start);
+        }
+        return getList(context);
+    }
+
+    /**
+     * Formats the days the snapshot has for the location from today on.  The snapshot keeps no
+     * row ids, coordinates or details, so those come out as 0 or null; the loader's first
+     * result fills them in.
+     */
+    static ForecastDayModel[] fromSnapshot(Context context, ForecastSnapshot snapshot,
+                                           String locationSetting) {
+        int first = snapshot.findDay(locationSetting, today());
+        if (first < 0) return null;
+
+        TimeZone zone = TimeZone.getDefault();
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS,
+                snapshot.getDayCount() - first);
+        for (int i = first; i < snapshot.getDayCount(); i++) {
+            // In FORECAST_COLUMNS order
+            cursor.addRow(new Object[]{
+                    0L,
+                    DayKey.toMillis(snapshot.getDayKey(i), zone),
+                    snapshot.getShortDesc(i),
+                    snapshot.getMaxTemp(i),
+                    snapshot.getMinTemp(i),
+                    locationSetting,
+                    snapshot.getWeatherId(i),
+                    0.0,
+                    0.0,
+                    null,
+                    null,
+                    null,
+                    null
+            });
+        }
+        try {
+            return ForecastDayModel.fromCursor(context, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // For tests.  Doesn't stop a prefetch that is running.
+    synchronized void clear() {
+        mLocationSetting = null;
+        mSettings = null;
+        mList = null;
+        mDateIndex = null;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.support.v4.util.LruCache;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.DayKey;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Bounded caches behind the temperature and date strings in {@link Utility}.  The list,
+ * detail view, widgets and notifications ask for the same few dozen strings over and over,
+ * and each one otherwise costs a String.format or a SimpleDateFormat.
+ *
+ * Everything is dropped when the locale changes.  The date strings are also dropped when the
+ * time zone, its offset or the current day changes, since "Today" and "Tomorrow" move with
+ * them.  Lookups and the formatting on a miss run under one lock, so a string made just
+ * before a rollover can't be stored after it.
+ */
+final class FormatCache {
+
+    static final int MAX_ENTRIES = 128;
+
+    private static final int FRIENDLY_DAY = 0;
+    private static final int FRIENDLY_DAY_LONG = 1;
+    private static final int FULL_FRIENDLY_DAY = 2;
+    private static final int DAY_NAME = 3;
+    private static final int MONTH_DAY = 4;
+
+    private static final FormatCache sInstance = new FormatCache();
+
+    private final LruCache<Long, String> mDays = new LruCache<>(MAX_ENTRIES);
+    // Keyed on the exact value, so the cached string is whatever %1.0f made of it, "-0" and all.
+    private final LruCache<Double, String> mCelsius = new LruCache<>(MAX_ENTRIES);
+    private final LruCache<Double, String> mFahrenheit = new LruCache<>(MAX_ENTRIES);
+
+    private Locale mLocale;
+    private TimeZone mZone;
+    private String mZoneId;
+    private int mOffsetSeconds;
+    private int mCurrentJulianDay;
+
+    static FormatCache getInstance() {
+        return sInstance;
+    }
+
+    synchronized String temperature(Context context, double temperature, boolean metric) {
+        validate(System.currentTimeMillis());
+        LruCache<Double, String> cache = metric ? mCelsius : mFahrenheit;
+        String formatted = cache.get(temperature);
+        if (null == formatted) {
+            formatted = Utility.formatTemperature(context, temperature, metric);
+            cache.put(temperature, formatted);
+        }
+        return formatted;
+    }
+
+    synchronized String friendlyDay(Context context, long dateInMillis, boolean displayLongToday) {
+        long key = validateAndKey(displayLongToday ? FRIENDLY_DAY_LONG : FRIENDLY_DAY, dateInMillis);
+        String formatted = mDays.get(key);
+        if (null == formatted) {
+            formatted = Utility.formatFriendlyDay(context, dateInMillis, displayLongToday);
+            mDays.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    synchronized String fullFriendlyDay(Context context, long dateInMillis) {
+        long key = validateAndKey(FULL_FRIENDLY_DAY, dateInMillis);
+        String formatted = mDays.get(key);
+        if (null == formatted) {
+            formatted = Utility.formatFullFriendlyDay(context, dateInMillis);
+            mDays.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    synchronized String dayName(Context context, long dateInMillis) {
+        long key = validateAndKey(DAY_NAME, dateInMillis);
+        String formatted = mDays.get(key);
+        if (null == formatted) {
+            formatted = Utility.formatDayName(context, dateInMillis);
+            mDays.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    synchronized String monthDay(Context context, long dateInMillis) {
+        long key = validateAndKey(MONTH_DAY, dateInMillis);
+        String formatted = mDays.get(key);
+        if (null == formatted) {
+            formatted = Utility.formatMonthDay(context, dateInMillis);
+            mDays.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    /*
+        The date strings depend on two days: the Julian day Utility works out with today's UTC
+        offset, which picks "Today", "Tomorrow" or a weekday, and the calendar day in the
+        default zone, which SimpleDateFormat prints.  They differ by at most one around DST
+        changes, so both fit in the key with the kind of string.
+     */
+    private long validateAndKey(int kind, long dateInMillis) {
+        validate(System.currentTimeMillis());
+        int julianDay = Time.getJulianDay(dateInMillis, mOffsetSeconds);
+        int localDay = DayKey.fromMillis(dateInMillis, mZone);
+        return ((long) localDay << 8) | ((julianDay - localDay + 2) << 3) | kind;
+    }
+
+    /**
+     * Drops whatever the locale, zone or day has moved out from under.
+     */
+    synchronized void validate(long now) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mCelsius.evictAll();
+            mFahrenheit.evictAll();
+            mDays.evictAll();
+            mLocale = locale;
+        }
+
+        TimeZone zone = TimeZone.getDefault();
+        int offsetSeconds = zone.getOffset(now) / 1000;
+        int currentJulianDay = Time.getJulianDay(now, offsetSeconds);
+        if (!zone.getID().equals(mZoneId) || offsetSeconds != mOffsetSeconds
+                || currentJulianDay != mCurrentJulianDay) {
+            mDays.evictAll();
+            mZoneId = zone.getID();
+            mOffsetSeconds = offsetSeconds;
+            mCurrentJulianDay = currentJulianDay;
+        }
+        mZone = zone;
+    }
+
+    synchronized int dayEntries() {
+        return mDays.size();
+    }
+
+    synchronized int temperatureEntries() {
+        return mCelsius.size() + mFahrenheit.size();
+    }
+}
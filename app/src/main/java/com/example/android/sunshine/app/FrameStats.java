@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import com.example.android.sunshine.app.data.LatencyHistogram;
+
+/**
+ * Turns a run of frame start times, as Choreographer hands them out, into frame times and
+ * jank counts.  A frame is janky when it took more than one and a half refresh intervals,
+ * and every whole interval past the first is counted as a dropped frame.
+ *
+ * Times are only compared within a session, so the idle time between two scrolls doesn't
+ * count as one long frame.  Choreographer feeds it on the main thread and the perf screen
+ * reads it there too, so it takes no lock.  Plain Java, so it is tested on the JVM.
+ */
+public final class FrameStats {
+
+    public static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    private final LatencyHistogram mFrameTimes;
+    private long mFrameIntervalNanos;
+    private long mLastFrameNanos = -1;
+    private long mFrames;
+    private long mJankyFrames;
+    private long mDroppedFrames;
+
+    public FrameStats(String name, long frameIntervalNanos) {
+        mFrameTimes = new LatencyHistogram(name);
+        mFrameIntervalNanos = frameIntervalNanos;
+    }
+
+    public LatencyHistogram getFrameTimes() {
+        return mFrameTimes;
+    }
+
+    /**
+     * For displays that don't refresh at 60Hz.  Only affects frames from here on.
+     */
+    public void setFrameIntervalNanos(long frameIntervalNanos) {
+        mFrameIntervalNanos = frameIntervalNanos;
+    }
+
+    public void onFrame(long frameTimeNanos) {
+        if (mLastFrameNanos >= 0) {
+            long interval = frameTimeNanos - mLastFrameNanos;
+            mFrameTimes.record(interval);
+            mFrames++;
+            if (interval * 2 > mFrameIntervalNanos * 3) {
+                mJankyFrames++;
+                // Rounded, since frame times wobble a little either side of the interval
+                mDroppedFrames += (interval + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+            }
+        }
+        mLastFrameNanos = frameTimeNanos;
+    }
+
+    /**
+     * Ends a run of frames; the next frame starts a new one.
+     */
+    public void endSession() {
+        mLastFrameNanos = -1;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public long getJankyFrames() {
+        return mJankyFrames;
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    public void reset() {
+        mFrameTimes.reset();
+        mLastFrameNanos = -1;
+        mFrames = 0;
+        mJankyFrames = 0;
+        mDroppedFrames = 0;
+    }
+
+    /**
+     * Appends the jank counts, then the frame time histogram.
+     */
+    public void appendTo(StringBuilder sb) {
+        sb.append(mFrameTimes.getName()).append(",frames=").append(mFrames)
+                .append(",janky=").append(mJankyFrames)
+                .append(",dropped=").append(mDroppedFrames)
+                .append(",intervalUs=").append(mFrameIntervalNanos / 1000).append('\n');
+        mFrameTimes.appendTo(sb);
+    }
+}
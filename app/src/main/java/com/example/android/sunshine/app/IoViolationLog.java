@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts blocking I/O by kind and by the method in our code that did it, so the same call
+ * site showing up on every bind or every click adds up to one line with a count.  Sites are
+ * keyed without line numbers or anonymous class numbers so that a list of known ones survives
+ * edits to the file.
+ *
+ * Plain Java, so it is tested on the JVM.
+ */
+public final class IoViolationLog {
+
+    public static final String DISK_READ = "disk_read";
+    public static final String DISK_WRITE = "disk_write";
+    public static final String NETWORK = "network";
+
+    private final Map<String, Integer> mCounts = new LinkedHashMap<>();
+
+    /**
+     * Finds the frame responsible for the I/O: the first one in our package outside the guard
+     * and outside the choke points every read or write goes through, such as the provider or
+     * the prefs accessors.  When nothing of ours called the choke point, it is the choke point.
+     *
+     * @param packagePrefix the package our classes live in, with the trailing dot
+     * @param guardClass    the class that took the stack, whose frames are always skipped
+     * @param chokePoints   classes whose frames are skipped in favour of their caller
+     * @return the frame, or null if none of our code is on the stack
+     */
+    public static StackTraceElement findCallSite(StackTraceElement[] stack, String packagePrefix,
+                                                 String guardClass, String... chokePoints) {
+        StackTraceElement chokePoint = null;
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (!className.startsWith(packagePrefix) || isIn(className, guardClass)) continue;
+            boolean passThrough = false;
+            for (String chokePointClass : chokePoints) {
+                if (isIn(className, chokePointClass)) {
+                    passThrough = true;
+                    break;
+                }
+            }
+            if (!passThrough) return frame;
+            if (null == chokePoint) chokePoint = frame;
+        }
+        return chokePoint;
+    }
+
+    private static boolean isIn(String className, String outerClass) {
+        return className.equals(outerClass) || className.startsWith(outerClass + "$");
+    }
+
+    /**
+     * @return the key a call site is counted under, e.g. "disk_write SettingsActivity.onActivityResult"
+     */
+    public static String key(String kind, StackTraceElement site, String packagePrefix) {
+        String className = site.getClassName();
+        if (className.startsWith(packagePrefix)) {
+            className = className.substring(packagePrefix.length());
+        }
+        // Anonymous classes are numbered in the order they appear in the file
+        className = className.replaceAll("\\$\\d+", "");
+        return kind + " " + className + "." + site.getMethodName();
+    }
+
+    /**
+     * @return true if this is the first time the key was seen
+     */
+    public synchronized boolean record(String key) {
+        Integer count = mCounts.get(key);
+        mCounts.put(key, null == count ? 1 : count + 1);
+        return null == count;
+    }
+
+    public synchronized int getCount(String key) {
+        Integer count = mCounts.get(key);
+        return null == count ? 0 : count;
+    }
+
+    public synchronized int getTotal() {
+        int total = 0;
+        for (int count : mCounts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized List<String> getKeys() {
+        return new ArrayList<>(mCounts.keySet());
+    }
+
+    /**
+     * @return the keys seen that aren't in the baseline, in the order they were first seen
+     */
+    public synchronized List<String> getNewKeys(Collection<String> baseline) {
+        List<String> newKeys = new ArrayList<>();
+        for (String key : mCounts.keySet()) {
+            if (!baseline.contains(key)) newKeys.add(key);
+        }
+        return newKeys;
+    }
+
+    public synchronized void reset() {
+        mCounts.clear();
+    }
+
+    /**
+     * Appends a summary line and then one line per call site, as comma separated values.
+     * Sites missing from the baseline are marked new.
+     */
+    public synchronized void appendTo(StringBuilder sb, String name, Collection<String> baseline) {
+        sb.append(name).append(",total=").append(getTotal())
+                .append(",sites=").append(mCounts.size()).append('\n');
+        for (Map.Entry<String, Integer> entry : mCounts.entrySet()) {
+            String key = entry.getKey();
+            int space = key.indexOf(' ');
+            sb.append(name).append(',').append(key, 0, space)
+                    .append(',').append(key, space + 1, key.length())
+                    .append(',').append(entry.getValue())
+                    .append(',').append(baseline.contains(key) ? "known" : "new").append('\n');
+        }
+    }
+}
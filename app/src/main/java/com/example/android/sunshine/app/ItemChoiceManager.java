@@ -34,13 +34,38 @@ public class ItemChoiceManager {
     private final String SELECTED_ITEMS_KEY = "SIK";
     private int mChoiceMode;
 
+    /**
+     * Implemented by adapters that can find the position of an item id without a search.
+     */
+    public interface IdPositions {
+        /**
+         * @return the position of the item, RecyclerView.NO_POSITION if it is gone
+         */
+        int getPositionForId(long id);
+    }
+
     private RecyclerView.Adapter mAdapter;
     private RecyclerView.AdapterDataObserver mAdapterDataObserver = new RecyclerView.AdapterDataObserver() {
         @Override
         public void onChanged() {
             super.onChanged();
-            if (mAdapter != null && mAdapter.hasStableIds())
-                confirmCheckedPositionsById(mAdapter.getItemCount());
+            onPositionsChanged();
+        }
+
+        // Inserts, removes and moves shift the checked positions too
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            onPositionsChanged();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            onPositionsChanged();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            onPositionsChanged();
         }
     };
 
@@ -49,8 +74,18 @@ public class ItemChoiceManager {
 
     ;
 
+    /**
+     * An adapter with stable ids has to call setHasStableIds before this, since RecyclerView
+     * doesn't allow it once the adapter has observers.
+     */
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
+    }
+
+    private void onPositionsChanged() {
+        if (mAdapter != null && mAdapter.hasStableIds())
+            confirmCheckedPositionsById(mAdapter.getItemCount());
     }
 
     /**
@@ -160,8 +195,19 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
-            if (id != lastPosId) {
+            // The list may have shrunk past the last known position
+            final long lastPosId = lastPos < mAdapter.getItemCount()
+                    ? mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
+            if (id != lastPosId && mAdapter instanceof IdPositions) {
+                final int position = ((IdPositions) mAdapter).getPositionForId(id);
+                if (position != RecyclerView.NO_POSITION) {
+                    mCheckStates.put(position, true);
+                    mCheckedIdStates.setValueAt(checkedIndex, position);
+                } else {
+                    mCheckedIdStates.delete(id);
+                    checkedIndex--;
+                }
+            } else if (id != lastPosId) {
                 // Look around to see if the ID is nearby. If not, uncheck it.
                 final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
                 final int end = Math.min(lastPos + CHECK_POSITION_SEARCH_DISTANCE, oldItemCount);
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.Looper;
+import android.os.StrictMode;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.data.WriteQueue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Catches blocking disk and network I/O on the main thread in debug builds.  The places every
+ * read and write goes through report here just before they block: {@link WeatherProvider}
+ * queries, {@link WriteQueue} writes, prefs reads through {@link Utility} until the prefs
+ * have loaded, prefs commits, and Glide's blocking gets.  On the main thread the
+ * call site is logged the first time and counted after that.  The site is the code that called
+ * into those choke points, so a new main thread query is charged to whoever made it.  Release
+ * builds record nothing.
+ *
+ * StrictMode sees the framework's I/O as well.  Before Pie it can't report back, so the app
+ * installs it to log only.  Instrumentation tests install {@link #installFatalStrictMode()}
+ * instead, so any framework I/O kills the run.  They also fail on any counted site that isn't
+ * in {@link #BASELINE}.
+ */
+public final class MainThreadIo {
+    private static final String LOG_TAG = MainThreadIo.class.getSimpleName();
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final String PACKAGE_PREFIX = "com.example.android.sunshine.app.";
+
+    // Frames in these are skipped in favour of whoever called them
+    private static final String[] CHOKE_POINTS = {
+            WeatherProvider.class.getName(),
+            WriteQueue.class.getName(),
+            Utility.class.getName(),
+            SunshineSettings.class.getName()
+    };
+
+    /**
+     * The main thread I/O we already know about, found by following every caller of the choke
+     * points that runs on the main thread.  A site goes here only with a reason, and fixing one
+     * means taking it out.  To check it against a device, run the app's start, detail and
+     * settings screens and TestMainThreadIo with a debug build; {@link #export()} lists every
+     * site seen, and TestMainThreadIo logs it after each test.
+     *
+     * Prefs reads are only counted until the prefs have loaded, and the application's
+     * {@link ForecastStore#prefetchStartupList} starts that load off the main thread.  So at
+     * most one read per process is counted, and only if the main thread gets there first: in
+     * the first screen's onCreate, or whatever that screen reads first.
+     *
+     * Not listed because it isn't I/O: ForecastFragment.openPreferredLocationInMap reads the
+     * first row of a cursor the loader has already filled, which stays in the cursor window.
+     * Not listed because it never happens on the main thread: the sync adapter, the widgets,
+     * the Muzei source and the GCM services, which do all their queries, writes, prefs reads
+     * and Glide gets on their own threads.  No main thread code queries or writes the provider
+     * directly.  Loaders do it on their own threads.
+     */
+    static final List<String> BASELINE = Collections.unmodifiableList(Arrays.asList(
+            // The first prefs read, by the screen the process started with: the forecast, or
+            // the detail and settings screens when they are restored after the process died.
+            IoViolationLog.DISK_READ + " MainActivity.onCreate",
+            IoViolationLog.DISK_READ + " ForecastStore.getList",
+            IoViolationLog.DISK_READ + " SettingsActivity.bindPreferenceSummaryToValue",
+            // Clears the place picker's coordinates with commit() when the location is typed in.
+            IoViolationLog.DISK_WRITE + " SettingsActivity.onSharedPreferenceChanged",
+            // Stores the place picker's address and coordinates with commit().
+            IoViolationLog.DISK_WRITE + " SettingsActivity.onActivityResult"
+    ));
+
+    private static final MainThreadIo sInstance = new MainThreadIo();
+
+    private final IoViolationLog mLog = new IoViolationLog();
+
+    private MainThreadIo() {
+    }
+
+    public static MainThreadIo getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Turns StrictMode on for the main thread, logging only.  Call it on the main thread.
+     */
+    public static void installStrictMode() {
+        if (!ENABLED) return;
+        StrictMode.setThreadPolicy(buildPolicy().penaltyLog().build());
+    }
+
+    /**
+     * For instrumentation tests: turns StrictMode on for the calling thread so that any disk or
+     * network I/O kills the process, failing the run with StrictMode's stack in the log.
+     *
+     * @return the policy to put back afterwards
+     */
+    public static StrictMode.ThreadPolicy installFatalStrictMode() {
+        StrictMode.ThreadPolicy previous = StrictMode.getThreadPolicy();
+        StrictMode.setThreadPolicy(buildPolicy().penaltyLog().penaltyDeath().build());
+        return previous;
+    }
+
+    private static StrictMode.ThreadPolicy.Builder buildPolicy() {
+        return new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork();
+    }
+
+    public void onDiskRead() {
+        record(IoViolationLog.DISK_READ);
+    }
+
+    public void onDiskWrite() {
+        record(IoViolationLog.DISK_WRITE);
+    }
+
+    public void onNetwork() {
+        record(IoViolationLog.NETWORK);
+    }
+
+    private void record(String kind) {
+        if (!ENABLED || Looper.myLooper() != Looper.getMainLooper()) return;
+        Throwable here = new Throwable(kind + " on the main thread");
+        StackTraceElement site = IoViolationLog.findCallSite(here.getStackTrace(), PACKAGE_PREFIX,
+                MainThreadIo.class.getName(), CHOKE_POINTS);
+        if (null == site) return;
+        String key = IoViolationLog.key(kind, site, PACKAGE_PREFIX);
+        if (mLog.record(key)) {
+            if (BASELINE.contains(key)) {
+                Log.d(LOG_TAG, "Known " + kind + " on the main thread at " + site);
+            } else {
+                Log.w(LOG_TAG, "New " + kind + " on the main thread at " + site, here);
+            }
+        }
+    }
+
+    public int getCount(String key) {
+        return mLog.getCount(key);
+    }
+
+    public int getTotal() {
+        return mLog.getTotal();
+    }
+
+    /**
+     * @return the sites seen so far that aren't in the baseline; tests assert this is empty
+     */
+    public List<String> getNewViolations() {
+        return mLog.getNewKeys(BASELINE);
+    }
+
+    /**
+     * Every site seen so far with its count, as comma separated text.
+     */
+    public String export() {
+        StringBuilder sb = new StringBuilder();
+        mLog.appendTo(sb, "main_thread_io", BASELINE);
+        return sb.toString();
+    }
+
+    public void reset() {
+        mLog.reset();
+    }
+}
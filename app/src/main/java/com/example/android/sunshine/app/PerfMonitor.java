@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.WindowManager;
+
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.data.LatencyHistogram;
+
+/**
+ * Scroll performance numbers for the forecast list in debug builds: frame times while the
+ * list scrolls, taken from Choreographer, how long each row takes to bind, and how long each
+ * piece of art takes to arrive from Glide.  Release builds record nothing.
+ *
+ * The numbers are kept as {@link LatencyHistogram}s and exported as text from the debug
+ * build's perf screen.
+ */
+public final class PerfMonitor {
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final PerfMonitor sInstance = new PerfMonitor();
+
+    private final FrameStats mScrollFrames =
+            new FrameStats("scroll_frame", FrameStats.DEFAULT_FRAME_INTERVAL_NANOS);
+    private final LatencyHistogram mBinds = new LatencyHistogram("forecast_bind");
+    // Split by where Glide found the art; only memory hits are fast enough for a bind.
+    private final LatencyHistogram mArtFromMemory = new LatencyHistogram("art_load_memory");
+    private final LatencyHistogram mArtLoads = new LatencyHistogram("art_load_other");
+
+    private PerfMonitor() {
+    }
+
+    public static PerfMonitor getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Samples frames whenever the list is scrolling.  Choreographer needs Jelly Bean.
+     */
+    public void watch(RecyclerView recyclerView) {
+        if (!ENABLED || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) return;
+        Display display = ((WindowManager) recyclerView.getContext()
+                .getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        float refreshRate = display.getRefreshRate();
+        if (refreshRate > 0) {
+            mScrollFrames.setFrameIntervalNanos((long) (1000000000L / refreshRate));
+        }
+        recyclerView.addOnScrollListener(new ScrollSampler(recyclerView));
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ScrollSampler extends RecyclerView.OnScrollListener
+            implements Choreographer.FrameCallback {
+        private final RecyclerView mRecyclerView;
+        private boolean mSampling;
+
+        ScrollSampler(RecyclerView recyclerView) {
+            mRecyclerView = recyclerView;
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState != RecyclerView.SCROLL_STATE_IDLE && !mSampling) {
+                mSampling = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            } else if (newState == RecyclerView.SCROLL_STATE_IDLE && mSampling) {
+                stop();
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mSampling) return;
+            // The list can go away mid-fling without ever going idle
+            if (!ViewCompat.isAttachedToWindow(mRecyclerView)) {
+                stop();
+                return;
+            }
+            mScrollFrames.onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        private void stop() {
+            mSampling = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            mScrollFrames.endSession();
+        }
+    }
+
+    public void recordBind(long nanos) {
+        mBinds.record(nanos);
+    }
+
+    /**
+     * A listener for one art load into the list that records how long it took, and counts it
+     * for {@link ArtPrefetcher#VIEW_STATS} too.  Create it just before starting the load.
+     */
+    public RequestListener<String, GlideDrawable> artListener() {
+        if (!ENABLED) return ArtPrefetcher.VIEW_STATS;
+        final long start = System.nanoTime();
+        return new RequestListener<String, GlideDrawable>() {
+            @Override
+            public boolean onException(Exception e, String model, Target<GlideDrawable> target,
+                                       boolean isFirstResource) {
+                return ArtPrefetcher.VIEW_STATS.onException(e, model, target, isFirstResource);
+            }
+
+            @Override
+            public boolean onResourceReady(GlideDrawable resource, String model,
+                                           Target<GlideDrawable> target,
+                                           boolean isFromMemoryCache, boolean isFirstResource) {
+                (isFromMemoryCache ? mArtFromMemory : mArtLoads).record(System.nanoTime() - start);
+                return ArtPrefetcher.VIEW_STATS.onResourceReady(resource, model, target,
+                        isFromMemoryCache, isFirstResource);
+            }
+        };
+    }
+
+    public FrameStats getScrollFrames() {
+        return mScrollFrames;
+    }
+
+    public LatencyHistogram getBinds() {
+        return mBinds;
+    }
+
+    /**
+     * Everything recorded so far, as comma separated text; durations in microseconds.
+     */
+    public String export() {
+        StringBuilder sb = new StringBuilder();
+        mScrollFrames.appendTo(sb);
+        mBinds.appendTo(sb);
+        mArtFromMemory.appendTo(sb);
+        mArtLoads.appendTo(sb);
+        return sb.toString();
+    }
+
+    public void reset() {
+        mScrollFrames.reset();
+        mBinds.reset();
+        mArtFromMemory.reset();
+        mArtLoads.reset();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+/**
+ * Finds the position of a long key, such as a date or a row id, in a list.  Built once from
+ * the keys in list order; after that a lookup is a probe into two primitive arrays instead of
+ * a walk down the list.  Where a key repeats, the first position wins, as it would in a scan.
+ *
+ * Immutable, so one index can be built on a loader thread and read on the main thread.
+ */
+public final class PositionIndex {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final PositionIndex EMPTY = new PositionIndex(new long[0]);
+
+    private final long[] mKeys;
+    // Position + 1 for each slot, so the zeroes of a new array mean empty.
+    private final int[] mSlots;
+    private final int mMask;
+
+    private PositionIndex(long[] keys) {
+        // Power of two at least twice the key count keeps probe runs short.
+        int capacity = 2;
+        while (capacity < keys.length * 2) {
+            capacity <<= 1;
+        }
+        mKeys = new long[capacity];
+        mSlots = new int[capacity];
+        mMask = capacity - 1;
+
+        for (int position = 0; position < keys.length; position++) {
+            int slot = slotFor(keys[position]);
+            while (mSlots[slot] != 0 && mKeys[slot] != keys[position]) {
+                slot = (slot + 1) & mMask;
+            }
+            if (mSlots[slot] == 0) {
+                mKeys[slot] = keys[position];
+                mSlots[slot] = position + 1;
+            }
+        }
+    }
+
+    public static PositionIndex of(long[] keys) {
+        return keys.length == 0 ? EMPTY : new PositionIndex(keys);
+    }
+
+    private int slotFor(long key) {
+        // Dates are multiples of a day and ids are sequential; spread both over the table.
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mMask;
+    }
+
+    /**
+     * @return the first position of the key, {@link #NOT_FOUND} if it isn't in the list
+     */
+    public int get(long key) {
+        int slot = slotFor(key);
+        while (mSlots[slot] != 0) {
+            if (mKeys[slot] == key) return mSlots[slot] - 1;
+            slot = (slot + 1) & mMask;
+        }
+        return NOT_FOUND;
+    }
+}
@@ -29,6 +29,7 @@ import android.text.TextUtils;
 import android.view.View;
 import android.widget.ImageView;
 
+import com.example.android.sunshine.app.data.ChangeDispatcher;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
@@ -59,6 +60,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_nearby_radius_key)));
 
 
         // If we are using a PlacePicker location, we need to show attributions.
@@ -101,9 +103,7 @@ public class SettingsActivity extends PreferenceActivity
 
         // Set the preference summaries
         setPreferenceSummary(preference,
-                PreferenceManager
-                        .getDefaultSharedPreferences(preference.getContext())
-                        .getString(preference.getKey(), ""));
+                Utility.getPrefs(preference.getContext()).getString(preference.getKey(), ""));
     }
 
     private void setPreferenceSummary(Preference preference, Object value) {
@@ -159,6 +159,7 @@ public class SettingsActivity extends PreferenceActivity
             SharedPreferences.Editor editor = sharedPreferences.edit();
             editor.remove(getString(R.string.pref_location_latitude));
             editor.remove(getString(R.string.pref_location_longitude));
+            MainThreadIo.getInstance().onDiskWrite();
             editor.commit();
 
             // Remove attributions for our any PlacePicker locations.
@@ -170,14 +171,14 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            ChangeDispatcher.getInstance(this).notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            ChangeDispatcher.getInstance(this).notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
         }
     }
 
@@ -215,6 +216,7 @@ public class SettingsActivity extends PreferenceActivity
                         (float) latLong.latitude);
                 editor.putFloat(getString(R.string.pref_location_longitude),
                         (float) latLong.longitude);
+                MainThreadIo.getInstance().onDiskWrite();
                 editor.commit();
 
                 // Tell the SyncAdapter that we've changed the location, so that we can update
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Logs how long MainActivity takes to draw its first frame, and its first frame with the
+ * forecast in it, counted from onCreate.  Only touched on the main thread.
+ */
+final class StartupTiming {
+
+    private static final String LOG_TAG = StartupTiming.class.getSimpleName();
+
+    private static long sCreatedAt = -1;
+    private static long sFirstFrame = -1;
+    private static long sFirstForecastFrame = -1;
+
+    private StartupTiming() {
+    }
+
+    static void onCreate() {
+        sCreatedAt = SystemClock.uptimeMillis();
+        sFirstFrame = -1;
+        sFirstForecastFrame = -1;
+    }
+
+    static void onFirstFrame() {
+        if (sCreatedAt < 0 || sFirstFrame >= 0) return;
+        sFirstFrame = SystemClock.uptimeMillis() - sCreatedAt;
+        Log.d(LOG_TAG, "First frame " + sFirstFrame + "ms after onCreate");
+    }
+
+    /**
+     * @param waitedMillis how long the startup list waited on {@link ForecastStore}'s prefetch
+     */
+    static void onStartupList(long waitedMillis) {
+        if (sCreatedAt < 0 || sFirstForecastFrame >= 0) return;
+        Log.d(LOG_TAG, "Startup list waited " + waitedMillis + "ms for the prefetch, " +
+                (SystemClock.uptimeMillis() - sCreatedAt) + "ms after onCreate");
+    }
+
+    /**
+     * @param fromStore whether the rows came from the {@link ForecastStore} rather than the
+     *                  loader
+     */
+    static void onFirstForecastFrame(int rows, boolean fromStore) {
+        if (sCreatedAt < 0 || sFirstForecastFrame >= 0) return;
+        sFirstForecastFrame = SystemClock.uptimeMillis() - sCreatedAt;
+        Log.d(LOG_TAG, "First forecast frame " + sFirstForecastFrame + "ms after onCreate, " +
+                rows + " days from the " + (fromStore ? "startup list" : "loader"));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Map;
+
+/**
+ * An immutable copy of the display and location preferences, for code that reads them for
+ * every row it draws.  {@link #get} hands out the current copy; a preference listener swaps
+ * in a new one whenever a preference changes, so one snapshot never mixes old and new values.
+ *
+ * The listener runs on the main thread.  A preference written from another thread shows up
+ * here once the main thread has caught up, so code that must see its own write at once should
+ * keep using the {@link Utility} getters.
+ */
+public final class SunshineSettings {
+
+    public final String locationSetting;
+    public final boolean latLonAvailable;
+    public final float latitude;
+    public final float longitude;
+
+    public final boolean metric;
+    public final boolean localGraphics;
+    // The art pack url, with a %s for the name of the art
+    public final String artUrlFormat;
+
+    private static final Object sLock = new Object();
+    private static volatile SunshineSettings sCurrent;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private SunshineSettings(Context context, SharedPreferences prefs) {
+        // One copy of everything, taken under the preferences' lock, so a commit from another
+        // thread can't land between two of the reads below.
+        Map<String, ?> all = prefs.getAll();
+
+        locationSetting = getString(all, context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        Object lat = all.get(context.getString(R.string.pref_location_latitude));
+        Object lon = all.get(context.getString(R.string.pref_location_longitude));
+        latLonAvailable = null != lat && null != lon;
+        latitude = lat instanceof Float ? (Float) lat : Utility.DEFAULT_LATLONG;
+        longitude = lon instanceof Float ? (Float) lon : Utility.DEFAULT_LATLONG;
+
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        metric = getString(all, context.getString(R.string.pref_units_key), metricUnits)
+                .equals(metricUnits);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artUrlFormat = getString(all, context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        localGraphics = artUrlFormat.equals(sunshineArtPack);
+    }
+
+    private static String getString(Map<String, ?> all, String key, String defValue) {
+        Object value = all.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    /**
+     * The current settings.  The first call reads them and starts listening for changes.
+     */
+    public static SunshineSettings get(Context context) {
+        SunshineSettings current = sCurrent;
+        if (null != current) return current;
+
+        synchronized (sLock) {
+            if (null == sCurrent) {
+                final Context appContext = context.getApplicationContext();
+                // Only this first read touches the prefs; later ones come from sCurrent.
+                final SharedPreferences prefs = Utility.getPrefs(appContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                        synchronized (sLock) {
+                            sCurrent = new SunshineSettings(appContext, prefs);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                // Read after registering, so a change in between can't be lost
+                sCurrent = new SunshineSettings(appContext, prefs);
+            }
+            return sCurrent;
+        }
+    }
+
+    /**
+     * The art pack url for a weather condition, null if there is no art for it.
+     */
+    public String getArtUrl(int weatherId) {
+        return Utility.getArtUrlForWeatherCondition(artUrlFormat, weatherId);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+
+/**
+ * Everything Sunshine shows for an OpenWeatherMap condition id, looked up in tables indexed by
+ * the id rather than worked out through a chain of range checks on every call.
+ *
+ * Ids fall into a handful of kinds of weather, which pick the icon, the art and the Muzei
+ * photo.  Descriptions are finer grained and get a table of their own.  Ids outside 0-999,
+ * or ones OpenWeatherMap doesn't list, have no kind and no description.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+final class WeatherConditions {
+
+    static final int MAX_ID = 999;
+
+    private static final byte NONE = -1;
+    private static final byte STORM = 0;
+    private static final byte LIGHT_RAIN = 1;
+    private static final byte RAIN = 2;
+    private static final byte SNOW = 3;
+    private static final byte FOG = 4;
+    private static final byte CLEAR = 5;
+    private static final byte LIGHT_CLOUDS = 6;
+    private static final byte CLOUDS = 7;
+
+    // Indexed by kind
+    private static final int[] ICONS = {R.drawable.ic_storm, R.drawable.ic_light_rain,
+            R.drawable.ic_rain, R.drawable.ic_snow, R.drawable.ic_fog, R.drawable.ic_clear,
+            R.drawable.ic_light_clouds, R.drawable.ic_cloudy};
+    private static final int[] ART = {R.drawable.art_storm, R.drawable.art_light_rain,
+            R.drawable.art_rain, R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds};
+    // What the art pack urls call the art
+    private static final String[] ART_NAMES = {"storm", "light_rain", "rain", "snow", "fog",
+            "clear", "light_clouds", "clouds"};
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"};
+
+    // Indexed by condition id
+    private static final byte[] sKinds = new byte[MAX_ID + 1];
+    private static final int[] sDescriptions = new int[MAX_ID + 1];
+
+    static {
+        Arrays.fill(sKinds, NONE);
+        kind(200, 232, STORM);
+        kind(300, 321, LIGHT_RAIN);
+        kind(500, 504, RAIN);
+        kind(511, 511, SNOW);
+        kind(520, 531, RAIN);
+        kind(600, 622, SNOW);
+        // 761 is dust, but it has always shown as fog
+        kind(701, 761, FOG);
+        kind(781, 781, STORM);
+        kind(800, 800, CLEAR);
+        kind(801, 801, LIGHT_CLOUDS);
+        kind(802, 804, CLOUDS);
+
+        description(200, 232, R.string.condition_2xx);
+        description(300, 321, R.string.condition_3xx);
+        description(500, R.string.condition_500);
+        description(501, R.string.condition_501);
+        description(502, R.string.condition_502);
+        description(503, R.string.condition_503);
+        description(504, R.string.condition_504);
+        description(511, R.string.condition_511);
+        description(520, R.string.condition_520);
+        description(531, R.string.condition_531);
+        description(600, R.string.condition_600);
+        description(601, R.string.condition_601);
+        description(602, R.string.condition_602);
+        description(611, R.string.condition_611);
+        description(612, R.string.condition_612);
+        description(615, R.string.condition_615);
+        description(616, R.string.condition_616);
+        description(620, R.string.condition_620);
+        description(621, R.string.condition_621);
+        description(622, R.string.condition_622);
+        description(701, R.string.condition_701);
+        description(711, R.string.condition_711);
+        description(721, R.string.condition_721);
+        description(731, R.string.condition_731);
+        description(741, R.string.condition_741);
+        description(751, R.string.condition_751);
+        description(761, R.string.condition_761);
+        description(762, R.string.condition_762);
+        description(771, R.string.condition_771);
+        description(781, R.string.condition_781);
+        description(800, R.string.condition_800);
+        description(801, R.string.condition_801);
+        description(802, R.string.condition_802);
+        description(803, R.string.condition_803);
+        description(804, R.string.condition_804);
+        description(900, R.string.condition_900);
+        description(901, R.string.condition_901);
+        description(902, R.string.condition_902);
+        description(903, R.string.condition_903);
+        description(904, R.string.condition_904);
+        description(905, R.string.condition_905);
+        description(906, R.string.condition_906);
+        description(951, R.string.condition_951);
+        description(952, R.string.condition_952);
+        description(953, R.string.condition_953);
+        description(954, R.string.condition_954);
+        description(955, R.string.condition_955);
+        description(956, R.string.condition_956);
+        description(957, R.string.condition_957);
+        description(958, R.string.condition_958);
+        description(959, R.string.condition_959);
+        description(960, R.string.condition_960);
+        description(961, R.string.condition_961);
+        description(962, R.string.condition_962);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void kind(int first, int last, byte kind) {
+        Arrays.fill(sKinds, first, last + 1, kind);
+    }
+
+    private static void description(int first, int last, int stringId) {
+        Arrays.fill(sDescriptions, first, last + 1, stringId);
+    }
+
+    private static void description(int id, int stringId) {
+        sDescriptions[id] = stringId;
+    }
+
+    private static int kindOf(int weatherId) {
+        return weatherId < 0 || weatherId > MAX_ID ? NONE : sKinds[weatherId];
+    }
+
+    /**
+     * @return the small icon, -1 if there is none
+     */
+    static int getIconResource(int weatherId) {
+        int kind = kindOf(weatherId);
+        return kind == NONE ? -1 : ICONS[kind];
+    }
+
+    /**
+     * @return the large art, -1 if there is none
+     */
+    static int getArtResource(int weatherId) {
+        int kind = kindOf(weatherId);
+        return kind == NONE ? -1 : ART[kind];
+    }
+
+    /**
+     * @return the name art packs give the art, null if there is none
+     */
+    static String getArtName(int weatherId) {
+        int kind = kindOf(weatherId);
+        return kind == NONE ? null : ART_NAMES[kind];
+    }
+
+    /**
+     * @return the photo for Muzei, null if there is none
+     */
+    static String getImageUrl(int weatherId) {
+        int kind = kindOf(weatherId);
+        return kind == NONE ? null : IMAGE_URLS[kind];
+    }
+
+    /**
+     * @return the description string resource, 0 if the id isn't a known condition
+     */
+    static int getDescriptionResource(int weatherId) {
+        return weatherId < 0 || weatherId > MAX_ID ? 0 : sDescriptions[weatherId];
+    }
+}
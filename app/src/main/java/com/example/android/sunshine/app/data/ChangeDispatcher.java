@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Debounces {@link ContentResolver#notifyChange} calls.  A sync makes several writes in a row,
+ * and every notification makes each open CursorLoader run its query again, so notifications
+ * are held for a short quiet window and merged before they go out.
+ * <p/>
+ * Merging follows the way the framework matches observers: a change to a Uri reaches observers
+ * of its ancestors and of its descendants, so a pending change to "weather" makes a change to
+ * "weather/94043" redundant.  A steady stream of changes is still flushed after
+ * {@link #DEFAULT_MAX_DELAY_MILLIS}, so observers are never starved.
+ */
+public class ChangeDispatcher {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 500;
+
+    private static ChangeDispatcher sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final long mMaxDelayMillis;
+
+    // Guarded by this
+    private final List<Uri> mPending = new ArrayList<>();
+    private long mFirstPendingAt;
+    private long mRequestedCount;
+    private long mDispatchedCount;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    ChangeDispatcher(ContentResolver resolver, Looper looper, long windowMillis,
+                     long maxDelayMillis) {
+        mResolver = resolver;
+        mHandler = new Handler(looper);
+        mWindowMillis = windowMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * The dispatcher shared by the provider and anything else in the process that signals
+     * weather changes, so their notifications merge with each other.
+     */
+    public static synchronized ChangeDispatcher getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new ChangeDispatcher(context.getApplicationContext().getContentResolver(),
+                    Looper.getMainLooper(), DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Schedules a change notification for the Uri, to go out once no further change has come in
+     * for the quiet window.
+     */
+    public void notifyChange(Uri uri) {
+        synchronized (this) {
+            mRequestedCount++;
+            long now = SystemClock.uptimeMillis();
+            if (mPending.isEmpty()) {
+                mFirstPendingAt = now;
+            }
+            merge(uri);
+            mHandler.removeCallbacks(mFlush);
+            mHandler.postAtTime(mFlush, Math.min(now + mWindowMillis,
+                    mFirstPendingAt + mMaxDelayMillis));
+        }
+    }
+
+    private void merge(Uri uri) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            Uri pending = mPending.get(i);
+            if (covers(pending, uri)) return;
+            if (covers(uri, pending)) mPending.remove(i);
+        }
+        mPending.add(uri);
+    }
+
+    /**
+     * Sends everything pending right away.
+     */
+    public void flush() {
+        Uri[] uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlush);
+            uris = mPending.toArray(new Uri[mPending.size()]);
+            mPending.clear();
+            mDispatchedCount += uris.length;
+        }
+        // Outside the lock, the resolver calls into system_server.
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * True if a change notification for ancestor also reaches every observer that one for uri
+     * would.  The framework matches on authority and path segments only, so the query is
+     * ignored.
+     */
+    static boolean covers(Uri ancestor, Uri uri) {
+        if (!equal(ancestor.getScheme(), uri.getScheme())
+                || !equal(ancestor.getAuthority(), uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() <= segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+
+    private static boolean equal(String a, String b) {
+        return null == a ? null == b : a.equals(b);
+    }
+
+    public synchronized long getRequestedCount() {
+        return mRequestedCount;
+    }
+
+    public synchronized long getDispatchedCount() {
+        return mDispatchedCount;
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Change notifications (window " + mWindowMillis + "ms, max delay " +
+                mMaxDelayMillis + "ms): " + mRequestedCount + " requested, " +
+                mDispatchedCount + " dispatched, " + mPending.size() + " pending");
+    }
+}
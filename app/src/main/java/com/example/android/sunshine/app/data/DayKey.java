@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Conversions between epoch millis and the integer Julian day number we store in
+ * {@link WeatherContract.WeatherEntry#COLUMN_DAY_KEY}.
+ * <p/>
+ * These give the same answers as {@code Time.getJulianDay} and {@code Time.setJulianDay}, but
+ * are plain arithmetic plus a {@link TimeZone#getOffset(long)} lookup, so they don't allocate.
+ * Callers converting many dates in a loop should fetch the zone once and pass it in.
+ * Nothing here touches the Android framework, so it can be tested on the JVM.
+ */
+public final class DayKey {
+
+    // Julian day number of 1970-01-01
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private DayKey() {
+    }
+
+    /**
+     * Julian day number of the calendar day the instant falls on in the given zone.
+     */
+    public static int fromMillis(long millis, TimeZone zone) {
+        long localMillis = millis + zone.getOffset(millis);
+        long days = localMillis / DAY_IN_MILLIS;
+        // Division truncates towards zero; days before the epoch need flooring.
+        if (localMillis < 0 && localMillis % DAY_IN_MILLIS != 0) {
+            days--;
+        }
+        return (int) (days + EPOCH_JULIAN_DAY);
+    }
+
+    /**
+     * Millis of the start of the given Julian day in the given zone.  That is local midnight,
+     * the end of the gap when a DST change skips midnight, or the first of the two midnights
+     * when a DST change repeats it.
+     */
+    public static long toMillis(int dayKey, TimeZone zone) {
+        long utcMidnight = (dayKey - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        // The offset at UTC midnight gets within a DST shift of local midnight, and the offset
+        // there is the right one, except when local midnight itself doesn't exist.
+        long guess = utcMidnight - zone.getOffset(utcMidnight);
+        long millis = utcMidnight - zone.getOffset(guess);
+        if (fromMillis(millis, zone) != dayKey) {
+            // Midnight fell into a DST gap, so the day starts at the end of the gap.
+            millis = guess;
+        }
+        return millis;
+    }
+
+    /**
+     * Start of the day the instant falls on, in the given zone.  Same result as
+     * {@link WeatherContract#normalizeDate(long)} for the default zone.
+     */
+    public static long normalize(long millis, TimeZone zone) {
+        return toMillis(fromMillis(millis, zone), zone);
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * A read-only {@link Cursor} that keeps a forecast result set in primitive column arrays
+ * (long[] dates, int[] weather ids, double[] temperatures and so on) instead of a
+ * CursorWindow.  Columns keep the order of the projection they were built from, so the
+ * COL_* index constants used by the fragments keep working unchanged.
+ */
+public class ForecastColumnCursor extends AbstractCursor {
+
+    static final int TYPE_STRING = 0;
+    static final int TYPE_LONG = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_DOUBLE = 3;
+
+    private final String[] mColumnNames;
+    private final int[] mTypes;
+    private final int mCount;
+
+    // Only one of these is non-null for a given column, depending on mTypes.
+    private final long[][] mLongs;
+    private final int[][] mInts;
+    private final double[][] mDoubles;
+    private final String[][] mStrings;
+
+    // Null flags for the numeric columns.  Every numeric column in our schema is NOT NULL,
+    // so these are only allocated when a null actually shows up.
+    private final boolean[][] mNulls;
+
+    private ForecastColumnCursor(String[] columnNames, int count) {
+        int columns = columnNames.length;
+        mColumnNames = columnNames;
+        mCount = count;
+        mTypes = new int[columns];
+        mLongs = new long[columns][];
+        mInts = new int[columns][];
+        mDoubles = new double[columns][];
+        mStrings = new String[columns][];
+        mNulls = new boolean[columns][];
+        for (int i = 0; i < columns; i++) {
+            mTypes[i] = getColumnType(columnNames[i]);
+            switch (mTypes[i]) {
+                case TYPE_LONG:
+                    mLongs[i] = new long[count];
+                    break;
+                case TYPE_INT:
+                    mInts[i] = new int[count];
+                    break;
+                case TYPE_DOUBLE:
+                    mDoubles[i] = new double[count];
+                    break;
+                default:
+                    mStrings[i] = new String[count];
+            }
+        }
+    }
+
+    /**
+     * Copies every row of the given cursor into column arrays and closes it.
+     *
+     * @param source cursor to materialize, usually straight from SQLite
+     * @return a cursor holding the same rows and columns
+     */
+    public static ForecastColumnCursor fromCursor(Cursor source) {
+        try {
+            ForecastColumnCursor result =
+                    new ForecastColumnCursor(source.getColumnNames(), source.getCount());
+            int columns = result.mColumnNames.length;
+            int row = 0;
+            while (source.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    result.copyValue(source, row, i);
+                }
+                row++;
+            }
+            return result;
+        } finally {
+            source.close();
+        }
+    }
+
+    private void copyValue(Cursor source, int row, int column) {
+        boolean isNull = source.isNull(column);
+        if (isNull && mTypes[column] != TYPE_STRING) {
+            if (null == mNulls[column]) {
+                mNulls[column] = new boolean[mCount];
+            }
+            mNulls[column][row] = true;
+            return;
+        }
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                mLongs[column][row] = source.getLong(column);
+                break;
+            case TYPE_INT:
+                mInts[column][row] = source.getInt(column);
+                break;
+            case TYPE_DOUBLE:
+                mDoubles[column][row] = source.getDouble(column);
+                break;
+            default:
+                mStrings[column][row] = isNull ? null : source.getString(column);
+        }
+    }
+
+    /*
+        Maps a column of the weather/location join to the primitive type we store it as.  The
+        projections used by the app sometimes qualify names with the table ("weather._id"), so
+        the qualifier is dropped before the lookup.  Anything we don't know about is kept as text.
+     */
+    static int getColumnType(String columnName) {
+        int dot = columnName.lastIndexOf('.');
+        String name = dot >= 0 ? columnName.substring(dot + 1) : columnName;
+
+        if (WeatherEntry._ID.equals(name)
+                || WeatherEntry.COLUMN_DATE.equals(name)
+                || WeatherEntry.COLUMN_LOC_KEY.equals(name)) {
+            return TYPE_LONG;
+        } else if (WeatherEntry.COLUMN_WEATHER_ID.equals(name)
+                || WeatherEntry.COLUMN_DAY_KEY.equals(name)) {
+            return TYPE_INT;
+        } else if (WeatherEntry.COLUMN_MIN_TEMP.equals(name)
+                || WeatherEntry.COLUMN_MAX_TEMP.equals(name)
+                || WeatherEntry.COLUMN_HUMIDITY.equals(name)
+                || WeatherEntry.COLUMN_PRESSURE.equals(name)
+                || WeatherEntry.COLUMN_WIND_SPEED.equals(name)
+                || WeatherEntry.COLUMN_DEGREES.equals(name)
+                || LocationEntry.COLUMN_COORD_LAT.equals(name)
+                || LocationEntry.COLUMN_COORD_LONG.equals(name)) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_STRING;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        int row = getRowForRead(column);
+        if (isNullAt(column, row)) return null;
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                return Long.toString(mLongs[column][row]);
+            case TYPE_INT:
+                return Integer.toString(mInts[column][row]);
+            case TYPE_DOUBLE:
+                return Double.toString(mDoubles[column][row]);
+            default:
+                return mStrings[column][row];
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        int row = getRowForRead(column);
+        if (mTypes[column] == TYPE_INT) {
+            return mInts[column][row];
+        }
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        int row = getRowForRead(column);
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                return mLongs[column][row];
+            case TYPE_INT:
+                return mInts[column][row];
+            case TYPE_DOUBLE:
+                return (long) mDoubles[column][row];
+            default:
+                String value = mStrings[column][row];
+                if (null == value) return 0;
+                try {
+                    return Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int row = getRowForRead(column);
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+                return mLongs[column][row];
+            case TYPE_INT:
+                return mInts[column][row];
+            case TYPE_DOUBLE:
+                return mDoubles[column][row];
+            default:
+                String value = mStrings[column][row];
+                if (null == value) return 0;
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+    }
+
+    @Override
+    public int getType(int column) {
+        int row = getRowForRead(column);
+        if (isNullAt(column, row)) return Cursor.FIELD_TYPE_NULL;
+        switch (mTypes[column]) {
+            case TYPE_LONG:
+            case TYPE_INT:
+                return Cursor.FIELD_TYPE_INTEGER;
+            case TYPE_DOUBLE:
+                return Cursor.FIELD_TYPE_FLOAT;
+            default:
+                return Cursor.FIELD_TYPE_STRING;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return isNullAt(column, getRowForRead(column));
+    }
+
+    private boolean isNullAt(int column, int row) {
+        if (mTypes[column] == TYPE_STRING) {
+            return null == mStrings[column][row];
+        }
+        return null != mNulls[column] && mNulls[column][row];
+    }
+
+    private int getRowForRead(int column) {
+        if (column < 0 || column >= mColumnNames.length) {
+            throw new IllegalArgumentException("Invalid column " + column);
+        }
+        if (mPos < 0 || mPos >= mCount) {
+            throw new CursorIndexOutOfBoundsException(mPos, mCount);
+        }
+        return mPos;
+    }
+}
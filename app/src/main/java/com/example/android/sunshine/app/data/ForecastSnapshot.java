@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * A small binary copy of the next few days of forecast for the preferred location, written by
+ * the sync adapter for the readers that only need today: widgets, Muzei, notifications and the
+ * wear publisher.  Reading it is an mmap and a few absolute buffer reads instead of a binder
+ * call and a SQLite join.
+ * <p/>
+ * Layout, big endian:
+ * <pre>
+ *   header   magic, version, written at (millis), day count, payload length, payload CRC32
+ *   payload  location setting (short length + UTF-8)
+ *            day count x (day key, weather id, max, min, description offset, description length)
+ *            descriptions, UTF-8
+ * </pre>
+ * The file is written to a temporary file, synced and renamed over the old one, so a reader
+ * either maps the old file or the new one.  The CRC covers the case where the rename made it to
+ * disk but the data didn't; anything that doesn't check out is treated as no snapshot at all,
+ * and readers fall back to the provider.
+ */
+public class ForecastSnapshot {
+
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    public static final String FILE_NAME = "forecast.snapshot";
+
+    // Today and the next few days is all any of the readers look at.
+    public static final int MAX_DAYS = 7;
+
+    static final int MAGIC = 0x534E5350; // "SNSP"
+    static final int VERSION = 1;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_WRITTEN_AT = 8;
+    private static final int HEADER_DAY_COUNT = 16;
+    private static final int HEADER_PAYLOAD_LENGTH = 20;
+    private static final int HEADER_CRC = 24;
+    static final int HEADER_SIZE = 28;
+
+    private static final int DAY_KEY = 0;
+    private static final int WEATHER_ID = 4;
+    private static final int MAX_TEMP = 8;
+    private static final int MIN_TEMP = 16;
+    private static final int DESC_OFFSET = 24;
+    private static final int DESC_LENGTH = 28;
+    private static final int RECORD_SIZE = 32;
+
+    private static final String UTF_8 = "UTF-8";
+
+    // Writers in this process take turns; the rename keeps readers safe without a lock.
+    private static final Object sWriteLock = new Object();
+
+    private final ByteBuffer mBuffer;
+    private final String mLocationSetting;
+    private final int mDayCount;
+    private final int mFirstRecord;
+    // Decoded on first use.  Strings are immutable, so a race only decodes one twice.
+    private final String[] mShortDescs;
+
+    private ForecastSnapshot(ByteBuffer buffer, String locationSetting, int dayCount,
+                             int firstRecord) {
+        mBuffer = buffer;
+        mLocationSetting = locationSetting;
+        mDayCount = dayCount;
+        mFirstRecord = firstRecord;
+        mShortDescs = new String[dayCount];
+    }
+
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Maps and validates the snapshot.
+     *
+     * @return the snapshot, or null if there is none or it doesn't check out
+     */
+    public static ForecastSnapshot open(Context context) {
+        return open(getFile(context));
+    }
+
+    static ForecastSnapshot open(File file) {
+        if (!file.exists()) return null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return fromBuffer(buffer);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't map forecast snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    static ForecastSnapshot fromBuffer(ByteBuffer buffer) {
+        int size = buffer.limit();
+        if (size < HEADER_SIZE
+                || buffer.getInt(HEADER_MAGIC) != MAGIC
+                || buffer.getInt(HEADER_VERSION) != VERSION) {
+            return null;
+        }
+        int dayCount = buffer.getInt(HEADER_DAY_COUNT);
+        int payloadLength = buffer.getInt(HEADER_PAYLOAD_LENGTH);
+        if (dayCount < 0 || dayCount > MAX_DAYS || payloadLength != size - HEADER_SIZE) {
+            return null;
+        }
+
+        // One bulk copy out of the mapping; CRC32 only takes a ByteBuffer from API 26 on
+        CRC32 crc = new CRC32();
+        crc.update(bytes(buffer, HEADER_SIZE, size - HEADER_SIZE));
+        if ((int) crc.getValue() != buffer.getInt(HEADER_CRC)) {
+            Log.w(LOG_TAG, "Forecast snapshot failed its checksum, ignoring it");
+            return null;
+        }
+
+        int locationLength = buffer.getShort(HEADER_SIZE) & 0xFFFF;
+        int firstRecord = HEADER_SIZE + 2 + locationLength;
+        if (firstRecord + dayCount * RECORD_SIZE > size) return null;
+        String locationSetting = decode(buffer, HEADER_SIZE + 2, locationLength);
+        return new ForecastSnapshot(buffer, locationSetting, dayCount, firstRecord);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public long getWrittenAt() {
+        return mBuffer.getLong(HEADER_WRITTEN_AT);
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * Finds the first day at or after the given day key, if the snapshot is for the given
+     * location.  Same row a "location with start date" query would return first.
+     *
+     * @return the day's index, or -1 if the snapshot can't answer
+     */
+    public int findDay(String locationSetting, int dayKey) {
+        if (!mLocationSetting.equals(locationSetting)) return -1;
+        for (int i = 0; i < mDayCount; i++) {
+            if (getDayKey(i) >= dayKey) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Like {@link #findDay} but only for exactly the given day.
+     */
+    public int findExactDay(String locationSetting, int dayKey) {
+        int index = findDay(locationSetting, dayKey);
+        return index >= 0 && getDayKey(index) == dayKey ? index : -1;
+    }
+
+    public int getDayKey(int index) {
+        return mBuffer.getInt(record(index) + DAY_KEY);
+    }
+
+    public int getWeatherId(int index) {
+        return mBuffer.getInt(record(index) + WEATHER_ID);
+    }
+
+    public double getMaxTemp(int index) {
+        return mBuffer.getDouble(record(index) + MAX_TEMP);
+    }
+
+    public double getMinTemp(int index) {
+        return mBuffer.getDouble(record(index) + MIN_TEMP);
+    }
+
+    public String getShortDesc(int index) {
+        int record = record(index);
+        String shortDesc = mShortDescs[index];
+        if (null == shortDesc) {
+            shortDesc = decode(mBuffer, mBuffer.getInt(record + DESC_OFFSET),
+                    mBuffer.getInt(record + DESC_LENGTH));
+            mShortDescs[index] = shortDesc;
+        }
+        return shortDesc;
+    }
+
+    private int record(int index) {
+        if (index < 0 || index >= mDayCount) {
+            throw new IndexOutOfBoundsException("Day " + index + " of " + mDayCount);
+        }
+        return mFirstRecord + index * RECORD_SIZE;
+    }
+
+    // A bulk get from a duplicate, which leaves the shared buffer's position alone.
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Corrupt data at " + offset);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        try {
+            return new String(bytes(buffer, offset, length), UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given forecast rows, which must be in date order and carry the
+     * weather id, max, min, short description and day key columns.  Only the first
+     * {@link #MAX_DAYS} are kept.
+     */
+    public static void write(Context context, String locationSetting, ContentValues[] days) {
+        write(getFile(context), locationSetting, days, System.currentTimeMillis());
+    }
+
+    static void write(File file, String locationSetting, ContentValues[] days, long writtenAt) {
+        ByteBuffer buffer = encode(locationSetting, days, writtenAt);
+        File temp = new File(file.getPath() + ".tmp");
+        synchronized (sWriteLock) {
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                out.write(buffer.array(), 0, buffer.limit());
+                out.flush();
+                // The data has to be on disk before the rename is, or a crash could leave a
+                // renamed but empty file.  The CRC catches that too, but there's no need to.
+                out.getFD().sync();
+                out.close();
+                out = null;
+                if (!temp.renameTo(file)) {
+                    Log.w(LOG_TAG, "Couldn't replace forecast snapshot");
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Couldn't write forecast snapshot", e);
+                closeQuietly(out);
+                temp.delete();
+            }
+        }
+    }
+
+    static ByteBuffer encode(String locationSetting, ContentValues[] days, long writtenAt) {
+        int dayCount = Math.min(days.length, MAX_DAYS);
+        byte[] location = encodeString(locationSetting);
+        byte[][] descriptions = new byte[dayCount][];
+        int size = HEADER_SIZE + 2 + location.length + dayCount * RECORD_SIZE;
+        for (int i = 0; i < dayCount; i++) {
+            descriptions[i] = encodeString(
+                    days[i].getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+            size += descriptions[i].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(writtenAt);
+        buffer.putInt(dayCount);
+        buffer.putInt(size - HEADER_SIZE);
+        buffer.putInt(0); // CRC, filled in below
+        buffer.putShort((short) location.length);
+        buffer.put(location);
+
+        int descOffset = buffer.position() + dayCount * RECORD_SIZE;
+        for (int i = 0; i < dayCount; i++) {
+            ContentValues day = days[i];
+            buffer.putInt(day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DAY_KEY));
+            buffer.putInt(day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+            buffer.putDouble(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+            buffer.putDouble(day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+            buffer.putInt(descOffset);
+            buffer.putInt(descriptions[i].length);
+            descOffset += descriptions[i].length;
+        }
+        for (int i = 0; i < dayCount; i++) {
+            buffer.put(descriptions[i]);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, size - HEADER_SIZE);
+        buffer.putInt(HEADER_CRC, (int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void delete(Context context) {
+        synchronized (sWriteLock) {
+            getFile(context).delete();
+        }
+    }
+
+    private static byte[] encodeString(String value) {
+        try {
+            return null == value ? new byte[0] : value.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing useful to do
+        }
+    }
+}
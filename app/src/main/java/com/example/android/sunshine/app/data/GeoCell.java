@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+/**
+ * A fixed latitude/longitude grid for {@link WeatherContract.LocationEntry#COLUMN_GEO_CELL}.
+ * Cells are numbered row by row from the south pole and the antimeridian, so the cells of one
+ * row that a search circle touches form a contiguous id range and an ordinary index on the
+ * column answers "what is near here" with a few range scans.  No R-tree module needed, which
+ * SQLite on older devices doesn't ship with.
+ * <p/>
+ * Plain arithmetic only, so it can be tested on the JVM.
+ */
+public final class GeoCell {
+
+    // About 11km north to south, and narrower east to west away from the equator.
+    static final double CELL_DEGREES = 0.1;
+    static final int ROWS = 1800;
+    static final int COLUMNS = 3600;
+
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    private GeoCell() {
+    }
+
+    public static int cellFor(double lat, double lon) {
+        return row(lat) * COLUMNS + column(lon);
+    }
+
+    static int row(double lat) {
+        int row = (int) Math.floor((lat + 90) / CELL_DEGREES);
+        return Math.max(0, Math.min(row, ROWS - 1));
+    }
+
+    static int column(double lon) {
+        double normalized = ((lon + 180) % 360 + 360) % 360;
+        return Math.min((int) Math.floor(normalized / CELL_DEGREES), COLUMNS - 1);
+    }
+
+    /**
+     * Inclusive ranges of cell ids that together cover every point within radiusKm of the
+     * given point, as {start, end, start, end...}.  Cells are only ever over-included; the
+     * caller still has to check {@link #distanceKm}.
+     */
+    public static int[] coveringRanges(double lat, double lon, double radiusKm) {
+        double angularRadius = radiusKm / EARTH_RADIUS_KM;
+        double latSpan = Math.toDegrees(angularRadius);
+        int firstRow = row(lat - latSpan);
+        int lastRow = row(lat + latSpan);
+
+        // Widest east-west extent of the circle, from its centre latitude.  Near enough to a
+        // pole the circle takes in every longitude.
+        double sinRadius = Math.sin(angularRadius);
+        double cosLat = Math.cos(Math.toRadians(lat));
+        boolean wholeRows = lat + latSpan >= 90 || lat - latSpan <= -90 || sinRadius >= cosLat;
+        double lonSpan = wholeRows ? 180 : Math.toDegrees(Math.asin(sinRadius / cosLat));
+        wholeRows |= lonSpan >= 180;
+
+        int firstColumn = column(lon - lonSpan);
+        int lastColumn = column(lon + lonSpan);
+        boolean wraps = !wholeRows && firstColumn > lastColumn;
+
+        int rows = lastRow - firstRow + 1;
+        int[] ranges = new int[rows * (wraps ? 4 : 2)];
+        int i = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            int base = row * COLUMNS;
+            if (wholeRows) {
+                ranges[i++] = base;
+                ranges[i++] = base + COLUMNS - 1;
+            } else if (wraps) {
+                // Across the antimeridian: the east end of the row, then the west end.
+                ranges[i++] = base + firstColumn;
+                ranges[i++] = base + COLUMNS - 1;
+                ranges[i++] = base;
+                ranges[i++] = base + lastColumn;
+            } else {
+                ranges[i++] = base + firstColumn;
+                ranges[i++] = base + lastColumn;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Great circle distance, haversine formula.
+     */
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram.  Recording is a handful of atomic adds, so it can run on
+ * every frame, every bind and every provider call, from any thread.
+ * <p/>
+ * Latencies go into power-of-two microsecond buckets: bucket 0 holds everything under 1us,
+ * bucket i holds [2^(i-1), 2^i) us, and the last bucket holds everything slower.  Percentiles
+ * come out as the upper bound of the bucket they fall in.  Plain Java, so it is tested on the
+ * JVM.
+ */
+public final class LatencyHistogram {
+
+    // Anything from 2^24 us, about 17 seconds, up lands in the last bucket.
+    public static final int BUCKET_COUNT = 26;
+
+    // Count, total nanos, min nanos, max nanos, then the buckets.
+    private static final int COUNT = 0;
+    private static final int TOTAL_NANOS = 1;
+    private static final int MIN_NANOS = 2;
+    private static final int MAX_NANOS = 3;
+    private static final int FIRST_BUCKET = 4;
+
+    private final String mName;
+    private final AtomicLongArray mData = new AtomicLongArray(FIRST_BUCKET + BUCKET_COUNT);
+
+    public LatencyHistogram(String name) {
+        mName = name;
+        mData.set(MIN_NANOS, Long.MAX_VALUE);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    static int bucketFor(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= 0) return 0;
+        // 64 - numberOfLeadingZeros is the bit length, so 1us goes to bucket 1, 2-3us to 2...
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Upper bound, in microseconds, of the latencies held by the given bucket.
+     */
+    static long bucketUpperBoundMicros(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public void record(long elapsedNanos) {
+        if (elapsedNanos < 0) elapsedNanos = 0;
+        mData.incrementAndGet(COUNT);
+        mData.addAndGet(TOTAL_NANOS, elapsedNanos);
+        mData.incrementAndGet(FIRST_BUCKET + bucketFor(elapsedNanos));
+        long min;
+        do {
+            min = mData.get(MIN_NANOS);
+        } while (elapsedNanos < min && !mData.compareAndSet(MIN_NANOS, min, elapsedNanos));
+        long max;
+        do {
+            max = mData.get(MAX_NANOS);
+        } while (elapsedNanos > max && !mData.compareAndSet(MAX_NANOS, max, elapsedNanos));
+    }
+
+    public long getCount() {
+        return mData.get(COUNT);
+    }
+
+    public long getTotalNanos() {
+        return mData.get(TOTAL_NANOS);
+    }
+
+    public long getMinNanos() {
+        long min = mData.get(MIN_NANOS);
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    public long getMaxNanos() {
+        return mData.get(MAX_NANOS);
+    }
+
+    public long getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotalNanos() / count / 1000;
+    }
+
+    public long getBucketCount(int bucket) {
+        return mData.get(FIRST_BUCKET + bucket);
+    }
+
+    /**
+     * @return how many latencies were at least the given bound, which must be a power of two
+     * so that it falls on a bucket boundary and the answer is exact
+     */
+    public long countAtLeast(long boundMicros) {
+        if (boundMicros <= 0 || Long.bitCount(boundMicros) != 1) {
+            throw new IllegalArgumentException(boundMicros + " is not a bucket bound");
+        }
+        long atLeast = 0;
+        for (int i = bucketFor(boundMicros * 1000); i < BUCKET_COUNT; i++) {
+            atLeast += getBucketCount(i);
+        }
+        return atLeast;
+    }
+
+    /**
+     * Returns the upper bound, in microseconds, of the bucket holding the given percentile,
+     * or the largest latency seen if that is the last bucket; 0 if nothing has been recorded.
+     * The buckets are read one at a time, so under concurrent writes this is an
+     * approximation, which is all a histogram gives anyway.
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] buckets = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = getBucketCount(i);
+            total += buckets[i];
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return bucketUpperBoundMicros(i);
+        }
+        return getMaxNanos() / 1000;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mData.length(); i++) {
+            mData.set(i, 0);
+        }
+        mData.set(MIN_NANOS, Long.MAX_VALUE);
+    }
+
+    /**
+     * Appends a summary line and then one line per non-empty bucket, all in microseconds,
+     * as comma separated values.
+     */
+    public void appendTo(StringBuilder sb) {
+        sb.append(mName).append(",count=").append(getCount())
+                .append(",min=").append(getMinNanos() / 1000)
+                .append(",mean=").append(getMeanMicros())
+                .append(",p50=").append(getPercentileMicros(50))
+                .append(",p90=").append(getPercentileMicros(90))
+                .append(",p99=").append(getPercentileMicros(99))
+                .append(",max=").append(getMaxNanos() / 1000).append('\n');
+        long lower = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = getBucketCount(i);
+            long upper = bucketUpperBoundMicros(i);
+            if (count > 0) {
+                sb.append(mName).append(',').append(lower).append(',');
+                if (upper != Long.MAX_VALUE) sb.append(upper);
+                sb.append(',').append(count).append('\n');
+            }
+            lower = upper;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps location settings onto canonical cities.  "London", "london,uk" and a picked address in
+ * London each keep their own location row, but all of them point at one canonical row through
+ * {@link LocationEntry#COLUMN_CANONICAL_ID}, and only that row has forecast rows.
+ * <p/>
+ * Two rows are the same city when openweathermap gave them the same city id, or, for rows
+ * stored before we kept the id, the same city name at coordinates within
+ * {@link #SAME_CITY_KM} of each other.  Everything here runs inside a write transaction.
+ */
+final class LocationAliases {
+
+    // openweathermap reports the same coordinates for every query that resolves to a city, so
+    // this only has to absorb rounding.
+    static final double SAME_CITY_KM = 1.0;
+
+    private static final String sCanonicalSelection =
+            LocationEntry.COLUMN_CANONICAL_ID + " = " + LocationEntry._ID;
+
+    private LocationAliases() {
+    }
+
+    /**
+     * Points the row for the setting in values at the canonical row of its city, creating
+     * either of them as needed.  values holds the setting, the city name and coordinates and,
+     * when the server sent one, the city id.
+     *
+     * @return the id of the canonical row, which is where the forecast belongs
+     */
+    static long resolve(SQLiteDatabase db, ContentValues values) {
+        String setting = values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        Long cityId = values.getAsLong(LocationEntry.COLUMN_CITY_ID);
+        long canonicalId = findCanonical(db, null == cityId ? 0 : cityId,
+                values.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+
+        long rowId = -1;
+        long previousCanonicalId = -1;
+        Cursor row = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CANONICAL_ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{setting},
+                null, null, null);
+        try {
+            if (row.moveToFirst()) {
+                rowId = row.getLong(0);
+                previousCanonicalId = row.getLong(1);
+            }
+        } finally {
+            row.close();
+        }
+
+        long targetId = canonicalId > 0 ? canonicalId : rowId;
+        if (rowId < 0) {
+            // Without a canonical_id the insert trigger makes the new row its own canonical.
+            if (canonicalId > 0) values.put(LocationEntry.COLUMN_CANONICAL_ID, canonicalId);
+            rowId = db.insertOrThrow(LocationEntry.TABLE_NAME, null, values);
+            if (canonicalId < 0) return rowId;
+        } else {
+            values.put(LocationEntry.COLUMN_CANONICAL_ID, targetId);
+            db.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(rowId)});
+            if (previousCanonicalId == rowId && targetId != rowId) {
+                // This row was a canonical city of its own, and it turns out to be a duplicate.
+                merge(db, targetId, rowId);
+            }
+        }
+        if (null != cityId && targetId != rowId) {
+            // Matched by place; next time the id alone will do.
+            db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                    LocationEntry.COLUMN_CITY_ID + " = ? WHERE " + LocationEntry._ID + " = ? AND " +
+                    LocationEntry.COLUMN_CITY_ID + " IS NULL", new Object[]{cityId, targetId});
+        }
+        return targetId;
+    }
+
+    /**
+     * @return the canonical row of the same city, or -1 if we haven't seen it yet
+     */
+    static long findCanonical(SQLiteDatabase db, long cityId, String cityName,
+                              double lat, double lon) {
+        if (cityId > 0) {
+            Cursor byId = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                    LocationEntry.COLUMN_CITY_ID + " = ? AND " + sCanonicalSelection,
+                    new String[]{Long.toString(cityId)}, null, null, null);
+            try {
+                if (byId.moveToFirst()) return byId.getLong(0);
+            } finally {
+                byId.close();
+            }
+        }
+
+        // Rows without an id, or from before we stored it: same name, same spot.
+        int[] ranges = GeoCell.coveringRanges(lat, lon, SAME_CITY_KM);
+        StringBuilder selection = new StringBuilder(LocationEntry.COLUMN_CITY_NAME)
+                .append(" = ? AND ").append(sCanonicalSelection).append(" AND (");
+        String[] selectionArgs = new String[ranges.length + 1];
+        selectionArgs[0] = cityName;
+        for (int i = 0; i < ranges.length; i += 2) {
+            selection.append(i == 0 ? "" : " OR ")
+                    .append(LocationEntry.COLUMN_GEO_CELL).append(" BETWEEN ? AND ?");
+            selectionArgs[i + 1] = Integer.toString(ranges[i]);
+            selectionArgs[i + 2] = Integer.toString(ranges[i + 1]);
+        }
+        selection.append(")");
+        Cursor byPlace = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_COORD_LAT,
+                        LocationEntry.COLUMN_COORD_LONG, LocationEntry.COLUMN_CITY_ID},
+                selection.toString(), selectionArgs, null, null, LocationEntry._ID + " ASC");
+        try {
+            while (byPlace.moveToNext()) {
+                // Two different ids are two different cities, however close.
+                boolean otherCity = cityId > 0 && !byPlace.isNull(3) && byPlace.getLong(3) != cityId;
+                if (!otherCity && GeoCell.distanceKm(lat, lon,
+                        byPlace.getDouble(1), byPlace.getDouble(2)) <= SAME_CITY_KM) {
+                    return byPlace.getLong(0);
+                }
+            }
+        } finally {
+            byPlace.close();
+        }
+        return -1;
+    }
+
+    /**
+     * Folds the duplicate canonical row into targetId: its aliases follow, and its forecast days
+     * fill in whatever days the target doesn't have.
+     */
+    static void merge(SQLiteDatabase db, long targetId, long duplicateId) {
+        db.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                LocationEntry.COLUMN_CANONICAL_ID + " = ? WHERE " +
+                LocationEntry.COLUMN_CANONICAL_ID + " = ?", new Object[]{targetId, duplicateId});
+        db.execSQL("UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+                WeatherEntry.COLUMN_LOC_KEY + " = ? WHERE " +
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DAY_KEY +
+                " NOT IN (SELECT " + WeatherEntry.COLUMN_DAY_KEY + " FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?)",
+                new Object[]{targetId, duplicateId, targetId});
+        db.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(duplicateId)});
+    }
+
+    /**
+     * Merges the rows of the same city stored under different settings, for databases written
+     * before settings were canonicalized.  Within each city the row with the latest forecast
+     * becomes canonical.
+     *
+     * @return the number of rows that became aliases
+     */
+    static int mergeDuplicates(SQLiteDatabase db) {
+        // Freshest forecast first, so the first row of each city is the one worth keeping.
+        Cursor cursor = db.rawQuery("SELECT l." + LocationEntry._ID + ", l." +
+                LocationEntry.COLUMN_CITY_NAME + ", l." + LocationEntry.COLUMN_COORD_LAT +
+                ", l." + LocationEntry.COLUMN_COORD_LONG + ", l." + LocationEntry.COLUMN_CITY_ID +
+                ", (SELECT MAX(w." + WeatherEntry.COLUMN_DAY_KEY + ") FROM " +
+                WeatherEntry.TABLE_NAME + " w WHERE w." + WeatherEntry.COLUMN_LOC_KEY +
+                " = l." + LocationEntry._ID + ") AS latest" +
+                " FROM " + LocationEntry.TABLE_NAME + " l WHERE l." + sCanonicalSelection +
+                " ORDER BY latest IS NULL, latest DESC, l." + LocationEntry._ID + " ASC", null);
+
+        Map<String, List<double[]>> keptByName = new HashMap<>();
+        int merged = 0;
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                String name = cursor.getString(1);
+                double lat = cursor.getDouble(2);
+                double lon = cursor.getDouble(3);
+                long cityId = cursor.isNull(4) ? 0 : cursor.getLong(4);
+
+                List<double[]> kept = keptByName.get(name);
+                if (null == kept) {
+                    kept = new ArrayList<>();
+                    keptByName.put(name, kept);
+                }
+                long targetId = -1;
+                for (double[] other : kept) {
+                    long otherCityId = (long) other[3];
+                    if (cityId > 0 && otherCityId > 0 && cityId != otherCityId) continue;
+                    if (GeoCell.distanceKm(lat, lon, other[1], other[2]) <= SAME_CITY_KM) {
+                        targetId = (long) other[0];
+                        break;
+                    }
+                }
+                if (targetId < 0) {
+                    kept.add(new double[]{id, lat, lon, cityId});
+                } else {
+                    merge(db, targetId, id);
+                    merged++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return merged;
+    }
+}
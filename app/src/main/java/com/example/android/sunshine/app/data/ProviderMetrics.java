@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency histograms and counters for {@link WeatherProvider}, one {@link LatencyHistogram}
+ * per (Uri matcher code, operation) pair.  Recording is lock-free and cheap enough to leave on
+ * in every build.
+ */
+public class ProviderMetrics {
+
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_BULK_INSERT = 2;
+    public static final int OP_UPDATE = 3;
+    public static final int OP_DELETE = 4;
+    static final int OP_COUNT = 5;
+
+    private static final String[] OP_NAMES = {"query", "insert", "bulkInsert", "update", "delete"};
+
+    private final int[] mCodes;
+    private final String[] mCodeNames;
+    private final LatencyHistogram[] mSlots;
+
+    /**
+     * @param codes     the Uri matcher codes to track; anything else is ignored
+     * @param codeNames human readable name of each code, used by the dump
+     */
+    public ProviderMetrics(int[] codes, String[] codeNames) {
+        mCodes = codes.clone();
+        mCodeNames = codeNames.clone();
+        mSlots = new LatencyHistogram[mCodes.length * OP_COUNT];
+        for (int i = 0; i < mCodes.length; i++) {
+            for (int op = 0; op < OP_COUNT; op++) {
+                mSlots[i * OP_COUNT + op] =
+                        new LatencyHistogram(mCodeNames[i] + " " + OP_NAMES[op]);
+            }
+        }
+    }
+
+    private LatencyHistogram slotFor(int code, int op) {
+        for (int i = 0; i < mCodes.length; i++) {
+            if (mCodes[i] == code) {
+                return mSlots[i * OP_COUNT + op];
+            }
+        }
+        return null;
+    }
+
+    public void record(int code, int op, long elapsedNanos) {
+        LatencyHistogram slot = slotFor(code, op);
+        if (slot != null) slot.record(elapsedNanos);
+    }
+
+    public long getCount(int code, int op) {
+        LatencyHistogram slot = slotFor(code, op);
+        return slot == null ? 0 : slot.getCount();
+    }
+
+    public long getTotalNanos(int code, int op) {
+        LatencyHistogram slot = slotFor(code, op);
+        return slot == null ? 0 : slot.getTotalNanos();
+    }
+
+    public long getMaxNanos(int code, int op) {
+        LatencyHistogram slot = slotFor(code, op);
+        return slot == null ? 0 : slot.getMaxNanos();
+    }
+
+    public long getBucketCount(int code, int op, int bucket) {
+        LatencyHistogram slot = slotFor(code, op);
+        return slot == null ? 0 : slot.getBucketCount(bucket);
+    }
+
+    /**
+     * @see LatencyHistogram#getPercentileMicros(double)
+     */
+    public long getPercentileMicros(int code, int op, double percentile) {
+        LatencyHistogram slot = slotFor(code, op);
+        return slot == null ? 0 : slot.getPercentileMicros(percentile);
+    }
+
+    public int getCodeCount() {
+        return mCodes.length;
+    }
+
+    public int getCode(int index) {
+        return mCodes[index];
+    }
+
+    public String getCodeName(int index) {
+        return mCodeNames[index];
+    }
+
+    public static String getOperationName(int op) {
+        return OP_NAMES[op];
+    }
+
+    public void reset() {
+        for (LatencyHistogram slot : mSlots) {
+            slot.reset();
+        }
+    }
+
+    /**
+     * Writes one line per (code, operation) that has seen any traffic.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("WeatherProvider latency (us): code op count avg p50 p90 p99 max");
+        for (int i = 0; i < mCodes.length; i++) {
+            for (int op = 0; op < OP_COUNT; op++) {
+                long count = getCount(mCodes[i], op);
+                if (count == 0) continue;
+                writer.println("  " + mCodeNames[i] + " " + OP_NAMES[op] + " " + count +
+                        " " + getTotalNanos(mCodes[i], op) / count / 1000 +
+                        " " + getPercentileMicros(mCodes[i], op, 50) +
+                        " " + getPercentileMicros(mCodes[i], op, 90) +
+                        " " + getPercentileMicros(mCodes[i], op, 99) +
+                        " " + getMaxNanos(mCodes[i], op) / 1000);
+            }
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded log of the {@link WeatherProvider} calls that took longer than a threshold, each
+ * with the statement it ran and the plan SQLite picked for it.
+ * <p/>
+ * The provider describes the statement it is about to run with {@link #noteQuery} or
+ * {@link #noteWrite}, which only stores references in a per-thread holder.  Nothing is built
+ * or allocated unless the call turns out to be slow, in which case {@link #maybeRecord} renders
+ * the statement and runs EXPLAIN QUERY PLAN for it.
+ */
+public class SlowQueryLog {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+    public static final int DEFAULT_CAPACITY = 50;
+
+    /**
+     * One slow call.  The selection arguments are never kept, only their shape, so the log
+     * doesn't carry location strings around.
+     */
+    public static final class Entry {
+        public final long timestamp;
+        public final String uri;
+        public final String operation;
+        public final String sql;
+        public final String argsShape;
+        public final int rowCount;
+        public final long elapsedMicros;
+        public final String plan;
+
+        Entry(long timestamp, String uri, String operation, String sql, String argsShape,
+              int rowCount, long elapsedMicros, String plan) {
+            this.timestamp = timestamp;
+            this.uri = uri;
+            this.operation = operation;
+            this.sql = sql;
+            this.argsShape = argsShape;
+            this.rowCount = rowCount;
+            this.elapsedMicros = elapsedMicros;
+            this.plan = plan;
+        }
+    }
+
+    // What the current thread is about to run.  Reused, so noting a statement is free.
+    private static final class Statement {
+        boolean isWrite;
+        String tables;
+        String[] columns;
+        String selection;
+        String[] selectionArgs;
+        String sortOrder;
+        String limit;
+
+        // Drop the references so the arguments aren't kept alive until the next call.
+        void clear() {
+            tables = null;
+            columns = null;
+            selection = null;
+            selectionArgs = null;
+            sortOrder = null;
+            limit = null;
+        }
+    }
+
+    private final ThreadLocal<Statement> mStatement = new ThreadLocal<Statement>() {
+        @Override
+        protected Statement initialValue() {
+            return new Statement();
+        }
+    };
+
+    private final ArrayDeque<Entry> mEntries;
+    private final int mCapacity;
+    private volatile long mThresholdNanos;
+
+    public SlowQueryLog(long thresholdMillis, int capacity) {
+        mCapacity = capacity;
+        mEntries = new ArrayDeque<Entry>(capacity);
+        setThresholdMillis(thresholdMillis);
+    }
+
+    public void setThresholdMillis(long thresholdMillis) {
+        mThresholdNanos = thresholdMillis * 1000000L;
+    }
+
+    public long getThresholdMillis() {
+        return mThresholdNanos / 1000000L;
+    }
+
+    public void noteQuery(String tables, String[] columns, String selection,
+                          String[] selectionArgs, String sortOrder, String limit) {
+        Statement statement = mStatement.get();
+        statement.isWrite = false;
+        statement.tables = tables;
+        statement.columns = columns;
+        statement.selection = selection;
+        statement.selectionArgs = selectionArgs;
+        statement.sortOrder = sortOrder;
+        statement.limit = limit;
+    }
+
+    public void noteWrite(String table, String selection, String[] selectionArgs) {
+        Statement statement = mStatement.get();
+        statement.isWrite = true;
+        statement.tables = table;
+        statement.columns = null;
+        statement.selection = selection;
+        statement.selectionArgs = selectionArgs;
+        statement.sortOrder = null;
+        statement.limit = null;
+    }
+
+    /**
+     * Logs the call if it went over the threshold.
+     *
+     * @param db           database the statement ran against, used for EXPLAIN QUERY PLAN
+     * @param uri          Uri the provider was called with
+     * @param operation    query, insert, bulkInsert, update or delete
+     * @param rowCount     rows returned or affected
+     * @param elapsedNanos time the call took
+     * @return true if the call was logged
+     */
+    public boolean maybeRecord(SQLiteDatabase db, Uri uri, String operation, int rowCount,
+                               long elapsedNanos) {
+        Statement statement = mStatement.get();
+        if (elapsedNanos < mThresholdNanos) {
+            statement.clear();
+            return false;
+        }
+
+        String sql = null;
+        String plan = null;
+        if (null != statement.tables) {
+            sql = buildSql(statement);
+            plan = explain(db, sql, statement.selectionArgs);
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), uri.toString(), operation, sql,
+                describeArgs(statement.selectionArgs), rowCount, elapsedNanos / 1000, plan);
+        statement.clear();
+
+        Log.w(LOG_TAG, operation + " " + entry.uri + " took " + entry.elapsedMicros / 1000 +
+                "ms, " + rowCount + " rows: " + sql + "\n" + plan);
+        synchronized (mEntries) {
+            if (mEntries.size() == mCapacity) {
+                mEntries.removeFirst();
+            }
+            mEntries.addLast(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Oldest first.
+     */
+    public List<Entry> getEntries() {
+        synchronized (mEntries) {
+            return new ArrayList<Entry>(mEntries);
+        }
+    }
+
+    /**
+     * @return how many entries were dropped
+     */
+    public int clear() {
+        synchronized (mEntries) {
+            int cleared = mEntries.size();
+            mEntries.clear();
+            return cleared;
+        }
+    }
+
+    /*
+        Writes are explained as the SELECT over the same WHERE clause, which is the part of an
+        UPDATE or DELETE the planner actually has a choice about.  A plain insert has no WHERE
+        and so no plan worth showing.
+     */
+    private static String buildSql(Statement statement) {
+        if (statement.isWrite) {
+            String sql = "SELECT rowid FROM " + statement.tables;
+            return null == statement.selection ? sql : sql + " WHERE " + statement.selection;
+        }
+        return SQLiteQueryBuilder.buildQueryString(false, statement.tables, statement.columns,
+                statement.selection, null, null, statement.sortOrder, statement.limit);
+    }
+
+    private static String explain(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            // The detail text is the last column on every SQLite version we ship against.
+            int detail = cursor.getColumnCount() - 1;
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) plan.append('\n');
+                plan.append(cursor.getString(detail));
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            return "EXPLAIN failed: " + e.getMessage();
+        } finally {
+            if (null != cursor) cursor.close();
+        }
+    }
+
+    /*
+        "(num, str[5])" style: how many arguments and what they looked like, not what they were.
+     */
+    static String describeArgs(String[] selectionArgs) {
+        if (null == selectionArgs) return "()";
+        StringBuilder shape = new StringBuilder("(");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            if (i > 0) shape.append(", ");
+            String arg = selectionArgs[i];
+            if (null == arg) {
+                shape.append("null");
+            } else if (isNumber(arg)) {
+                shape.append("num");
+            } else {
+                shape.append("str[").append(arg.length()).append(']');
+            }
+        }
+        return shape.append(')').toString();
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.parseDouble(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        List<Entry> entries = getEntries();
+        writer.println("Slow calls over " + getThresholdMillis() + "ms: " + entries.size());
+        for (Entry entry : entries) {
+            writer.println("  " + entry.operation + " " + entry.uri + " " +
+                    entry.elapsedMicros / 1000 + "ms " + entry.rowCount + " rows " +
+                    entry.argsShape);
+            writer.println("    " + entry.sql);
+            if (null != entry.plan) {
+                writer.println("    " + entry.plan.replace("\n", "\n    "));
+            }
+        }
+        writer.flush();
+    }
+}
@@ -19,7 +19,9 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +45,24 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_PAGE = "page";
+    public static final String PATH_TODAY = "today";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+    public static final String PATH_NEAREST = "nearest";
+    public static final String PATH_CANONICAL = "canonical";
+    public static final String PATH_SEARCH = "search";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of their Julian day in the default time zone.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DayKey.normalize(startDate, TimeZone.getDefault());
+    }
+
+    // The Julian day a date falls on in the default time zone, as stored in the day key column.
+    public static int getDayKey(long date) {
+        return DayKey.fromMillis(date, TimeZone.getDefault());
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,9 +92,102 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Cell of the coordinates on the GeoCell grid, kept up to date by the provider.
+        public static final String COLUMN_GEO_CELL = "geo_cell";
+
+        // Index over the grid cell, used by the nearest location lookup.
+        public static final String INDEX_GEO_CELL = "location_geo_cell_idx";
+
+        // openweathermap's id for the city the setting resolved to, when it sent one.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // The row whose forecast this setting shows.  Settings naming the same city all point
+        // at one of them, which points at itself; only that one has forecast rows.
+        public static final String COLUMN_CANONICAL_ID = "canonical_id";
+
+        // Index over the canonical id, used when joining from the weather table.
+        public static final String INDEX_CANONICAL = "location_canonical_idx";
+
+        // Full text index over the setting and city name, kept in step by triggers.  Its docid
+        // is the location's _id.
+        public static final String TABLE_SEARCH = "location_search";
+
+        // Query parameters of the search Uri: what has been typed so far, and how many
+        // suggestions to return.
+        public static final String PARAM_QUERY = "q";
+        public static final String PARAM_LIMIT = "limit";
+
+        public static final int DEFAULT_SEARCH_LIMIT = 10;
+        public static final int MAX_SEARCH_LIMIT = 100;
+
+        // Query parameters of the nearest location Uri
+        public static final String PARAM_LAT = "lat";
+        public static final String PARAM_LON = "lon";
+        public static final String PARAM_RADIUS_KM = "radius_km";
+
+        // Larger searches would scan most of a continent's worth of cells.
+        public static final double MAX_NEAREST_RADIUS_KM = 100;
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /*
+            location/nearest?lat=<lat>&lon=<lon>&radius_km=<km>.  Returns the stored location
+            closest to the point that has forecast rows, if one lies within the radius.
+         */
+        public static Uri buildNearestLocationUri(double lat, double lon, double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LAT, Double.toString(lat))
+                    .appendQueryParameter(PARAM_LON, Double.toString(lon))
+                    .appendQueryParameter(PARAM_RADIUS_KM, Double.toString(radiusKm))
+                    .build();
+        }
+
+        /*
+            location/canonical.  Inserting a setting with the city the server resolved it to
+            points it at that city's canonical row, and the returned Uri is the canonical row's.
+         */
+        public static Uri buildCanonicalLocationUri() {
+            return CONTENT_URI.buildUpon().appendPath(PATH_CANONICAL).build();
+        }
+
+        /*
+            location/search?q=<typed text>&limit=<n>.  Locations whose setting or city name has
+            a word starting with each word typed, e.g. "new yo" finds "New York".
+         */
+        public static Uri buildSearchUri(String query, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static String getSearchQueryFromUri(Uri uri) {
+            String query = uri.getQueryParameter(PARAM_QUERY);
+            return null == query ? "" : query;
+        }
+
+        public static int getSearchLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            int limit = DEFAULT_SEARCH_LIMIT;
+            if (null != limitString && limitString.length() > 0)
+                limit = Integer.parseInt(limitString);
+            return Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LAT));
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return Double.parseDouble(uri.getQueryParameter(PARAM_LON));
+        }
+
+        public static double getRadiusKmFromUri(Uri uri) {
+            double radiusKm = Double.parseDouble(uri.getQueryParameter(PARAM_RADIUS_KM));
+            return Math.max(0, Math.min(radiusKm, MAX_NEAREST_RADIUS_KM));
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -99,10 +203,16 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index over (location_id, day_key), used for the per-location date range queries.
+        public static final String INDEX_LOCATION_DAY = "weather_location_day_idx";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
+        // Julian day number of the date, see DayKey.  The provider fills this in from the date,
+        // and it is what every date selection and index uses.
+        public static final String COLUMN_DAY_KEY = "day_key";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -126,6 +236,18 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameters for paging through a location's forecast.  "after" is the last date
+        // of the previous page (exclusive) and "limit" the maximum number of rows to return.
+        public static final String PARAM_AFTER = "after";
+        public static final String PARAM_LIMIT = "limit";
+
+        // Repeated query parameter naming the locations of a weather/today query.
+        public static final String PARAM_LOCATION = "location";
+
+        // Page size used when a paging Uri doesn't specify one, and the largest we'll hand out.
+        public static final int DEFAULT_PAGE_LIMIT = 50;
+        public static final int MAX_PAGE_LIMIT = 500;
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +271,39 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            Builds a Uri for one page of a location's forecast, using the date as a keyset:
+            weather/<location>/page?after=<date>&limit=<n>.  Pass the date of the last row of
+            the previous page as afterDate, or -1 to start at the first row.
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long afterDate,
+                                                   int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_PAGE);
+            if (afterDate >= 0) {
+                builder.appendQueryParameter(PARAM_AFTER, Long.toString(afterDate));
+            }
+            return builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        /*
+            Builds a Uri for the forecast row of a single day across several locations:
+            weather/today?date=<date>&location=<setting>&location=<setting>...
+            With no locations, the day is returned for every location we have stored.
+         */
+        public static Uri buildWeatherTodayForLocations(long date, String... locationSettings) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(PATH_TODAY)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(date)));
+            for (String locationSetting : locationSettings) {
+                builder.appendQueryParameter(PARAM_LOCATION, locationSetting);
+            }
+            return builder.build();
+        }
+
+        public static List<String> getLocationSettingsFromUri(Uri uri) {
+            return uri.getQueryParameters(PARAM_LOCATION);
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +319,170 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_AFTER);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return -1;
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limitString = uri.getQueryParameter(PARAM_LIMIT);
+            int limit = DEFAULT_PAGE_LIMIT;
+            if (null != limitString && limitString.length() > 0)
+                limit = Integer.parseInt(limitString);
+            // Keep every page bounded, whatever the caller asked for.
+            return Math.max(1, Math.min(limit, MAX_PAGE_LIMIT));
+        }
+    }
+
+    /* Inner class that defines the columns of the aggregate statistics for a location */
+    public static final class WeatherStatsEntry {
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_WEATHER + "/" + PATH_STATS;
+
+        // Inclusive date range of the statistics.  Either may be left out.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        // Number of days in the range, and the extremes / averages over them
+        public static final String COLUMN_DAY_COUNT = "day_count";
+        public static final String COLUMN_LOWEST_TEMP = "lowest_temp";
+        public static final String COLUMN_HIGHEST_TEMP = "highest_temp";
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min_temp";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max_temp";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        public static final String COLUMN_AVG_PRESSURE = "avg_pressure";
+        public static final String COLUMN_AVG_WIND_SPEED = "avg_wind";
+
+        // Number of days per OpenWeatherMap condition group (the hundreds digit of the id)
+        public static final String COLUMN_STORM_DAYS = "storm_days";
+        public static final String COLUMN_DRIZZLE_DAYS = "drizzle_days";
+        public static final String COLUMN_RAIN_DAYS = "rain_days";
+        public static final String COLUMN_SNOW_DAYS = "snow_days";
+        public static final String COLUMN_ATMOSPHERE_DAYS = "atmosphere_days";
+        public static final String COLUMN_CLEAR_DAYS = "clear_days";
+        public static final String COLUMN_CLOUDY_DAYS = "cloudy_days";
+        public static final String COLUMN_EXTREME_DAYS = "extreme_days";
+
+        /*
+            weather/<location>/stats?start=<date>&end=<date>.  Pass -1 to leave a bound open.
+         */
+        public static Uri buildStatsUri(String locationSetting, long startDate, long endDate) {
+            Uri.Builder builder = WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendPath(locationSetting).appendPath(PATH_STATS);
+            if (startDate >= 0) {
+                builder.appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)));
+            }
+            if (endDate >= 0) {
+                builder.appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)));
+            }
+            return builder.build();
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_START);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            return getDateParameter(uri, PARAM_END);
+        }
+
+        private static long getDateParameter(Uri uri, String parameter) {
+            String dateString = uri.getQueryParameter(parameter);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return -1;
+        }
+    }
+
+    /* Inner class that defines the columns of the provider latency metrics */
+    public static final class MetricsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        // Uri matcher code and a readable pattern for it, e.g. "weather/*"
+        public static final String COLUMN_URI_CODE = "uri_code";
+        public static final String COLUMN_URI_NAME = "uri_name";
+
+        // query, insert, bulkInsert, update or delete
+        public static final String COLUMN_OPERATION = "operation";
+
+        public static final String COLUMN_COUNT = "count";
+
+        // Latencies in microseconds.  Percentiles are the upper bound of their histogram bucket.
+        public static final String COLUMN_AVG_MICROS = "avg_us";
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P90_MICROS = "p90_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+
+        public static final String[] COLUMNS = {
+                COLUMN_URI_CODE,
+                COLUMN_URI_NAME,
+                COLUMN_OPERATION,
+                COLUMN_COUNT,
+                COLUMN_AVG_MICROS,
+                COLUMN_P50_MICROS,
+                COLUMN_P90_MICROS,
+                COLUMN_P99_MICROS,
+                COLUMN_MAX_MICROS
+        };
+    }
+
+    /* Inner class that defines the columns of the provider's slow call log */
+    public static final class SlowQueryEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SLOW_QUERIES).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_SLOW_QUERIES;
+
+        // Wall clock time the call finished, in milliseconds
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        public static final String COLUMN_URI = "uri";
+
+        // query, insert, bulkInsert, update or delete
+        public static final String COLUMN_OPERATION = "operation";
+
+        // The statement that ran.  Writes are shown as the SELECT over their WHERE clause.
+        public static final String COLUMN_SQL = "sql";
+
+        // Number and kind of the selection arguments, e.g. "(str[5], num)".  Never the values.
+        public static final String COLUMN_ARGS_SHAPE = "args_shape";
+
+        // Rows returned or affected
+        public static final String COLUMN_ROW_COUNT = "row_count";
+
+        public static final String COLUMN_ELAPSED_MICROS = "elapsed_us";
+
+        // EXPLAIN QUERY PLAN output, one step per line
+        public static final String COLUMN_PLAN = "plan";
+
+        // Not a column of the log: update the log Uri with this value to change the threshold.
+        public static final String COLUMN_THRESHOLD_MILLIS = "threshold_ms";
+
+        public static final String[] COLUMNS = {
+                COLUMN_TIMESTAMP,
+                COLUMN_URI,
+                COLUMN_OPERATION,
+                COLUMN_SQL,
+                COLUMN_ARGS_SHAPE,
+                COLUMN_ROW_COUNT,
+                COLUMN_ELAPSED_MICROS,
+                COLUMN_PLAN
+        };
     }
 }
@@ -28,7 +28,7 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 7;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -45,7 +45,11 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                // Filled in by the provider; rows written around it are just never "nearby".
+                LocationEntry.COLUMN_GEO_CELL + " INTEGER, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_CANONICAL_ID + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -59,6 +63,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DAY_KEY + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
 
@@ -76,23 +81,110 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
                 // To assure the application have just one weather entry per day
                 // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
+                " UNIQUE (" + WeatherEntry.COLUMN_DAY_KEY + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // The UNIQUE constraint above leads with the day, which doesn't help when we look up
+        // a range of days for one location.  This index lets the paged and per-location
+        // queries seek straight to the location and walk its days in order.
+        final String SQL_CREATE_WEATHER_LOCATION_DAY_INDEX = "CREATE INDEX " +
+                WeatherEntry.INDEX_LOCATION_DAY + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DAY_KEY + ");";
+
+        // Lets the nearest location lookup scan only the grid cells around a point.
+        final String SQL_CREATE_LOCATION_GEO_CELL_INDEX = "CREATE INDEX " +
+                LocationEntry.INDEX_GEO_CELL + " ON " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry.COLUMN_GEO_CELL + ");";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GEO_CELL_INDEX);
+        createCanonicalSchema(sqLiteDatabase);
+        createSearchSchema(sqLiteDatabase);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DAY_INDEX);
+    }
+
+    private static void createCanonicalSchema(SQLiteDatabase sqLiteDatabase) {
+        // Queries for today's weather everywhere start from the weather rows and look up the
+        // settings pointing at each one's location.
+        sqLiteDatabase.execSQL("CREATE INDEX " + LocationEntry.INDEX_CANONICAL + " ON " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_CANONICAL_ID + ");");
+
+        // A row inserted without a canonical id is a city of its own, whoever inserted it.
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_canonical_default AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " WHEN NEW." + LocationEntry.COLUMN_CANONICAL_ID +
+                " IS NULL BEGIN UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                LocationEntry.COLUMN_CANONICAL_ID + " = NEW." + LocationEntry._ID + " WHERE " +
+                LocationEntry._ID + " = NEW." + LocationEntry._ID + "; END;");
+    }
+
+    private static void createSearchSchema(SQLiteDatabase sqLiteDatabase) {
+        // FTS3 rather than FTS4, which older devices don't have.  Its prefix queries walk the
+        // sorted term index, so "lon*" only touches the terms starting with "lon".
+        sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + LocationEntry.TABLE_SEARCH +
+                " USING fts3(" + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ");");
+
+        // Every change to a location reaches the index, however it was written.
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN INSERT INTO " + LocationEntry.TABLE_SEARCH +
+                " (docid, " + LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                LocationEntry.COLUMN_CITY_NAME + ") VALUES (NEW." + LocationEntry._ID +
+                ", NEW." + LocationEntry.COLUMN_LOCATION_SETTING + ", NEW." +
+                LocationEntry.COLUMN_CITY_NAME + "); END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_search_update AFTER UPDATE OF " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                " ON " + LocationEntry.TABLE_NAME + " BEGIN UPDATE " + LocationEntry.TABLE_SEARCH +
+                " SET " + LocationEntry.COLUMN_LOCATION_SETTING + " = NEW." +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                " = NEW." + LocationEntry.COLUMN_CITY_NAME + " WHERE docid = OLD." +
+                LocationEntry._ID + "; END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " + LocationEntry.TABLE_SEARCH +
+                " WHERE docid = OLD." + LocationEntry._ID + "; END;");
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion >= 5) {
+            // Keep the cache from here on, one step at a time.
+            if (oldVersion < 6) {
+                // Fold the rows of settings that name the same city together.
+                upgradeToCanonicalLocations(sqLiteDatabase);
+            }
+            if (oldVersion < 7) {
+                upgradeToLocationSearch(sqLiteDatabase);
+            }
+            return;
+        }
         // This database is only a cache for online data, so its upgrade policy is
         // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
         // If you want to update the schema without wiping data, commenting out the next 2 lines
         // should be your top priority before modifying this method.
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_SEARCH);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
+
+    static void upgradeToCanonicalLocations(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER");
+        sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                LocationEntry.COLUMN_CANONICAL_ID + " INTEGER");
+        sqLiteDatabase.execSQL("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                LocationEntry.COLUMN_CANONICAL_ID + " = " + LocationEntry._ID);
+        createCanonicalSchema(sqLiteDatabase);
+        LocationAliases.mergeDuplicates(sqLiteDatabase);
+    }
+
+    static void upgradeToLocationSearch(SQLiteDatabase sqLiteDatabase) {
+        createSearchSchema(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + LocationEntry.TABLE_SEARCH + " (docid, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                ") SELECT " + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING +
+                ", " + LocationEntry.COLUMN_CITY_NAME + " FROM " + LocationEntry.TABLE_NAME);
+    }
 }
@@ -20,9 +20,20 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.support.v4.util.LruCache;
+
+import com.example.android.sunshine.app.MainThreadIo;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -33,7 +44,15 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_PAGE = 103;
+    static final int WEATHER_TODAY = 104;
+    static final int WEATHER_STATS = 105;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAREST = 301;
+    static final int LOCATION_CANONICAL = 302;
+    static final int LOCATION_SEARCH = 303;
+    static final int METRICS = 400;
+    static final int SLOW_QUERIES = 401;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -41,14 +60,15 @@ public class WeatherProvider extends ContentProvider {
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
+        //weather INNER JOIN location ON weather.location_id = location.canonical_id
+        //so every setting naming a city sees the rows stored under its canonical location.
         sWeatherByLocationSettingQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+                        "." + WeatherContract.LocationEntry.COLUMN_CANONICAL_ID);
     }
 
     //location.location_setting = ?
@@ -56,17 +76,122 @@ public class WeatherProvider extends ContentProvider {
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    //location.location_setting = ? AND date >= ?
+    // Dates in the Uris are millis, but every selection below compares the integer day key,
+    // which is what the UNIQUE constraint and the (location_id, day_key) index are built on.
+
+    //location.location_setting = ? AND day_key >= ?
     private static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DAY_KEY + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
+    //location.location_setting = ? AND day_key = ?
     private static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+                    WeatherContract.WeatherEntry.COLUMN_DAY_KEY + " = ? ";
+
+    //location.location_setting = ? AND day_key > ?
+    private static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DAY_KEY + " > ? ";
+
+    //day_key = ?
+    private static final String sDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DAY_KEY + " = ? ";
+
+    //location._id has at least one forecast row
+    static final String sHasForecastSelection =
+            "EXISTS (SELECT 1 FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry._ID + ")";
+
+    //location._id is in the search index matches
+    private static final String sSearchSelection =
+            WeatherContract.LocationEntry._ID + " IN (SELECT docid FROM " +
+                    WeatherContract.LocationEntry.TABLE_SEARCH + " WHERE " +
+                    WeatherContract.LocationEntry.TABLE_SEARCH + " MATCH ?)";
+
+    private static final String sSearchOrder =
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME + " ASC, " +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " ASC";
+
+    private static final String sDateAscendingOrder =
+            WeatherContract.WeatherEntry.COLUMN_DAY_KEY + " ASC";
+
+    // Aggregate expressions for the stats Uri, in the order of sStatsColumns.
+    private static final String[] sStatsColumns = {
+            WeatherContract.WeatherStatsEntry.COLUMN_DAY_COUNT,
+            WeatherContract.WeatherStatsEntry.COLUMN_LOWEST_TEMP,
+            WeatherContract.WeatherStatsEntry.COLUMN_HIGHEST_TEMP,
+            WeatherContract.WeatherStatsEntry.COLUMN_AVG_MIN_TEMP,
+            WeatherContract.WeatherStatsEntry.COLUMN_AVG_MAX_TEMP,
+            WeatherContract.WeatherStatsEntry.COLUMN_AVG_HUMIDITY,
+            WeatherContract.WeatherStatsEntry.COLUMN_AVG_PRESSURE,
+            WeatherContract.WeatherStatsEntry.COLUMN_AVG_WIND_SPEED,
+            WeatherContract.WeatherStatsEntry.COLUMN_STORM_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_DRIZZLE_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_RAIN_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_SNOW_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_ATMOSPHERE_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_CLEAR_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_CLOUDY_DAYS,
+            WeatherContract.WeatherStatsEntry.COLUMN_EXTREME_DAYS
+    };
+
+    private static final String[] sStatsProjection = {
+            "COUNT(*) AS " + sStatsColumns[0],
+            "MIN(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS " + sStatsColumns[1],
+            "MAX(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS " + sStatsColumns[2],
+            "AVG(" + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ") AS " + sStatsColumns[3],
+            "AVG(" + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ") AS " + sStatsColumns[4],
+            "AVG(" + WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ") AS " + sStatsColumns[5],
+            "AVG(" + WeatherContract.WeatherEntry.COLUMN_PRESSURE + ") AS " + sStatsColumns[6],
+            "AVG(" + WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ") AS " + sStatsColumns[7],
+            countWeatherIds(200, 299) + " AS " + sStatsColumns[8],
+            countWeatherIds(300, 399) + " AS " + sStatsColumns[9],
+            countWeatherIds(500, 599) + " AS " + sStatsColumns[10],
+            countWeatherIds(600, 699) + " AS " + sStatsColumns[11],
+            countWeatherIds(700, 799) + " AS " + sStatsColumns[12],
+            countWeatherIds(800, 800) + " AS " + sStatsColumns[13],
+            countWeatherIds(801, 899) + " AS " + sStatsColumns[14],
+            countWeatherIds(900, 999) + " AS " + sStatsColumns[15]
+    };
+
+    private static String countWeatherIds(int from, int to) {
+        return "SUM(CASE WHEN " + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+                " BETWEEN " + from + " AND " + to + " THEN 1 ELSE 0 END)";
+    }
+
+    // Stats rows keyed by Uri.  Every write bumps mWriteGeneration and empties the cache, and a
+    // computed row is only stored if no write happened while it was being computed.  Both the
+    // check and the eviction hold the cache's lock, so a write can't land in between.
+    private static final int STATS_CACHE_SIZE = 32;
+    private final LruCache<String, Object[]> mStatsCache = new LruCache<>(STATS_CACHE_SIZE);
+    private final AtomicInteger mWriteGeneration = new AtomicInteger();
+
+    // Latency of every query and write, per matcher code.  The metrics Uri itself isn't tracked.
+    private final ProviderMetrics mMetrics = new ProviderMetrics(
+            new int[]{WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
+                    WEATHER_WITH_LOCATION_PAGE, WEATHER_TODAY, WEATHER_STATS, LOCATION,
+                    LOCATION_NEAREST, LOCATION_CANONICAL, LOCATION_SEARCH},
+            new String[]{"weather", "weather/*", "weather/*/#",
+                    "weather/*/page", "weather/today", "weather/*/stats", "location",
+                    "location/nearest", "location/canonical", "location/search"});
+
+    // Calls over the threshold, with the statement and its plan.  Neither debug Uri is logged.
+    private final SlowQueryLog mSlowQueryLog = new SlowQueryLog(
+            SlowQueryLog.DEFAULT_THRESHOLD_MILLIS, SlowQueryLog.DEFAULT_CAPACITY);
+
+    // A sync's writes land within milliseconds of each other; observers hear about them once.
+    private ChangeDispatcher mChangeDispatcher;
+
+    // Every insert, update and delete runs on this queue's thread, in group commits.
+    private WriteQueue mWriteQueue;
 
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -79,10 +204,13 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selectionArgs = new String[]{locationSetting,
+                    Integer.toString(WeatherContract.getDayKey(startDate))};
             selection = sLocationSettingWithStartDateSelection;
         }
 
+        mSlowQueryLog.noteQuery(sWeatherByLocationSettingQueryBuilder.getTables(), projection,
+                selection, selectionArgs, sortOrder, null);
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
@@ -97,17 +225,365 @@ public class WeatherProvider extends ContentProvider {
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        String[] selectionArgs = new String[]{locationSetting,
+                Integer.toString(WeatherContract.getDayKey(date))};
 
+        mSlowQueryLog.noteQuery(sWeatherByLocationSettingQueryBuilder.getTables(), projection,
+                sLocationSettingAndDaySelection, selectionArgs, sortOrder, null);
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /*
+        One round trip for the same day across many locations.  The day_key equality is served
+        by the UNIQUE (day_key, location_id) index, so this is a single index range scan joined
+        to location, instead of one binder call and one join per location.
+     */
+    private Cursor getWeatherTodayForLocations(Uri uri, String[] projection, String sortOrder) {
+        long date = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        List<String> locationSettings = WeatherContract.WeatherEntry.getLocationSettingsFromUri(uri);
+
+        StringBuilder selection = new StringBuilder(sDaySelection);
+        String[] selectionArgs = new String[locationSettings.size() + 1];
+        selectionArgs[0] = Integer.toString(WeatherContract.getDayKey(date));
+        if (!locationSettings.isEmpty()) {
+            selection.append("AND ").append(WeatherContract.LocationEntry.TABLE_NAME)
+                    .append('.').append(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                    .append(" IN (");
+            for (int i = 0; i < locationSettings.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                selectionArgs[i + 1] = locationSettings.get(i);
+            }
+            selection.append(") ");
+        }
+
+        mSlowQueryLog.noteQuery(sWeatherByLocationSettingQueryBuilder.getTables(), projection,
+                selection.toString(), selectionArgs, sortOrder, null);
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection.toString(),
+                selectionArgs,
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /*
+        Weekly highs and lows, averages and rainy-day counts, computed as one aggregate query
+        over the location's date range instead of pulling every row into Java.  Results are
+        cached until the next write to the provider.
+     */
+    private Cursor getWeatherStats(Uri uri, String[] projection) {
+        String key = uri.toString();
+        Object[] row = mStatsCache.get(key);
+        if (null == row) {
+            int generation = mWriteGeneration.get();
+            row = queryWeatherStats(uri);
+            synchronized (mStatsCache) {
+                if (generation == mWriteGeneration.get()) {
+                    mStatsCache.put(key, row);
+                }
+            }
+        }
+
+        String[] columns = null == projection ? sStatsColumns : projection;
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            int index = indexOf(sStatsColumns, columns[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown stats column: " + columns[i]);
+            }
+            values[i] = row[index];
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    private Object[] queryWeatherStats(Uri uri) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.WeatherStatsEntry.getStartDateFromUri(uri);
+        long endDate = WeatherContract.WeatherStatsEntry.getEndDateFromUri(uri);
+
+        StringBuilder selection = new StringBuilder(sLocationSettingSelection);
+        List<String> selectionArgs = new ArrayList<String>(3);
+        selectionArgs.add(locationSetting);
+        if (startDate >= 0) {
+            selection.append("AND ").append(WeatherContract.WeatherEntry.COLUMN_DAY_KEY)
+                    .append(" >= ? ");
+            selectionArgs.add(Integer.toString(WeatherContract.getDayKey(startDate)));
+        }
+        if (endDate >= 0) {
+            selection.append("AND ").append(WeatherContract.WeatherEntry.COLUMN_DAY_KEY)
+                    .append(" <= ? ");
+            selectionArgs.add(Integer.toString(WeatherContract.getDayKey(endDate)));
+        }
+
+        String[] args = selectionArgs.toArray(new String[selectionArgs.size()]);
+        mSlowQueryLog.noteQuery(sWeatherByLocationSettingQueryBuilder.getTables(),
+                sStatsProjection, selection.toString(), args, null, null);
+        Cursor cursor = sWeatherByLocationSettingQueryBuilder.query(
+                mOpenHelper.getReadableDatabase(),
+                sStatsProjection,
+                selection.toString(),
+                args,
+                null,
+                null,
+                null
+        );
+        try {
+            // An aggregate without GROUP BY always returns exactly one row.
+            cursor.moveToFirst();
+            Object[] row = new Object[sStatsColumns.length];
+            row[0] = cursor.getLong(0);
+            for (int i = 1; i < 8; i++) {
+                row[i] = cursor.isNull(i) ? null : cursor.getDouble(i);
+            }
+            for (int i = 8; i < sStatsColumns.length; i++) {
+                row[i] = cursor.getLong(i);
+            }
+            return row;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        One row per (Uri code, operation) that has seen any traffic, latencies in microseconds.
+     */
+    private Cursor getMetrics(String[] projection) {
+        String[] columns = null == projection ? WeatherContract.MetricsEntry.COLUMNS : projection;
+        int[] indices = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indices[i] = indexOf(WeatherContract.MetricsEntry.COLUMNS, columns[i]);
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("Unknown metrics column: " + columns[i]);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(columns);
+        Object[] row = new Object[WeatherContract.MetricsEntry.COLUMNS.length];
+        for (int i = 0; i < mMetrics.getCodeCount(); i++) {
+            int code = mMetrics.getCode(i);
+            for (int op = 0; op < ProviderMetrics.OP_COUNT; op++) {
+                long count = mMetrics.getCount(code, op);
+                if (count == 0) continue;
+                row[0] = code;
+                row[1] = mMetrics.getCodeName(i);
+                row[2] = ProviderMetrics.getOperationName(op);
+                row[3] = count;
+                row[4] = mMetrics.getTotalNanos(code, op) / count / 1000;
+                row[5] = mMetrics.getPercentileMicros(code, op, 50);
+                row[6] = mMetrics.getPercentileMicros(code, op, 90);
+                row[7] = mMetrics.getPercentileMicros(code, op, 99);
+                row[8] = mMetrics.getMaxNanos(code, op) / 1000;
+
+                Object[] values = new Object[columns.length];
+                for (int c = 0; c < columns.length; c++) {
+                    values[c] = row[indices[c]];
+                }
+                cursor.addRow(values);
+            }
+        }
+        return cursor;
+    }
+
+    /*
+        The slow call log, oldest first.
+     */
+    private Cursor getSlowQueries(String[] projection) {
+        String[] columns = null == projection ? WeatherContract.SlowQueryEntry.COLUMNS : projection;
+        int[] indices = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indices[i] = indexOf(WeatherContract.SlowQueryEntry.COLUMNS, columns[i]);
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("Unknown slow query column: " + columns[i]);
+            }
+        }
+
+        List<SlowQueryLog.Entry> entries = mSlowQueryLog.getEntries();
+        MatrixCursor cursor = new MatrixCursor(columns, entries.size());
+        for (SlowQueryLog.Entry entry : entries) {
+            Object[] row = {entry.timestamp, entry.uri, entry.operation, entry.sql,
+                    entry.argsShape, entry.rowCount, entry.elapsedMicros, entry.plan};
+            Object[] values = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                values[c] = row[indices[c]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    SlowQueryLog getSlowQueryLog() {
+        return mSlowQueryLog;
+    }
+
+    ProviderMetrics getProviderMetrics() {
+        return mMetrics;
+    }
+
+    private static int indexOf(String[] array, String value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i].equals(value)) return i;
+        }
+        return -1;
+    }
+
+    // Called on every write, before observers are notified.
+    private void invalidateCaches() {
+        synchronized (mStatsCache) {
+            mWriteGeneration.incrementAndGet();
+            mStatsCache.evictAll();
+        }
+    }
+
+    /*
+        Suggestions for what has been typed so far.  The full text index answers the prefix
+        match and hands back docids, which are location ids, so the location rows themselves
+        are fetched by primary key.
+     */
+    private Cursor searchLocations(Uri uri, String[] projection, String sortOrder) {
+        String match = toMatchQuery(WeatherContract.LocationEntry.getSearchQueryFromUri(uri));
+        String limit = Integer.toString(WeatherContract.LocationEntry.getSearchLimitFromUri(uri));
+        // Nothing typed that could match a word: an empty cursor with the right columns.
+        String selection = null == match ? "0" : sSearchSelection;
+        String[] selectionArgs = null == match ? null : new String[]{match};
+        String order = null == sortOrder ? sSearchOrder : sortOrder;
+
+        mSlowQueryLog.noteQuery(WeatherContract.LocationEntry.TABLE_NAME, projection,
+                selection, selectionArgs, order, limit);
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.LocationEntry.TABLE_NAME,
+                projection, selection, selectionArgs, null, null, order, limit);
+    }
+
+    /*
+        Turns typed text into an FTS MATCH expression: every word becomes a prefix term, and all
+        of them have to match.  Split the way FTS3's simple tokenizer does, on ASCII punctuation
+        and spaces, and fold ASCII case like it does, so "San Fr" becomes "san* fr*".  Anything
+        that could be read as query syntax is a separator, so user input can't break the query.
+
+        Returns null when there is no word at all.
+     */
+    static String toMatchQuery(String typed) {
+        StringBuilder match = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < typed.length(); i++) {
+            char c = typed.charAt(i);
+            boolean wordChar = c >= 0x80 || Character.isLetterOrDigit(c);
+            if (wordChar) {
+                if (!inWord && match.length() > 0) match.append(' ');
+                match.append(c < 0x80 ? Character.toLowerCase(c) : c);
+            } else if (inWord) {
+                match.append('*');
+            }
+            inWord = wordChar;
+        }
+        if (inWord) match.append('*');
+        return match.length() == 0 ? null : match.toString();
+    }
+
+    /*
+        The closest location with forecast rows within the radius, or no row at all.  The grid
+        cells around the point are range scans on the geo_cell index; only the handful of
+        locations in them have their distance computed.
+     */
+    private Cursor getNearestLocation(Uri uri, String[] projection) {
+        double lat = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double lon = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        double radiusKm = WeatherContract.LocationEntry.getRadiusKmFromUri(uri);
+
+        int[] ranges = GeoCell.coveringRanges(lat, lon, radiusKm);
+        StringBuilder selection = new StringBuilder("(");
+        String[] selectionArgs = new String[ranges.length];
+        for (int i = 0; i < ranges.length; i += 2) {
+            selection.append(i == 0 ? "" : " OR ")
+                    .append(WeatherContract.LocationEntry.COLUMN_GEO_CELL)
+                    .append(" BETWEEN ? AND ?");
+            selectionArgs[i] = Integer.toString(ranges[i]);
+            selectionArgs[i + 1] = Integer.toString(ranges[i + 1]);
+        }
+        // Only locations we actually have a forecast for are any use.  A correlated EXISTS
+        // can't drive the scan, so the planner sticks to the cell ranges and checks each
+        // candidate against the (location_id, day_key) index.
+        selection.append(") AND ").append(sHasForecastSelection);
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String[] candidateColumns = {WeatherContract.LocationEntry._ID,
+                WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                WeatherContract.LocationEntry.COLUMN_COORD_LONG};
+        mSlowQueryLog.noteQuery(WeatherContract.LocationEntry.TABLE_NAME, candidateColumns,
+                selection.toString(), selectionArgs, null, null);
+        Cursor candidates = db.query(WeatherContract.LocationEntry.TABLE_NAME, candidateColumns,
+                selection.toString(), selectionArgs, null, null, null);
+        long nearestId = -1;
+        double nearestKm = radiusKm;
+        try {
+            while (candidates.moveToNext()) {
+                double km = GeoCell.distanceKm(lat, lon,
+                        candidates.getDouble(1), candidates.getDouble(2));
+                if (km <= nearestKm) {
+                    nearestKm = km;
+                    nearestId = candidates.getLong(0);
+                }
+            }
+        } finally {
+            candidates.close();
+        }
+
+        return db.query(WeatherContract.LocationEntry.TABLE_NAME, projection,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(nearestId)}, null, null, null);
+    }
+
+    /*
+        Keyset pagination: rather than OFFSET, each page starts strictly after the last date of
+        the previous one.  With the (location_id, day_key) index every page is a bounded index
+        range scan, no matter how deep into the history it is.  The sort order is always by
+        day, since that is the key the pages are built on.
+     */
+    private Cursor getWeatherPageByLocationSetting(Uri uri, String[] projection) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long afterDate = WeatherContract.WeatherEntry.getAfterDateFromUri(uri);
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        // Julian day numbers are all positive, so -1 starts before the first row.
+        int afterDay = afterDate < 0 ? -1 : WeatherContract.getDayKey(afterDate);
+        String[] selectionArgs = new String[]{locationSetting, Integer.toString(afterDay)};
+
+        mSlowQueryLog.noteQuery(sWeatherByLocationSettingQueryBuilder.getTables(), projection,
+                sLocationSettingAfterDateSelection, selectionArgs, sDateAscendingOrder,
+                Integer.toString(limit));
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAfterDateSelection,
+                selectionArgs,
+                null,
+                null,
+                sDateAscendingOrder,
+                Integer.toString(limit)
+        );
+    }
+
+    /*
+        The forecast list, detail pane, widgets and notifications all ask for a fixed projection
+        of the weather/location join and then read every row with typed getters.  For those
+        queries we hand back a ForecastColumnCursor so readers skip the CursorWindow.  Queries
+        without a projection are left as plain SQLite cursors.
+     */
+    private static Cursor toColumnCursor(Cursor cursor, String[] projection) {
+        if (null == cursor || null == projection) {
+            return cursor;
+        }
+        return ForecastColumnCursor.fromCursor(cursor);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -126,10 +602,29 @@ public class WeatherProvider extends ContentProvider {
 
         // For each type of URI you want to add, create a corresponding code.
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
+        // UriMatcher tries children in the order they were added, so the exact "today" path
+        // has to be registered before the location wildcard.
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_TODAY,
+                WEATHER_TODAY);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_PAGE,
+                WEATHER_WITH_LOCATION_PAGE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_STATS,
+                WEATHER_STATS);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_NEAREST,
+                LOCATION_NEAREST);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_CANONICAL,
+                LOCATION_CANONICAL);
+        matcher.addURI(authority,
+                WeatherContract.PATH_LOCATION + "/" + WeatherContract.PATH_SEARCH,
+                LOCATION_SEARCH);
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
         return matcher;
     }
 
@@ -140,6 +635,8 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mChangeDispatcher = ChangeDispatcher.getInstance(getContext());
+        mWriteQueue = new WriteQueue(mOpenHelper, WriteQueue.DEFAULT_MAX_BATCH);
         return true;
     }
 
@@ -160,10 +657,26 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_PAGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_TODAY:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.WeatherStatsEntry.CONTENT_ITEM_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_NEAREST:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_CANONICAL:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_SEARCH:
+                return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case METRICS:
+                return WeatherContract.MetricsEntry.CONTENT_TYPE;
+            case SLOW_QUERIES:
+                return WeatherContract.SlowQueryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,21 +687,45 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        final int match = sUriMatcher.match(uri);
+        final long start = System.nanoTime();
+        MainThreadIo.getInstance().onDiskRead();
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = toColumnCursor(
+                        getWeatherByLocationSettingAndDate(uri, projection, sortOrder), projection);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = toColumnCursor(
+                        getWeatherByLocationSetting(uri, projection, sortOrder), projection);
+                break;
+            }
+            // "weather/*/page"
+            case WEATHER_WITH_LOCATION_PAGE: {
+                retCursor = toColumnCursor(
+                        getWeatherPageByLocationSetting(uri, projection), projection);
+                break;
+            }
+            // "weather/today"
+            case WEATHER_TODAY: {
+                retCursor = toColumnCursor(
+                        getWeatherTodayForLocations(uri, projection, sortOrder), projection);
+                break;
+            }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStats(uri, projection);
                 break;
             }
             // "weather"
             case WEATHER: {
+                mSlowQueryLog.noteQuery(WeatherContract.WeatherEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder, null);
                 retCursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
@@ -202,6 +739,8 @@ public class WeatherProvider extends ContentProvider {
             }
             // "location"
             case LOCATION: {
+                mSlowQueryLog.noteQuery(WeatherContract.LocationEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, sortOrder, null);
                 retCursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.LocationEntry.TABLE_NAME,
                         projection,
@@ -213,11 +752,36 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/nearest"
+            case LOCATION_NEAREST: {
+                retCursor = getNearestLocation(uri, projection);
+                break;
+            }
+            // "location/search"
+            case LOCATION_SEARCH: {
+                retCursor = searchLocations(uri, projection, sortOrder);
+                break;
+            }
+            // "metrics"
+            case METRICS: {
+                return getMetrics(projection);
+            }
+            // "slow_queries"
+            case SLOW_QUERIES: {
+                return getSlowQueries(projection);
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // SQLite cursors run their statement on the first getCount(), which CursorLoader calls
+        // right away anyway.  Doing it here keeps the execution inside the measured time.
+        int rowCount = retCursor.getCount();
+        long elapsed = System.nanoTime() - start;
+        mMetrics.record(match, ProviderMetrics.OP_QUERY, elapsed);
+        mSlowQueryLog.maybeRecord(mOpenHelper.getReadableDatabase(), uri,
+                ProviderMetrics.getOperationName(ProviderMetrics.OP_QUERY), rowCount, elapsed);
         return retCursor;
     }
 
@@ -225,129 +789,220 @@ public class WeatherProvider extends ContentProvider {
         Student: Add the ability to insert Locations to the implementation of this function.
      */
     @Override
-    public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    public Uri insert(Uri uri, final ContentValues values) {
         final int match = sUriMatcher.match(uri);
-        Uri returnUri;
+        final String table;
 
         switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+            case WEATHER:
+                normalizeDate(values, TimeZone.getDefault());
+                table = WeatherContract.WeatherEntry.TABLE_NAME;
                 break;
-            }
-            case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+            case LOCATION:
+            case LOCATION_CANONICAL:
+                setGeoCell(values);
+                table = WeatherContract.LocationEntry.TABLE_NAME;
                 break;
-            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        final long start = System.nanoTime();
+        long _id = mWriteQueue.execute(new WriteQueue.Write<Long>() {
+            @Override
+            public Long apply(SQLiteDatabase db) {
+                // Finding the canonical row and pointing the setting at it is one transaction.
+                return match == LOCATION_CANONICAL
+                        ? LocationAliases.resolve(db, values)
+                        : db.insert(table, null, values);
+            }
+        });
+        if ( _id <= 0 )
+            throw new android.database.SQLException("Failed to insert row into " + uri);
+        Uri returnUri = match == WEATHER
+                ? WeatherContract.WeatherEntry.buildWeatherUri(_id)
+                : WeatherContract.LocationEntry.buildLocationUri(_id);
+        long elapsed = System.nanoTime() - start;
+        mMetrics.record(match, ProviderMetrics.OP_INSERT, elapsed);
+        mSlowQueryLog.maybeRecord(mOpenHelper.getWritableDatabase(), uri,
+                ProviderMetrics.getOperationName(ProviderMetrics.OP_INSERT), 1, elapsed);
+        invalidateCaches();
+        if (match == LOCATION_CANONICAL) {
+            // Repointing a setting changes which forecast it shows.
+            mChangeDispatcher.notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+            mChangeDispatcher.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        } else {
+            mChangeDispatcher.notifyChange(uri);
+        }
         return returnUri;
     }
 
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    public int delete(Uri uri, String selection, final String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
-        int rowsDeleted;
-        // this makes delete all rows return the number of rows deleted
-        if ( null == selection ) selection = "1";
+        final String table;
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                table = WeatherContract.WeatherEntry.TABLE_NAME;
                 break;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                table = WeatherContract.LocationEntry.TABLE_NAME;
                 break;
+            case SLOW_QUERIES: {
+                // Clearing the log isn't a data change, so nobody needs to hear about it.
+                return mSlowQueryLog.clear();
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        // this makes delete all rows return the number of rows deleted
+        final String where = null == selection ? "1" : selection;
+        final long start = System.nanoTime();
+        mSlowQueryLog.noteWrite(table, where, selectionArgs);
+        int rowsDeleted = mWriteQueue.execute(new WriteQueue.Write<Integer>() {
+            @Override
+            public Integer apply(SQLiteDatabase db) {
+                return db.delete(table, where, selectionArgs);
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        mMetrics.record(match, ProviderMetrics.OP_DELETE, elapsed);
+        mSlowQueryLog.maybeRecord(mOpenHelper.getWritableDatabase(), uri,
+                ProviderMetrics.getOperationName(ProviderMetrics.OP_DELETE), rowsDeleted, elapsed);
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateCaches();
+            mChangeDispatcher.notifyChange(uri);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
+    private void normalizeDate(ContentValues values, TimeZone zone) {
+        // normalize the date value, and keep the day key in step with it
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            int dayKey = DayKey.fromMillis(dateValue, zone);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, DayKey.toMillis(dayKey, zone));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DAY_KEY, dayKey);
+        }
+    }
+
+    private static void setGeoCell(ContentValues values) {
+        // keep the grid cell in step with the coordinates; it takes both of them
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (null != lat && null != lon) {
+            values.put(WeatherContract.LocationEntry.COLUMN_GEO_CELL, GeoCell.cellFor(lat, lon));
         }
     }
 
     @Override
     public int update(
-            Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            Uri uri, final ContentValues values, final String selection,
+            final String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
-        int rowsUpdated;
+        final String table;
 
         switch (match) {
             case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                normalizeDate(values, TimeZone.getDefault());
+                table = WeatherContract.WeatherEntry.TABLE_NAME;
                 break;
             case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                setGeoCell(values);
+                table = WeatherContract.LocationEntry.TABLE_NAME;
                 break;
+            case SLOW_QUERIES: {
+                // The only thing to update on the log is its threshold.
+                Long threshold = null == values ? null : values.getAsLong(
+                        WeatherContract.SlowQueryEntry.COLUMN_THRESHOLD_MILLIS);
+                if (null == threshold || threshold < 0) {
+                    throw new IllegalArgumentException("Missing or negative " +
+                            WeatherContract.SlowQueryEntry.COLUMN_THRESHOLD_MILLIS);
+                }
+                mSlowQueryLog.setThresholdMillis(threshold);
+                return 1;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        final long start = System.nanoTime();
+        mSlowQueryLog.noteWrite(table, selection, selectionArgs);
+        int rowsUpdated = mWriteQueue.execute(new WriteQueue.Write<Integer>() {
+            @Override
+            public Integer apply(SQLiteDatabase db) {
+                return db.update(table, values, selection, selectionArgs);
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        mMetrics.record(match, ProviderMetrics.OP_UPDATE, elapsed);
+        mSlowQueryLog.maybeRecord(mOpenHelper.getWritableDatabase(), uri,
+                ProviderMetrics.getOperationName(ProviderMetrics.OP_UPDATE), rowsUpdated, elapsed);
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateCaches();
+            mChangeDispatcher.notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
-    public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+    public int bulkInsert(Uri uri, final ContentValues[] values) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
+                final long start = System.nanoTime();
+                // TimeZone.getDefault() hands out a copy, so fetch it once for the whole batch.
+                TimeZone zone = TimeZone.getDefault();
+                for (ContentValues value : values) {
+                    normalizeDate(value, zone);
+                }
+                // The write queue already runs this inside a transaction.
+                int returnCount = mWriteQueue.execute(new WriteQueue.Write<Integer>() {
+                    @Override
+                    public Integer apply(SQLiteDatabase db) {
+                        int count = 0;
+                        for (ContentValues value : values) {
+                            long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                                    value);
+                            if (_id != -1) {
+                                count++;
+                            }
                         }
+                        return count;
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
+                });
+                long elapsed = System.nanoTime() - start;
+                mMetrics.record(match, ProviderMetrics.OP_BULK_INSERT, elapsed);
+                mSlowQueryLog.maybeRecord(mOpenHelper.getWritableDatabase(), uri,
+                        ProviderMetrics.getOperationName(ProviderMetrics.OP_BULK_INSERT),
+                        returnCount, elapsed);
+                invalidateCaches();
+                mChangeDispatcher.notifyChange(uri);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        "adb shell dumpsys activity provider WeatherProvider" prints the latency table, the
+        slow call log, the change notification counts and the write queue's commit counts.
+     */
+    @Override
+    @TargetApi(18)
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        mSlowQueryLog.dump(writer);
+        mChangeDispatcher.dump(writer);
+        mWriteQueue.dump(writer);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mWriteQueue.quit();
         mOpenHelper.close();
         super.shutdown();
     }
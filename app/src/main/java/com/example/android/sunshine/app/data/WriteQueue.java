@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import com.example.android.sunshine.app.MainThreadIo;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs every database write on one thread.  Whatever has queued up while the previous batch
+ * was committing goes into the next transaction together, so writers from several threads
+ * share one commit instead of each taking the database lock for their own.
+ * <p/>
+ * A write that throws would roll back the whole batch, so when a batch fails its writes are
+ * run again one transaction each and only the one that failed sees the exception.  Writes must
+ * therefore only touch the database; anything else belongs after the future completes, which
+ * happens once the write is committed.  An Error thrown by a write fails it the same way rather
+ * than taking the writer thread down with it.
+ */
+public class WriteQueue {
+
+    private static final String LOG_TAG = WriteQueue.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /**
+     * One unit of work for the writer thread.
+     */
+    public interface Write<T> {
+        T apply(SQLiteDatabase db);
+    }
+
+    private static final Callable<Object> NOT_CALLED = new Callable<Object>() {
+        @Override
+        public Object call() {
+            throw new IllegalStateException("Queued writes are completed by the writer");
+        }
+    };
+
+    // The future is only completed once the transaction holding the write has committed.
+    private static class Task<T> extends FutureTask<T> {
+        final Write<T> mWrite;
+        T mResult;
+
+        @SuppressWarnings("unchecked")
+        Task(Write<T> write) {
+            super((Callable<T>) NOT_CALLED);
+            mWrite = write;
+        }
+
+        void apply(SQLiteDatabase db) {
+            mResult = mWrite.apply(db);
+        }
+
+        void complete() {
+            set(mResult);
+        }
+
+        void fail(Throwable t) {
+            setException(t);
+        }
+    }
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final int mMaxBatch;
+    private final BlockingQueue<Task<?>> mQueue = new LinkedBlockingQueue<>();
+    private final Thread mWriter;
+    private volatile boolean mQuit;
+
+    // Only touched on the writer thread, read by the dump
+    private volatile long mCommitCount;
+    private volatile long mWriteCount;
+
+    public WriteQueue(SQLiteOpenHelper openHelper, int maxBatch) {
+        mOpenHelper = openHelper;
+        mMaxBatch = maxBatch;
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, LOG_TAG);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Queues a write.  The future completes after the transaction it ran in has committed.
+     */
+    public <T> Future<T> submit(Write<T> write) {
+        Task<T> task = new Task<>(write);
+        if (Thread.currentThread() == mWriter) {
+            // A write queuing another write can't wait for itself.
+            runBatch(Collections.<Task<?>>singletonList(task));
+        } else {
+            if (mQuit) throw new IllegalStateException("Write queue has been shut down");
+            mQueue.add(task);
+            // The writer may have drained the queue for the last time in between.
+            if (mQuit && mQueue.remove(task)) {
+                task.fail(new IllegalStateException("Write queue has been shut down"));
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Queues a write and waits for it to be committed.  Whatever the write threw is rethrown
+     * here, on the caller's thread.
+     */
+    public <T> T execute(Write<T> write) {
+        MainThreadIo.getInstance().onDiskWrite();
+        Future<T> future = submit(write);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // The write is queued either way, so wait for its outcome.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        List<Task<?>> batch = new ArrayList<>(mMaxBatch);
+        try {
+            while (!mQuit) {
+                try {
+                    batch.add(mQueue.take());
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                mQueue.drainTo(batch, mMaxBatch - 1);
+                if (!runBatch(batch)) {
+                    for (Task<?> task : batch) {
+                        runBatch(Collections.<Task<?>>singletonList(task));
+                    }
+                }
+                batch.clear();
+            }
+        } finally {
+            // However the writer stops, anything it hasn't finished would otherwise wait forever.
+            // Failing a write that has already completed does nothing.
+            mQuit = true;
+            IllegalStateException shutDown =
+                    new IllegalStateException("Write queue has been shut down");
+            for (Task<?> task : batch) {
+                task.fail(shutDown);
+            }
+            Task<?> task;
+            while (null != (task = mQueue.poll())) {
+                task.fail(shutDown);
+            }
+        }
+    }
+
+    /**
+     * @return false if the batch rolled back and had more than one write in it, in which case
+     * none of the futures have been completed
+     */
+    private boolean runBatch(List<Task<?>> batch) {
+        Throwable failure = null;
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Task<?> task : batch) {
+                    task.apply(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (Throwable t) {
+            // An Error too: letting it out would kill the writer and leave every caller waiting.
+            failure = t;
+        }
+
+        if (null == failure) {
+            mCommitCount++;
+            mWriteCount += batch.size();
+            for (Task<?> task : batch) {
+                task.complete();
+            }
+            return true;
+        }
+        if (batch.size() > 1) {
+            Log.d(LOG_TAG, "Batch of " + batch.size() + " rolled back, retrying one by one");
+            return false;
+        }
+        batch.get(0).fail(failure);
+        return true;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Writes: " + mWriteCount + " in " + mCommitCount + " commits, " +
+                mQueue.size() + " queued");
+    }
+
+    public long getCommitCount() {
+        return mCommitCount;
+    }
+
+    public long getWriteCount() {
+        return mWriteCount;
+    }
+
+    /**
+     * Stops the writer once the batch in progress is done.  Writes still queued fail.
+     */
+    public void quit() {
+        mQuit = true;
+        mWriter.interrupt();
+    }
+}
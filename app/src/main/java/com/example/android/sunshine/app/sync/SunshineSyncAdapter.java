@@ -26,14 +26,19 @@ import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ArtPrefetcher;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.MainThreadIo;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SunshineSettings;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ChangeDispatcher;
+import com.example.android.sunshine.app.data.DayKey;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
@@ -56,6 +61,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.TimeZone;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
@@ -115,6 +121,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
         String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
+        // A freshly picked place has nothing to show until the fetch below finishes, but we may
+        // well have a forecast for somewhere just down the road.
+        if (Utility.isLocationLatLonAvailable(context)) {
+            seedFromNearbyLocation(locationQuery, Utility.getLocationLatitude(context),
+                    Utility.getLocationLongitude(context), Utility.getNearbyRadiusKm(context));
+        }
+
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
@@ -237,6 +250,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // Location information
         final String OWM_CITY = "city";
         final String OWM_CITY_NAME = "name";
+        final String OWM_CITY_ID = "id";
         final String OWM_COORD = "coord";
 
         // Location coordinate
@@ -286,12 +300,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
             String cityName = cityJson.getString(OWM_CITY_NAME);
+            // Every setting that resolves to this id shares one location and one forecast.
+            long cityId = cityJson.optLong(OWM_CITY_ID);
 
             JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
             double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
             double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+            long locationId = addLocation(locationSetting, cityId, cityName, cityLatitude,
+                    cityLongitude);
 
             // Insert the new weather information into the database
             Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
@@ -302,16 +319,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             // Since this data is also sent in-order and the first day is always the
             // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
+            // normalized date for all of our weather.
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
+            // One zone lookup for the whole forecast; the day key math after that is allocation
+            // free.  We start at the day returned by local time. Otherwise this is a mess.
+            TimeZone zone = TimeZone.getDefault();
+            int julianStartDay = DayKey.fromMillis(System.currentTimeMillis(), zone);
 
             for (int i = 0; i < weatherArray.length(); i++) {
                 // These are the values that will be collected.
@@ -330,8 +343,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Get the JSON object representing the day
                 JSONObject dayForecast = weatherArray.getJSONObject(i);
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+                // Start of the i-th day, which is exactly what the provider normalizes to
+                dateTime = DayKey.toMillis(julianStartDay + i, zone);
 
                 pressure = dayForecast.getDouble(OWM_PRESSURE);
                 humidity = dayForecast.getInt(OWM_HUMIDITY);
@@ -355,6 +368,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DAY_KEY, julianStartDay + i);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
@@ -374,10 +388,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 cVVector.toArray(cvArray);
                 getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
 
+                // The forecast starts today, so the first few rows are all the widgets,
+                // Muzei, the notification and the wear publisher need.
+                ForecastSnapshot.write(getContext(), locationSetting, cvArray);
+
                 // delete old data so we don't build up an endless history
                 getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+                        WeatherContract.WeatherEntry.COLUMN_DAY_KEY + " < ?",
+                        new String[]{Integer.toString(julianStartDay)});
+
+                // Before anything draws the new forecast, so the art is already cached
+                ArtPrefetcher.prefetch(getContext(), cvArray);
 
                 updateWidgets();
                 updateMuzei();
@@ -427,23 +448,47 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                SunshineSettings settings = SunshineSettings.get(context);
+                String locationQuery = settings.locationSetting;
+
+                long now = System.currentTimeMillis();
+                int weatherId = 0;
+                double high = 0;
+                double low = 0;
+                String desc = null;
+                boolean found = false;
+
+                // The sync just wrote the snapshot, so this should never need the provider
+                ForecastSnapshot snapshot = ForecastSnapshot.open(context);
+                int day = null == snapshot ? -1 :
+                        snapshot.findExactDay(locationQuery, WeatherContract.getDayKey(now));
+                if (day >= 0) {
+                    weatherId = snapshot.getWeatherId(day);
+                    high = snapshot.getMaxTemp(day);
+                    low = snapshot.getMinTemp(day);
+                    desc = snapshot.getShortDesc(day);
+                    found = true;
+                } else {
+                    Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, now);
+
+                    // we'll query our contentProvider, as always
+                    Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                    if (cursor.moveToFirst()) {
+                        weatherId = cursor.getInt(INDEX_WEATHER_ID);
+                        high = cursor.getDouble(INDEX_MAX_TEMP);
+                        low = cursor.getDouble(INDEX_MIN_TEMP);
+                        desc = cursor.getString(INDEX_SHORT_DESC);
+                        found = true;
+                    }
+                    cursor.close();
+                }
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (found) {
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
                     int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+                    String artUrl = settings.getArtUrl(weatherId);
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
                     // Prior to that, we use a fixed size
@@ -458,10 +503,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                     // Retrieve the large icon
                     Bitmap largeIcon;
+                    MainThreadIo.getInstance().onNetwork();
                     try {
                         largeIcon = Glide.with(context)
                                 .load(artUrl)
                                 .asBitmap()
+                                .listener(ArtPrefetcher.BITMAP_STATS)
                                 .error(artResourceId)
                                 .fitCenter()
                                 .into(largeIconWidth, largeIconHeight).get();
@@ -474,8 +521,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     // Define the text of the forecast.
                     String contentText = String.format(context.getString(R.string.format_notification),
                             desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            Utility.formatTemperature(context, settings, high),
+                            Utility.formatTemperature(context, settings, low));
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -512,61 +559,92 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     //refreshing last sync
                     SharedPreferences.Editor editor = prefs.edit();
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                    MainThreadIo.getInstance().onDiskWrite();
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Points locationSetting at the closest stored location within radiusKm that has a
+     * forecast, if locationSetting has no forecast yet.  The fetch that follows points it at
+     * whichever city the server resolves it to, which may well be the same one.
+     */
+    void seedFromNearbyLocation(String locationSetting, double lat, double lon, double radiusKm) {
+        if (radiusKm <= 0) return;
+        ContentResolver resolver = getContext().getContentResolver();
+        long now = System.currentTimeMillis();
+
+        Cursor existing = resolver.query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, now),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DAY_KEY}, null, null, null);
+        boolean hasForecast = null != existing && existing.getCount() > 0;
+        if (null != existing) existing.close();
+        if (hasForecast) return;
+
+        Cursor nearest = resolver.query(
+                WeatherContract.LocationEntry.buildNearestLocationUri(lat, lon, radiusKm),
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_CITY_NAME},
+                null, null, null);
+        if (null == nearest) return;
+        long nearestId;
+        String nearestCity;
+        try {
+            if (!nearest.moveToFirst()) return;
+            nearestId = nearest.getLong(0);
+            nearestCity = nearest.getString(1);
+        } finally {
+            nearest.close();
+        }
+
+        ContentValues alias = new ContentValues();
+        alias.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        alias.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, nearestCity);
+        alias.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        alias.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        alias.put(WeatherContract.LocationEntry.COLUMN_CANONICAL_ID, nearestId);
+        int updated = resolver.update(WeatherContract.LocationEntry.CONTENT_URI, alias,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+        if (updated == 0) {
+            resolver.insert(WeatherContract.LocationEntry.CONTENT_URI, alias);
+        }
+        // The forecast is read through the location row, so it changed too.
+        ChangeDispatcher.getInstance(getContext())
+                .notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        Log.d(LOG_TAG, "Showing " + nearestCity + "'s forecast for " + locationSetting +
+                " until its own arrives");
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.  Settings
+     * that the server resolves to the same city share its location and forecast rows.
      *
      * @param locationSetting The location string used to request updates from the server.
+     * @param cityId          openweathermap's id for the city, or 0 if it didn't send one
      * @param cityName        A human-readable city name, e.g "Mountain View"
      * @param lat             the latitude of the city
      * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the location the forecast belongs to.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    long addLocation(String locationSetting, long cityId, String cityName, double lat,
+                     double lon) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        if (cityId > 0) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
         }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        // The provider finds or creates the canonical row and points the setting at it in one
+        // go, and hands back the canonical row.
+        Uri canonicalUri = getContext().getContentResolver().insert(
+                WeatherContract.LocationEntry.buildCanonicalLocationUri(), locationValues);
+        return ContentUris.parseId(canonicalUri);
     }
 
     /**
@@ -672,6 +750,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        MainThreadIo.getInstance().onDiskWrite();
         spe.commit();
     }
 
@@ -718,23 +797,34 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // Last sync was more than 1 day ago, let's send a notification with the weather.
         String locationQuery = Utility.getPreferredLocation(context);
 
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+        long now = System.currentTimeMillis();
 
         int weatherId = 0;
         double maxTemp = 0;
         double minTemp = 0;
-        if (cursor.moveToFirst()) {
-            weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            maxTemp = cursor.getDouble(INDEX_MAX_TEMP);
-            minTemp = cursor.getDouble(INDEX_MIN_TEMP);
+        ForecastSnapshot snapshot = ForecastSnapshot.open(context);
+        int day = null == snapshot ? -1 :
+                snapshot.findExactDay(locationQuery, WeatherContract.getDayKey(now));
+        if (day >= 0) {
+            weatherId = snapshot.getWeatherId(day);
+            maxTemp = snapshot.getMaxTemp(day);
+            minTemp = snapshot.getMinTemp(day);
         } else {
+            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, now);
+
+            // we'll query our contentProvider, as always
+            Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+
+            if (cursor.moveToFirst()) {
+                weatherId = cursor.getInt(INDEX_WEATHER_ID);
+                maxTemp = cursor.getDouble(INDEX_MAX_TEMP);
+                minTemp = cursor.getDouble(INDEX_MIN_TEMP);
+            } else {
+                cursor.close();
+                return;
+            }
             cursor.close();
-            return;
         }
-        cursor.close();
 
         PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/sunshine");
         putDataMapReq.getDataMap().putDouble(WEAR_MAX_TEMP_KEY, maxTemp);
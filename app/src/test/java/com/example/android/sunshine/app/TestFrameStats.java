@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import junit.framework.TestCase;
+
+/*
+    Plain JVM tests for turning Choreographer frame times into frame durations and jank counts.
+ */
+public class TestFrameStats extends TestCase {
+
+    private static final long INTERVAL = FrameStats.DEFAULT_FRAME_INTERVAL_NANOS;
+
+    // Feeds frames at the given multiples of the refresh interval, starting from start.
+    private static long frames(FrameStats stats, long start, double... intervals) {
+        long time = start;
+        stats.onFrame(time);
+        for (double interval : intervals) {
+            time += (long) (interval * INTERVAL);
+            stats.onFrame(time);
+        }
+        return time;
+    }
+
+    public void testSmoothScroll() {
+        FrameStats stats = new FrameStats("frames", INTERVAL);
+        frames(stats, 1000L, 1, 1, 1, 1, 1.02, 0.98, 1);
+        assertEquals(7, stats.getFrames());
+        assertEquals(0, stats.getJankyFrames());
+        assertEquals(0, stats.getDroppedFrames());
+        assertEquals(7, stats.getFrameTimes().getCount());
+        assertEquals(0, stats.getFrameTimes().countAtLeast(32768));
+    }
+
+    public void testJank() {
+        FrameStats stats = new FrameStats("frames", INTERVAL);
+        // One late frame, one that missed three vsyncs, and one just under the jank line
+        frames(stats, 0, 1, 2, 1, 4, 1, 1.45);
+        assertEquals(6, stats.getFrames());
+        assertEquals(2, stats.getJankyFrames());
+        assertEquals(1 + 3, stats.getDroppedFrames());
+        assertEquals(2, stats.getFrameTimes().countAtLeast(32768));
+    }
+
+    public void testSessionsDoNotJoin() {
+        FrameStats stats = new FrameStats("frames", INTERVAL);
+        long end = frames(stats, 0, 1, 1);
+        stats.endSession();
+        // A second scroll a minute later
+        frames(stats, end + 60 * 1000000000L, 1, 1);
+        assertEquals(4, stats.getFrames());
+        assertEquals(0, stats.getJankyFrames());
+        assertTrue(stats.getFrameTimes().getMaxNanos() < 2 * INTERVAL);
+    }
+
+    public void testOtherRefreshRates() {
+        FrameStats stats = new FrameStats("frames", INTERVAL);
+        // 25ms frames are fine for jank at 60Hz, but each misses a vsync at 90Hz
+        frames(stats, 0, 1.5, 1.5);
+        assertEquals(0, stats.getJankyFrames());
+        stats.endSession();
+        stats.setFrameIntervalNanos(1000000000L / 90);
+        frames(stats, 0, 1.5, 1.5);
+        assertEquals(2, stats.getJankyFrames());
+        assertEquals(2, stats.getDroppedFrames());
+    }
+
+    public void testExport() {
+        FrameStats stats = new FrameStats("scroll_frame", INTERVAL);
+        frames(stats, 0, 1, 3);
+        StringBuilder sb = new StringBuilder();
+        stats.appendTo(sb);
+        String export = sb.toString();
+        assertTrue(export, export.startsWith(
+                "scroll_frame,frames=2,janky=1,dropped=2,intervalUs=16666\n" +
+                "scroll_frame,count=2,"));
+
+        stats.reset();
+        assertEquals(0, stats.getFrames());
+        assertEquals(0, stats.getFrameTimes().getCount());
+    }
+}
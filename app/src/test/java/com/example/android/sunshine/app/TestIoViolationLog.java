@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Plain JVM tests for finding and counting the call sites of blocking I/O.
+ */
+public class TestIoViolationLog extends TestCase {
+
+    private static final String PREFIX = "com.example.android.sunshine.app.";
+    private static final String GUARD = PREFIX + "MainThreadIo";
+
+    private static StackTraceElement frame(String className, String method, int line) {
+        return new StackTraceElement(className, method, "File.java", line);
+    }
+
+    private static final StackTraceElement[] STACK = {
+            frame(GUARD, "record", 90),
+            frame(GUARD, "onDiskWrite", 80),
+            frame(PREFIX + "SettingsActivity", "onActivityResult", 220),
+            frame("android.app.Activity", "dispatchActivityResult", 6000),
+            frame(PREFIX + "MainActivity", "onCreate", 60),
+    };
+
+    public void testFindCallSiteSkipsGuard() {
+        StackTraceElement site = IoViolationLog.findCallSite(STACK, PREFIX, GUARD);
+        assertEquals(PREFIX + "SettingsActivity", site.getClassName());
+        assertEquals("onActivityResult", site.getMethodName());
+    }
+
+    public void testFindCallSiteSkipsGuardInnerClasses() {
+        StackTraceElement[] stack = {
+                frame(GUARD + "$1", "run", 10),
+                frame("android.os.Handler", "dispatchMessage", 95),
+                frame(PREFIX + "sync.SunshineSyncAdapter", "notifyWeather", 512),
+        };
+        StackTraceElement site = IoViolationLog.findCallSite(stack, PREFIX, GUARD);
+        assertEquals("notifyWeather", site.getMethodName());
+        assertEquals("disk_read sync.SunshineSyncAdapter.notifyWeather",
+                IoViolationLog.key(IoViolationLog.DISK_READ, site, PREFIX));
+    }
+
+    public void testFindCallSiteOutsideOurCode() {
+        StackTraceElement[] stack = {
+                frame(GUARD, "record", 90),
+                frame("android.app.SharedPreferencesImpl", "commit", 500),
+        };
+        assertNull(IoViolationLog.findCallSite(stack, PREFIX, GUARD));
+    }
+
+    public void testFindCallSiteChargesChokePointCaller() {
+        StackTraceElement[] stack = {
+                frame(GUARD, "record", 90),
+                frame(GUARD, "onDiskRead", 76),
+                frame(PREFIX + "Utility", "getPrefs", 41),
+                frame(PREFIX + "Utility", "getPreferredLocation", 64),
+                frame(PREFIX + "MainActivity", "onCreate", 55),
+        };
+        StackTraceElement site = IoViolationLog.findCallSite(stack, PREFIX, GUARD,
+                PREFIX + "Utility", PREFIX + "SunshineSettings");
+        assertEquals(PREFIX + "MainActivity", site.getClassName());
+        assertEquals("onCreate", site.getMethodName());
+    }
+
+    public void testFindCallSiteThroughFramework() {
+        // A provider query: our caller, the framework's resolver, then the provider
+        StackTraceElement[] stack = {
+                frame(GUARD, "onDiskRead", 76),
+                frame(PREFIX + "data.WeatherProvider", "query", 690),
+                frame("android.content.ContentProvider$Transport", "query", 200),
+                frame("android.content.ContentResolver", "query", 478),
+                frame(PREFIX + "MainActivity", "onResume", 164),
+        };
+        StackTraceElement site = IoViolationLog.findCallSite(stack, PREFIX, GUARD,
+                PREFIX + "data.WeatherProvider");
+        assertEquals("onResume", site.getMethodName());
+    }
+
+    public void testFindCallSiteFallsBackToChokePoint() {
+        // A write the framework started, with nothing of ours above the provider
+        StackTraceElement[] stack = {
+                frame(GUARD, "onDiskWrite", 80),
+                frame(PREFIX + "data.WriteQueue", "execute", 135),
+                frame(PREFIX + "data.WeatherProvider$4", "run", 960),
+                frame(PREFIX + "data.WeatherProvider", "bulkInsert", 958),
+                frame("android.content.ContentProvider$Transport", "bulkInsert", 250),
+        };
+        StackTraceElement site = IoViolationLog.findCallSite(stack, PREFIX, GUARD,
+                PREFIX + "data.WriteQueue", PREFIX + "data.WeatherProvider");
+        assertEquals(PREFIX + "data.WriteQueue", site.getClassName());
+    }
+
+    public void testKeyIgnoresAnonymousClassNumbers() {
+        assertEquals("disk_read ForecastFragment.onClick", IoViolationLog.key(
+                IoViolationLog.DISK_READ, frame(PREFIX + "ForecastFragment$2", "onClick", 202),
+                PREFIX));
+        assertEquals("disk_read ForecastAdapter$ViewHolder.onClick", IoViolationLog.key(
+                IoViolationLog.DISK_READ,
+                frame(PREFIX + "ForecastAdapter$ViewHolder$1", "onClick", 80), PREFIX));
+    }
+
+    public void testKeyIgnoresLineNumbers() {
+        String before = IoViolationLog.key(IoViolationLog.DISK_WRITE,
+                frame(PREFIX + "SettingsActivity", "onActivityResult", 220), PREFIX);
+        String after = IoViolationLog.key(IoViolationLog.DISK_WRITE,
+                frame(PREFIX + "SettingsActivity", "onActivityResult", 231), PREFIX);
+        assertEquals("disk_write SettingsActivity.onActivityResult", before);
+        assertEquals(before, after);
+    }
+
+    public void testCountsAggregateBySite() {
+        IoViolationLog log = new IoViolationLog();
+        assertTrue(log.record("disk_write SettingsActivity.onActivityResult"));
+        assertFalse(log.record("disk_write SettingsActivity.onActivityResult"));
+        assertTrue(log.record("network sync.SunshineSyncAdapter.notifyWeather"));
+        assertFalse(log.record("disk_write SettingsActivity.onActivityResult"));
+
+        assertEquals(3, log.getCount("disk_write SettingsActivity.onActivityResult"));
+        assertEquals(1, log.getCount("network sync.SunshineSyncAdapter.notifyWeather"));
+        assertEquals(0, log.getCount("disk_read ForecastStore.getStartupList"));
+        assertEquals(4, log.getTotal());
+        assertEquals(Arrays.asList("disk_write SettingsActivity.onActivityResult",
+                "network sync.SunshineSyncAdapter.notifyWeather"), log.getKeys());
+
+        log.reset();
+        assertEquals(0, log.getTotal());
+        assertTrue(log.getKeys().isEmpty());
+        assertTrue(log.record("disk_write SettingsActivity.onActivityResult"));
+    }
+
+    public void testNewKeysAgainstBaseline() {
+        List<String> baseline = Collections.singletonList("disk_read ForecastStore.getStartupList");
+        IoViolationLog log = new IoViolationLog();
+        log.record("disk_read ForecastStore.getStartupList");
+        assertTrue(log.getNewKeys(baseline).isEmpty());
+
+        log.record("network sync.SunshineSyncAdapter.notifyWeather");
+        log.record("disk_read ForecastStore.getStartupList");
+        assertEquals(Collections.singletonList("network sync.SunshineSyncAdapter.notifyWeather"),
+                log.getNewKeys(baseline));
+    }
+
+    public void testAppendTo() {
+        List<String> baseline = Collections.singletonList("disk_read ForecastStore.getStartupList");
+        IoViolationLog log = new IoViolationLog();
+        log.record("disk_read ForecastStore.getStartupList");
+        log.record("disk_read ForecastStore.getStartupList");
+        log.record("disk_write SettingsActivity.onActivityResult");
+
+        StringBuilder sb = new StringBuilder();
+        log.appendTo(sb, "io", baseline);
+        assertEquals("io,total=3,sites=2\n"
+                + "io,disk_read,ForecastStore.getStartupList,2,known\n"
+                + "io,disk_write,SettingsActivity.onActivityResult,1,new\n", sb.toString());
+    }
+}
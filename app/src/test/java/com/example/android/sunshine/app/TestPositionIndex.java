@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/*
+    Plain JVM tests for the date and id to position index, checked against the linear scans it
+    replaces.
+ */
+public class TestPositionIndex extends TestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long FIRST_DAY = 1446336000000L;
+    private static final int LOOKUPS = 20000;
+
+    private static int scan(long[] keys, long key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) return i;
+        }
+        return PositionIndex.NOT_FOUND;
+    }
+
+    private static long[] dates(int days) {
+        long[] dates = new long[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = FIRST_DAY + i * DAY_IN_MILLIS;
+        }
+        return dates;
+    }
+
+    public void testEmpty() {
+        PositionIndex index = PositionIndex.of(new long[0]);
+        assertEquals(PositionIndex.NOT_FOUND, index.get(0));
+        assertEquals(PositionIndex.NOT_FOUND, index.get(FIRST_DAY));
+    }
+
+    public void testMatchesScan() {
+        Random random = new Random(45);
+        for (int size : new int[]{1, 2, 3, 14, 100, 1000}) {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                // Small range, so plenty of repeats
+                keys[i] = random.nextInt(size * 2) - size / 2;
+            }
+            PositionIndex index = PositionIndex.of(keys);
+            for (long key = -size; key <= size * 2; key++) {
+                assertEquals("Error: key " + key + " of " + size, scan(keys, key), index.get(key));
+            }
+        }
+    }
+
+    public void testDatesAndIds() {
+        long[] dates = dates(10000);
+        PositionIndex byDate = PositionIndex.of(dates);
+        for (int i = 0; i < dates.length; i++) {
+            assertEquals(i, byDate.get(dates[i]));
+            assertEquals(PositionIndex.NOT_FOUND, byDate.get(dates[i] + 1));
+        }
+
+        long[] ids = new long[10000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 5000 + i;
+        }
+        PositionIndex byId = PositionIndex.of(ids);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(i, byId.get(ids[i]));
+        }
+        assertEquals(PositionIndex.NOT_FOUND, byId.get(4999));
+    }
+
+    public void testLookupCost() {
+        for (int size : new int[]{1000, 10000}) {
+            long[] dates = dates(size);
+            Random random = new Random(size);
+            long[] wanted = new long[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                wanted[i] = dates[random.nextInt(size)];
+            }
+
+            long sink = 0;
+            long start = System.nanoTime();
+            for (long date : wanted) {
+                sink += scan(dates, date);
+            }
+            long scanNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            PositionIndex index = PositionIndex.of(dates);
+            long buildNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (long date : wanted) {
+                sink -= index.get(date);
+            }
+            long indexNanos = System.nanoTime() - start;
+
+            assertEquals(0, sink);
+            System.out.println(size + " rows: scan " + scanNanos / LOOKUPS + "ns, index " +
+                    indexNanos / LOOKUPS + "ns per lookup, " + buildNanos / 1000 + "us to build");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+    Plain JVM tests: DayKey doesn't touch the framework, so it is checked against
+    java.util.Calendar here rather than against android.text.format.Time on a device.
+ */
+public class TestDayKey extends TestCase {
+
+    private static final long HOUR_IN_MILLIS = 3600000L;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    // UTC, both hemispheres' DST rules, half and quarter hour offsets, zones that have had DST
+    // changes at midnight, and Apia, which skipped 2011-12-30 entirely.
+    private static final String[] ZONES = {
+            "UTC",
+            "America/Los_Angeles",
+            "America/New_York",
+            "America/Sao_Paulo",
+            "America/Havana",
+            "America/Santiago",
+            "Europe/London",
+            "Europe/Berlin",
+            "Asia/Kolkata",
+            "Asia/Kathmandu",
+            "Asia/Tehran",
+            "Australia/Sydney",
+            "Australia/Lord_Howe",
+            "Pacific/Chatham",
+            "Pacific/Apia"
+    };
+
+    // 1969 (negative millis) through 2030
+    private static final long FIRST = -400 * DAY_IN_MILLIS;
+    private static final long LAST = 60 * 365 * DAY_IN_MILLIS;
+
+    public void testEpoch() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        assertEquals(DayKey.EPOCH_JULIAN_DAY, DayKey.fromMillis(0, utc));
+        assertEquals(DayKey.EPOCH_JULIAN_DAY, DayKey.fromMillis(DAY_IN_MILLIS - 1, utc));
+        assertEquals(DayKey.EPOCH_JULIAN_DAY + 1, DayKey.fromMillis(DAY_IN_MILLIS, utc));
+        assertEquals(DayKey.EPOCH_JULIAN_DAY - 1, DayKey.fromMillis(-1, utc));
+        assertEquals(0, DayKey.toMillis(DayKey.EPOCH_JULIAN_DAY, utc));
+    }
+
+    public void testFromMillisMatchesCalendar() {
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            Calendar calendar = Calendar.getInstance(zone);
+            // step by a little over a day so every hour of the day gets visited
+            for (long millis = FIRST; millis < LAST; millis += DAY_IN_MILLIS + 5 * HOUR_IN_MILLIS) {
+                calendar.setTimeInMillis(millis);
+                assertEquals(id + " at " + millis, julianDay(calendar),
+                        DayKey.fromMillis(millis, zone));
+            }
+        }
+    }
+
+    public void testToMillisIsStartOfDay() {
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            int first = DayKey.fromMillis(FIRST, zone);
+            int last = DayKey.fromMillis(LAST, zone);
+            for (int day = first; day <= last; day++) {
+                long start = DayKey.toMillis(day, zone);
+                if (DayKey.fromMillis(start, zone) != day) {
+                    // Only a day that never happened may fail to round trip.
+                    assertTrue(id + " day " + day, isSkippedDay(day, zone));
+                    continue;
+                }
+                // Nothing earlier belongs to the same day.  Offsets change by at most a few
+                // hours, so checking the hour before is enough to catch a wrong offset.
+                assertTrue(id + " day " + day,
+                        DayKey.fromMillis(start - 1, zone) < day
+                                || isRepeatedMidnight(start, zone));
+            }
+        }
+    }
+
+    public void testDstTransitionDays() {
+        TimeZone newYork = TimeZone.getTimeZone("America/New_York");
+        // 2015-03-08 (23 hour day) and 2015-11-01 (25 hour day)
+        int spring = julianDay(2015, Calendar.MARCH, 8);
+        int fall = julianDay(2015, Calendar.NOVEMBER, 1);
+        assertEquals(23 * HOUR_IN_MILLIS,
+                DayKey.toMillis(spring + 1, newYork) - DayKey.toMillis(spring, newYork));
+        assertEquals(25 * HOUR_IN_MILLIS,
+                DayKey.toMillis(fall + 1, newYork) - DayKey.toMillis(fall, newYork));
+
+        // Sao Paulo used to start DST at midnight: 2014-10-19 began at 01:00.
+        TimeZone saoPaulo = TimeZone.getTimeZone("America/Sao_Paulo");
+        int gap = julianDay(2014, Calendar.OCTOBER, 19);
+        Calendar calendar = Calendar.getInstance(saoPaulo);
+        calendar.setTimeInMillis(DayKey.toMillis(gap, saoPaulo));
+        assertEquals(19, calendar.get(Calendar.DAY_OF_MONTH));
+        assertEquals(1, calendar.get(Calendar.HOUR_OF_DAY));
+        assertEquals(0, calendar.get(Calendar.MINUTE));
+    }
+
+    public void testNormalizeIsIdempotent() {
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (long millis = FIRST; millis < LAST; millis += 7 * DAY_IN_MILLIS + HOUR_IN_MILLIS) {
+                long normalized = DayKey.normalize(millis, zone);
+                assertTrue(id + " at " + millis, normalized <= millis);
+                assertEquals(id + " at " + millis, normalized, DayKey.normalize(normalized, zone));
+            }
+        }
+    }
+
+    private static boolean isSkippedDay(int day, TimeZone zone) {
+        // The day before's start plus up to two days never lands on it.
+        long start = DayKey.toMillis(day - 1, zone);
+        for (long millis = start; millis < start + 2 * DAY_IN_MILLIS; millis += HOUR_IN_MILLIS) {
+            if (DayKey.fromMillis(millis, zone) == day) return false;
+        }
+        return true;
+    }
+
+    // When clocks go back across midnight, the day starts, briefly falls back into the
+    // previous day, and then starts again.
+    private static boolean isRepeatedMidnight(long start, TimeZone zone) {
+        return zone.getOffset(start - 1) > zone.getOffset(start + 6 * HOUR_IN_MILLIS);
+    }
+
+    private static int julianDay(Calendar calendar) {
+        return julianDay(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH),
+                calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    private static int julianDay(int year, int month, int dayOfMonth) {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(year, month, dayOfMonth);
+        long millis = utc.getTimeInMillis();
+        long days = millis / DAY_IN_MILLIS;
+        if (millis < 0 && millis % DAY_IN_MILLIS != 0) days--;
+        return (int) (days + DayKey.EPOCH_JULIAN_DAY);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/*
+    Plain JVM tests for the grid behind the nearest location lookup.  The important property is
+    that the covering ranges never miss a point inside the circle.
+ */
+public class TestGeoCell extends TestCase {
+
+    private static final int SAMPLES = 20000;
+
+    private static boolean covered(int[] ranges, int cell) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (cell >= ranges[i] && cell <= ranges[i + 1]) return true;
+        }
+        return false;
+    }
+
+    public void testCellFor() {
+        assertEquals(0, GeoCell.cellFor(-90, -180));
+        assertEquals(GeoCell.ROWS * GeoCell.COLUMNS - 1, GeoCell.cellFor(90, 179.99));
+        // 180 and -180 are the same meridian
+        assertEquals(GeoCell.cellFor(10, -180), GeoCell.cellFor(10, 180));
+        assertEquals(GeoCell.cellFor(10, 170), GeoCell.cellFor(10, -190));
+        // neighbours along a row differ by one, along a column by a whole row
+        assertEquals(GeoCell.cellFor(37.41, -122.05) + 1, GeoCell.cellFor(37.41, -121.95));
+        assertEquals(GeoCell.cellFor(37.41, -122.05) + GeoCell.COLUMNS,
+                GeoCell.cellFor(37.51, -122.05));
+    }
+
+    public void testDistance() {
+        assertEquals(0, GeoCell.distanceKm(51.5, -0.12, 51.5, -0.12), 1e-9);
+        // London to Paris is about 344km
+        assertEquals(344, GeoCell.distanceKm(51.5074, -0.1278, 48.8566, 2.3522), 2);
+        // a degree of latitude
+        assertEquals(111.19, GeoCell.distanceKm(0, 0, 1, 0), 0.01);
+        // across the antimeridian
+        assertEquals(22.2, GeoCell.distanceKm(0, 179.9, 0, -179.9), 0.1);
+    }
+
+    public void testRangesCoverTheCircle() {
+        Random random = new Random(36);
+        double[] radii = {1, 5, 10, 25, 100};
+        for (int i = 0; i < SAMPLES; i++) {
+            double lat = random.nextDouble() * 180 - 90;
+            double lon = random.nextDouble() * 360 - 180;
+            double radius = radii[i % radii.length];
+            int[] ranges = GeoCell.coveringRanges(lat, lon, radius);
+
+            // a point somewhere inside the circle, in a random direction
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double distance = random.nextDouble() * radius / GeoCell.EARTH_RADIUS_KM;
+            double lat1 = Math.toRadians(lat);
+            double lat2 = Math.asin(Math.sin(lat1) * Math.cos(distance)
+                    + Math.cos(lat1) * Math.sin(distance) * Math.cos(bearing));
+            double lon2 = Math.toRadians(lon) + Math.atan2(
+                    Math.sin(bearing) * Math.sin(distance) * Math.cos(lat1),
+                    Math.cos(distance) - Math.sin(lat1) * Math.sin(lat2));
+            double pointLat = Math.toDegrees(lat2);
+            double pointLon = Math.toDegrees(lon2);
+
+            assertTrue("Point " + pointLat + "," + pointLon + " within " + radius + "km of " +
+                            lat + "," + lon + " isn't covered",
+                    covered(ranges, GeoCell.cellFor(pointLat, pointLon)));
+        }
+    }
+
+    public void testRangesAtTheEdges() {
+        // next to the antimeridian the row is split in two
+        int[] ranges = GeoCell.coveringRanges(0, 179.99, 10);
+        assertTrue(covered(ranges, GeoCell.cellFor(0, -179.95)));
+        assertTrue(covered(ranges, GeoCell.cellFor(0, 179.95)));
+        assertFalse(covered(ranges, GeoCell.cellFor(0, 0)));
+
+        // at the pole every longitude is close
+        ranges = GeoCell.coveringRanges(89.99, 0, 10);
+        assertTrue(covered(ranges, GeoCell.cellFor(89.99, 180)));
+        assertTrue(covered(ranges, GeoCell.cellFor(89.99, -90)));
+    }
+
+    public void testRangesStaySmall() {
+        // A handful of range scans for the radii the settings offer.
+        assertTrue(GeoCell.coveringRanges(37.4, -122.1, 25).length <= 2 * 6);
+        assertTrue(GeoCell.coveringRanges(64.8, -147.4, 25).length <= 2 * 6);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Plain JVM tests for the histogram behind the provider metrics and the scroll performance
+    numbers, checked against exact figures from the sorted durations.
+ */
+public class TestLatencyHistogram extends TestCase {
+
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram("empty");
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMinNanos());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getMeanMicros());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals("empty,count=0,min=0,mean=0,p50=0,p90=0,p99=0,max=0\n", histogram.toString());
+    }
+
+    public void testBuckets() {
+        assertEquals(0, LatencyHistogram.bucketFor(0));
+        assertEquals(0, LatencyHistogram.bucketFor(999));
+        assertEquals(1, LatencyHistogram.bucketFor(1000));
+        assertEquals(2, LatencyHistogram.bucketFor(2000));
+        assertEquals(2, LatencyHistogram.bucketFor(3999));
+        assertEquals(11, LatencyHistogram.bucketFor(1024 * 1000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+
+        // every latency is below the upper bound of its bucket
+        long[] samples = {0, 500, 1000, 1500, 70000, 5000000, 123456789};
+        for (long nanos : samples) {
+            assertTrue(nanos / 1000 <
+                    LatencyHistogram.bucketUpperBoundMicros(LatencyHistogram.bucketFor(nanos)));
+        }
+    }
+
+    public void testSummary() {
+        LatencyHistogram histogram = new LatencyHistogram("binds");
+        for (long micros : new long[]{300, 700, 90, 1500, 40000}) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(5, histogram.getCount());
+        assertEquals(90000, histogram.getMinNanos());
+        assertEquals(40000000, histogram.getMaxNanos());
+        assertEquals((300 + 700 + 90 + 1500 + 40000) / 5, histogram.getMeanMicros());
+        // 700 is the median, reported as its bucket's bound
+        assertEquals(1024, histogram.getPercentileMicros(50));
+        assertEquals(65536, histogram.getPercentileMicros(100));
+        assertEquals(1, histogram.countAtLeast(32768));
+        assertEquals(2, histogram.countAtLeast(1024));
+
+        assertEquals("binds,count=5,min=90,mean=8518,p50=1024,p90=65536,p99=65536,max=40000\n" +
+                "binds,64,128,1\n" +
+                "binds,256,512,1\n" +
+                "binds,512,1024,1\n" +
+                "binds,1024,2048,1\n" +
+                "binds,32768,65536,1\n", histogram.toString());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMinNanos());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+
+    public void testLastBucketReportsTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram("stalls");
+        histogram.record(45 * 1000000000L);
+        assertEquals(45 * 1000000L, histogram.getPercentileMicros(50));
+        assertEquals("stalls,16777216,,1\n",
+                histogram.toString().substring(histogram.toString().indexOf('\n') + 1));
+    }
+
+    public void testCountAtLeastNeedsABound() {
+        try {
+            new LatencyHistogram("frames").countAtLeast(15000);
+            fail("15000 isn't a bucket bound");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("threads");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long nanos = (t + 1) * 1000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(nanos);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals((1 + 2 + 3 + 4) * 1000L * 100000, histogram.getTotalNanos());
+        assertEquals(1000, histogram.getMinNanos());
+        assertEquals(4000, histogram.getMaxNanos());
+    }
+
+    public void testPercentilesWithinABucket() {
+        Random random = new Random(48);
+        LatencyHistogram histogram = new LatencyHistogram("random");
+        long[] durations = new long[5000];
+        for (int i = 0; i < durations.length; i++) {
+            // Mostly smooth frames with a long tail
+            durations[i] = random.nextInt(10) == 0 ? 16000 + random.nextInt(200000)
+                    : 4000 + random.nextInt(12000);
+            histogram.record(durations[i] * 1000);
+        }
+        Arrays.sort(durations);
+        for (double percentile : new double[]{1, 25, 50, 75, 90, 95, 99, 99.9, 100}) {
+            int rank = (int) Math.ceil(percentile / 100 * durations.length);
+            long exact = durations[rank - 1];
+            long reported = histogram.getPercentileMicros(percentile);
+            // The reported figure is the top of the exact one's bucket
+            int bucket = LatencyHistogram.bucketFor(exact * 1000);
+            assertTrue("Error: p" + percentile + " " + reported + " for " + exact, reported > exact);
+            assertEquals(LatencyHistogram.bucketUpperBoundMicros(bucket), reported);
+        }
+    }
+}
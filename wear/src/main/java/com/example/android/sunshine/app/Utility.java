@@ -3,11 +3,33 @@ package com.example.android.sunshine.app;
 import android.content.Context;
 import android.text.format.Time;
 
+import java.util.Arrays;
+
 /**
  * Created by carlosjimenez on 4/1/16.
  */
 public class Utility {
 
+    // Icon for each OpenWeatherMap condition id, -1 where there is none.  Based on weather
+    // code data found at:
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    private static final int[] ICONS = new int[1000];
+
+    static {
+        Arrays.fill(ICONS, -1);
+        Arrays.fill(ICONS, 200, 233, R.drawable.ic_storm);
+        Arrays.fill(ICONS, 300, 322, R.drawable.ic_light_rain);
+        Arrays.fill(ICONS, 500, 505, R.drawable.ic_rain);
+        ICONS[511] = R.drawable.ic_snow;
+        Arrays.fill(ICONS, 520, 532, R.drawable.ic_rain);
+        Arrays.fill(ICONS, 600, 623, R.drawable.ic_snow);
+        Arrays.fill(ICONS, 701, 762, R.drawable.ic_fog);
+        ICONS[781] = R.drawable.ic_storm;
+        ICONS[800] = R.drawable.ic_clear;
+        ICONS[801] = R.drawable.ic_light_clouds;
+        Arrays.fill(ICONS, 802, 805, R.drawable.ic_cloudy);
+    }
+
     public static boolean isMetric(Context context) {
 //        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 //        return prefs.getString(context.getString(R.string.pref_units_key),
@@ -35,32 +57,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        return weatherId < 0 || weatherId >= ICONS.length ? -1 : ICONS[weatherId];
     }
 
     public static String getMonth(int month) {